@@ -0,0 +1,246 @@
+package com.gravypod.SleepServer;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import sleep.error.YourCodeSucksException;
+import sleep.runtime.ScriptLoader;
+
+import fi.iki.elonen.NanoHTTPD;
+
+/**
+ * Compiles the pages of every site before the server starts listening, so the
+ * first visitors after a restart don't wait on the parser. Pages are split
+ * into fragments the same way {@link SleepCodeHandler} does it and every
+ * fragment is compiled under the name the handler loads it by, which leaves
+ * the blocks in the global block cache (and on disk with -Dsleep.cache).
+ * Pages are compiled in parallel on a fork-join pool.
+ *
+ * <p>
+ * A recorded sample of requests can then be replayed against the pages to
+ * warm up the JIT. The sample has one request per line, a host followed by
+ * the path and query, e.g. <code>home.gravypod.com /index.sl?a=5</code>. The
+ * host may be left out to use the first site. Blank lines and lines starting
+ * with # are skipped.
+ * </p>
+ *
+ * @author gravypod
+ */
+public class Precompiler {
+	
+	private final ScriptLoader loader;
+	
+	private final Site[] sites;
+	
+	private final Map<String, String> mimeTypes;
+	
+	public Precompiler(final ScriptLoader loader, final Site[] sites, final Map<String, String> mimeTypes) {
+	
+		this.loader = loader;
+		this.sites = sites;
+		this.mimeTypes = mimeTypes;
+		
+		loader.setGlobalCache(true);
+	}
+	
+	/**
+	 * Every sleep page under the root directories of the sites, with the name
+	 * the handler loads it by
+	 */
+	public Map<File, String> findPages() {
+	
+		final Map<File, String> pages = new LinkedHashMap<File, String>();
+		
+		for (final Site site : sites) {
+			final File root = new File(site.getRootDir()).getAbsoluteFile();
+			collect(root, root, pages);
+		}
+		
+		return pages;
+	}
+	
+	private void collect(final File root, final File directory, final Map<File, String> pages) {
+	
+		final File[] files = directory.listFiles();
+		
+		if (files == null) {
+			return;
+		}
+		
+		for (final File f : files) {
+			if (f.isDirectory()) {
+				collect(root, f, pages);
+			} else if (isPage(f) && !pages.containsKey(f)) {
+				pages.put(f, SleepCodeHandler.pageName(root, f));
+			}
+		}
+	}
+	
+	private boolean isPage(final File f) {
+	
+		final int dot = f.getName().lastIndexOf('.');
+		return dot >= 0 && "application/sl".equalsIgnoreCase(mimeTypes.get(f.getName().substring(dot + 1).toLowerCase()));
+	}
+	
+	/**
+	 * Compiles the fragments of every page, returns how many were compiled
+	 */
+	public int precompile() {
+	
+		final List<Callable<Integer>> tasks = new ArrayList<Callable<Integer>>();
+		
+		for (final Map.Entry<File, String> page : findPages().entrySet()) {
+			tasks.add(new Callable<Integer>() {
+				
+				@Override
+				public Integer call() throws IOException {
+				
+					return compile(page.getKey(), page.getValue());
+				}
+			});
+		}
+		
+		final ForkJoinPool pool = new ForkJoinPool();
+		
+		try {
+			int compiled = 0;
+			
+			for (final Future<Integer> result : pool.invokeAll(tasks)) {
+				try {
+					compiled += result.get();
+				} catch (final ExecutionException e) {
+					e.getCause().printStackTrace();
+				}
+			}
+			
+			return compiled;
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return 0;
+		} finally {
+			pool.shutdown();
+		}
+	}
+	
+	private int compile(final File page, final String name) throws IOException {
+	
+		final List<String> fragments = SleepCodeHandler.fragments(SleepCodeHandler.read(page));
+		
+		int compiled = 0;
+		
+		for (int i = 0; i < fragments.size(); i++) {
+			try {
+				loader.compileScript(name + i, fragments.get(i));
+				compiled++;
+			} catch (final YourCodeSucksException e) {
+				System.out.println("Could not compile fragment " + i + " of " + page + ": " + e.getMessage());
+			}
+		}
+		
+		return compiled;
+	}
+	
+	/**
+	 * Renders every page in the sample the given number of times, returns how
+	 * many pages were rendered
+	 */
+	public int warmUp(final File sample, final int rounds) throws IOException {
+	
+		final List<String> requests = new ArrayList<String>();
+		
+		final BufferedReader in = new BufferedReader(new FileReader(sample));
+		
+		try {
+			String line = in.readLine();
+			
+			while(line != null) {
+				line = line.trim();
+				if (!line.isEmpty() && !line.startsWith("#")) {
+					requests.add(line);
+				}
+				line = in.readLine();
+			}
+		} finally {
+			in.close();
+		}
+		
+		int rendered = 0;
+		
+		for (int round = 0; round < rounds; round++) {
+			for (final String request : requests) {
+				if (replay(request)) {
+					rendered++;
+				}
+			}
+		}
+		
+		return rendered;
+	}
+	
+	/**
+	 * Renders one page of the sample into a throwaway loader, so the server's
+	 * loader gets none of the bridges a page registers
+	 */
+	private boolean replay(final String request) throws IOException {
+	
+		final int space = request.indexOf(' ');
+		final String host = space < 0 ? sites[0].getHost() : request.substring(0, space);
+		String uri = space < 0 ? request : request.substring(space + 1).trim();
+		
+		final Map<String, String> parms = new HashMap<String, String>();
+		
+		final int query = uri.indexOf('?');
+		if (query >= 0) {
+			Precompiler.decode(uri.substring(query + 1), parms);
+			uri = uri.substring(0, query);
+		}
+		
+		Site site = null;
+		for (final Site s : sites) {
+			if (host.contains(s.getHost())) {
+				site = s;
+			}
+		}
+		
+		final File page = site == null ? null : new File(site.getRootDir(), uri);
+		
+		if (page == null || uri.contains("../") || !page.isFile() || !isPage(page)) {
+			System.out.println("Not warming up with " + request + ", it is not a page");
+			return false;
+		}
+		
+		final Map<String, String> header = new HashMap<String, String>();
+		header.put("host", host);
+		
+		new SleepCodeHandler(new File(site.getRootDir()), page, NanoHTTPD.MIME_HTML, parms, header, "GET", new ScriptLoader()).parseSleep();
+		return true;
+	}
+	
+	private static void decode(final String query, final Map<String, String> parms) throws UnsupportedEncodingException {
+	
+		for (final String pair : query.split("&")) {
+			final int eq = pair.indexOf('=');
+			if (pair.isEmpty()) {
+				continue;
+			} else if (eq < 0) {
+				parms.put(URLDecoder.decode(pair, "UTF-8"), "");
+			} else {
+				parms.put(URLDecoder.decode(pair.substring(0, eq), "UTF-8"), URLDecoder.decode(pair.substring(eq + 1), "UTF-8"));
+			}
+		}
+	}
+	
+}
@@ -0,0 +1,94 @@
+package com.gravypod.SleepServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import sleep.error.RuntimeWarningWatcher;
+import sleep.error.ScriptWarning;
+import sleep.runtime.ScriptInstance;
+import sleep.runtime.ScriptLoader;
+
+/**
+ * Runs the regression scripts in a directory (tests by default). Every
+ * script.sl is run in a fresh loader and what it prints, runtime warnings
+ * included, must match script.out next to it.
+ *
+ * <pre>
+ * java com.gravypod.SleepServer.ScriptTests [directory]
+ * </pre>
+ *
+ * Exits with 1 if any script doesn't match.
+ *
+ * @author gravypod
+ */
+public class ScriptTests {
+	
+	public static void main(final String[] args) throws Exception {
+	
+		final File directory = new File(args.length > 0 ? args[0] : "tests");
+		final File[] scripts = directory.listFiles();
+		
+		if (scripts == null) {
+			System.out.println("No regression scripts in " + directory);
+			System.exit(1);
+		}
+		
+		Arrays.sort(scripts);
+		
+		int failed = 0;
+		
+		for (final File script : scripts) {
+			if (!script.getName().endsWith(".sl")) {
+				continue;
+			}
+			
+			final File expected = new File(directory, script.getName().substring(0, script.getName().length() - 3) + ".out");
+			final String output = ScriptTests.run(script);
+			
+			if (expected.isFile() && output.equals(new String(Files.readAllBytes(expected.toPath()), "UTF-8"))) {
+				System.out.println("ok   " + script.getName());
+			} else {
+				System.out.println("FAIL " + script.getName());
+				System.out.print(output);
+				failed++;
+			}
+		}
+		
+		System.exit(failed == 0 ? 0 : 1);
+	}
+	
+	/**
+	 * Runs a script, returns what it printed
+	 */
+	static String run(final File script) throws Exception {
+	
+		final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		final PrintStream output = new PrintStream(buffer, true, "UTF-8");
+		final PrintStream console = System.out;
+		
+		System.setOut(output);
+		
+		try {
+			final ScriptInstance instance = new ScriptLoader().loadScript(script);
+			instance.addWarningWatcher(new RuntimeWarningWatcher() {
+				
+				@Override
+				public void processScriptWarning(final ScriptWarning warning) {
+				
+					output.println("warning: " + warning.getMessage());
+				}
+			});
+			instance.runScript();
+		} catch (final Exception e) {
+			output.println("error: " + e);
+		} finally {
+			System.setOut(console);
+		}
+		
+		return buffer.toString("UTF-8");
+	}
+	
+}
@@ -1,16 +1,21 @@
 package com.gravypod.SleepServer;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Hashtable;
+import java.util.List;
 import java.util.Map;
 import java.util.Stack;
 import java.util.regex.Matcher;
 
+import sleep.bridges.BridgeUtilities;
 import sleep.bridges.io.BufferObject;
 import sleep.bridges.io.IOObject;
 import sleep.interfaces.Function;
@@ -23,6 +28,9 @@ import sleep.runtime.ScriptVariables;
 import sleep.runtime.SleepUtils;
 import sleep.taint.TaintUtils;
 
+import fi.iki.elonen.ChunkedStream;
+import fi.iki.elonen.NanoHTTPD.Response;
+
 public class SleepCodeHandler {
 	
 	private final String fileContents;
@@ -43,26 +51,20 @@ public class SleepCodeHandler {
 	
 	private final ScriptLoader loader;
 	
-	public SleepCodeHandler(final File f, final String mime, final Map<String, String> parms, final Map<String, String> header, final String method, final ScriptLoader loader) throws IOException {
+	/**
+	 * Where the page is rendered when it is streamed, null otherwise
+	 */
+	private ChunkedStream stream;
+	
+	public SleepCodeHandler(final File root, final File f, final String mime, final Map<String, String> parms, final Map<String, String> header, final String method, final ScriptLoader loader) throws IOException {
 	
 		loader.addGlobalBridge(new SleepCodeHandler.HTTPCommands());
 		
-		final BufferedReader br = new BufferedReader(new FileReader(f));
-		
-		final StringBuffer str = new StringBuffer();
-		
-		String line = br.readLine();
-		
-		while(line != null) {
-			str.append(line);
-			line = br.readLine();
-		}
-		
-		classID = f.getName();
+		classID = SleepCodeHandler.pageName(root, f);
 		
 		mimeType = mime;
 		
-		fileContents = str.toString();
+		fileContents = SleepCodeHandler.read(f);
 		
 		data = parms;
 		
@@ -76,11 +78,93 @@ public class SleepCodeHandler {
 		
 	}
 	
+	/**
+	 * The name a page is loaded by, its path below the root directory of its
+	 * site. Pages with the same file name in different directories get their
+	 * own entries in the block cache.
+	 */
+	public static String pageName(final File root, final File page) {
+	
+		final Path base = root.getAbsoluteFile().toPath().normalize();
+		final Path path = page.getAbsoluteFile().toPath().normalize();
+		
+		return (path.startsWith(base) ? base.relativize(path) : path).toString().replace(File.separatorChar, '/');
+	}
+	
+	/**
+	 * Reads a page the way it is rendered, its lines joined without the line
+	 * breaks
+	 */
+	static String read(final File f) throws IOException {
+	
+		final BufferedReader br = new BufferedReader(new FileReader(f));
+		
+		try {
+			final StringBuilder str = new StringBuilder();
+			
+			String line = br.readLine();
+			
+			while(line != null) {
+				str.append(line);
+				line = br.readLine();
+			}
+			
+			return str.toString();
+		} finally {
+			br.close();
+		}
+	}
+	
+	/**
+	 * The code of each fragment in a page, in the order they run. Fragment i
+	 * of a page is loaded as the page's name followed by i.
+	 */
+	static List<String> fragments(final String contents) {
+	
+		final List<String> fragments = new ArrayList<String>();
+		
+		final Matcher matcher = Constants.TAG_REGEX.matcher(contents);
+		
+		while(matcher.find()) {
+			fragments.add(matcher.group(1).trim());
+		}
+		
+		return fragments;
+	}
+	
 	public String parseSleep() {
 	
 		return findScripts(fileContents);
 	}
 	
+	/**
+	 * Renders the page into a stream. Markup is written as it is reached and
+	 * &flush or &event in a fragment send what has been rendered so far.
+	 */
+	public void parseSleep(final ChunkedStream out) {
+	
+		stream = out;
+		
+		final Matcher matcher = Constants.TAG_REGEX.matcher(fileContents);
+		
+		int i = 0;
+		
+		int last = 0;
+		
+		while(matcher.find() && out.isOpen()) {
+			
+			out.write(fileContents.substring(last, matcher.start()));
+			
+			out.write(runScript(matcher.group(1), i++));
+			
+			last = matcher.end();
+		}
+		
+		out.write(fileContents.substring(last));
+		
+		applyHeaders(out.getResponse());
+	}
+	
 	private String findScripts(final String str) {
 	
 		final Matcher matcher = Constants.TAG_REGEX.matcher(str);
@@ -91,33 +175,7 @@ public class SleepCodeHandler {
 		
 		while(matcher.find()) {
 			
-			final String s = matcher.group(1);
-			
-			String scriptOutput;
-			
-			try {
-				final ScriptInstance instance = loader.loadScript(classID + i++, s.trim(), new Hashtable<String, Function>());
-				instance.chdir(new File("./configs/"));
-				final BufferObject buffer = new BufferObject();
-				
-				buffer.allocate(2048);
-				
-				IOObject.setConsole(instance.getScriptEnvironment(), buffer);
-				
-				instance.runScript();
-				
-				lastVariables = instance.getScriptVariables();
-				
-				scriptOutput = new String(buffer.getSource().toByteArray());
-				
-				loader.unloadScript(instance);
-				
-			} catch (final Exception e) {
-				
-				scriptOutput = Arrays.toString(e.getStackTrace());
-			}
-			
-			matcher.appendReplacement(builder, scriptOutput);
+			matcher.appendReplacement(builder, runScript(matcher.group(1), i++));
 			
 		}
 		
@@ -127,6 +185,73 @@ public class SleepCodeHandler {
 		
 	}
 	
+	/**
+	 * Runs one fragment and returns whatever it printed that has not been
+	 * flushed yet
+	 */
+	private String runScript(final String s, final int i) {
+	
+		String scriptOutput;
+		
+		try {
+			final ScriptInstance instance = loader.loadScript(classID + i, s.trim(), null);
+			instance.chdir(new File("./configs/"));
+			final BufferObject buffer = new BufferObject();
+			
+			buffer.allocate(2048);
+			
+			IOObject.setConsole(instance.getScriptEnvironment(), buffer);
+			
+			instance.runScript();
+			
+			lastVariables = instance.getScriptVariables();
+			
+			scriptOutput = new String(buffer.getSource().toByteArray());
+			
+			// the block stays cached for the next request
+			loader.unloadScript(instance, false);
+			
+		} catch (final Exception e) {
+			
+			scriptOutput = Arrays.toString(e.getStackTrace());
+		}
+		
+		return scriptOutput;
+	}
+	
+	/**
+	 * Copies the mime type and headers set by the page onto the response.
+	 * Only has an effect until the stream has been flushed once.
+	 */
+	private void applyHeaders(final Response response) {
+	
+		response.setMimeType(mimeType);
+		
+		for (final Map.Entry<String, String> e : headers.entrySet()) {
+			response.addHeader(e.getKey(), e.getValue());
+		}
+	}
+	
+	/**
+	 * Moves what the fragment has printed so far into the stream and sends it
+	 */
+	private boolean flush(final ScriptInstance script) {
+	
+		final IOObject console = IOObject.getConsole(script.getScriptEnvironment());
+		
+		if (console instanceof BufferObject) {
+			final ByteArrayOutputStream source = ((BufferObject) console).getSource();
+			stream.write(source.toByteArray());
+			source.reset();
+		}
+		
+		if (!stream.isCommitted()) {
+			applyHeaders(stream.getResponse());
+		}
+		
+		return stream.flush();
+	}
+	
 	class HTTPCommands implements Loadable {
 		
 		@Override
@@ -140,6 +265,8 @@ public class SleepCodeHandler {
 			globals.putScalar("$__METHOD__", TaintUtils.taint(SleepUtils.getScalar(method)));
 			temp.put("&header", new HeaderManager());
 			temp.put("&mime", new Mime());
+			temp.put("&flush", new Flush());
+			temp.put("&event", new Event());
 			
 			if (lastVariables != null && script.getName().startsWith(classID)) {
 				script.setScriptVariables(lastVariables);
@@ -190,6 +317,79 @@ public class SleepCodeHandler {
 		
 	}
 	
+	class Flush implements Function {
+		
+		/**
+         * 
+         */
+		private static final long serialVersionUID = 2217437021617604331L;
+		
+		@Override
+		@SuppressWarnings(value = "rawtypes")
+		public Scalar evaluate(final String functionName, final ScriptInstance anInstance, final Stack passedInLocals) {
+		
+			if (stream == null) {
+				return SleepUtils.getScalar(true);
+			}
+			
+			return SleepUtils.getScalar(flush(anInstance));
+		}
+		
+	}
+	
+	/**
+	 * &event($data, [$name], [$id]) sends one server-sent event. The first
+	 * event turns the page into a text/event-stream.
+	 */
+	class Event implements Function {
+		
+		/**
+         * 
+         */
+		private static final long serialVersionUID = -1824418466227893750L;
+		
+		@Override
+		@SuppressWarnings(value = "rawtypes")
+		public Scalar evaluate(final String functionName, final ScriptInstance anInstance, final Stack passedInLocals) {
+		
+			final String data = BridgeUtilities.getString(passedInLocals, "");
+			final String name = BridgeUtilities.getString(passedInLocals, null);
+			final String id = BridgeUtilities.getString(passedInLocals, null);
+			
+			final StringBuilder event = new StringBuilder();
+			
+			if (name != null) {
+				event.append("event: ").append(name).append('\n');
+			}
+			
+			if (id != null) {
+				event.append("id: ").append(id).append('\n');
+			}
+			
+			for (final String line : data.split("\r?\n", -1)) {
+				event.append("data: ").append(line).append('\n');
+			}
+			
+			event.append('\n');
+			
+			if (stream == null) {
+				IOObject.getConsole(anInstance.getScriptEnvironment()).print(event.toString());
+				return SleepUtils.getScalar(true);
+			}
+			
+			if (!stream.isCommitted()) {
+				mimeType = "text/event-stream";
+				headers.put("Cache-Control", "no-cache");
+			}
+			
+			flush(anInstance);
+			stream.write(event.toString());
+			
+			return SleepUtils.getScalar(stream.flush());
+		}
+		
+	}
+	
 	public String getFileContents() {
 	
 		return fileContents;
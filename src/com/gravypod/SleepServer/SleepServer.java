@@ -64,6 +64,26 @@ public class SleepServer {
 		for (int i = 0; i < p.length; i++) {
 			p[i] = (int) portsInArray[i];
 		}
+		
+		if (Boolean.parseBoolean(System.getProperty("sleep.precompile", "true"))) {
+			Precompiler precompiler = new Precompiler(new ScriptLoader(), sites, mimiTypes);
+			long start = System.currentTimeMillis();
+			int compiled = precompiler.precompile();
+			System.out.println("Precompiled " + compiled + " fragments in " + (System.currentTimeMillis() - start) + "ms");
+			
+			String sample = System.getProperty("sleep.warmup");
+			if (sample != null) {
+				try {
+					start = System.currentTimeMillis();
+					int rendered = precompiler.warmUp(new File(sample), Integer.getInteger("sleep.warmup.rounds", 100));
+					System.out.println("Warmed up with " + rendered + " pages in " + (System.currentTimeMillis() - start) + "ms");
+				} catch (IOException e) {
+					e.printStackTrace();
+					System.out.println("Could not warm up with " + sample);
+				}
+			}
+		}
+		
 		SimpleWebServer server = new SimpleWebServer(sites, p, mimiTypes, indexFiles);
 		
 		server.run();
@@ -82,6 +102,9 @@ public class SleepServer {
 				System.out.println("-p (port), --port (port): set the port to use to");
 				System.out.println("-p (dir), --port (dir): set the root directory");
 				System.out.println("-i (file deliminated by ';'), --index (files deliminated by ';'): set the default file");
+				System.out.println("java -Dsleep.cache=(dir): keep compiled scripts in dir between runs");
+				System.out.println("java -Dsleep.precompile=false: compile pages on their first request instead of at startup");
+				System.out.println("java -Dsleep.warmup=(file) [-Dsleep.warmup.rounds=(n)]: render the requests in file n times before listening");
 				
 				System.exit(0);
 				
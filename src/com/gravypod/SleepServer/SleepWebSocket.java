@@ -0,0 +1,223 @@
+package com.gravypod.SleepServer;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.Hashtable;
+import java.util.Map;
+import java.util.Stack;
+import java.util.regex.Matcher;
+
+import sleep.bridges.SleepClosure;
+import sleep.engine.Block;
+import sleep.error.YourCodeSucksException;
+import sleep.interfaces.Environment;
+import sleep.interfaces.Function;
+import sleep.interfaces.Loadable;
+import sleep.interfaces.Variable;
+import sleep.runtime.Scalar;
+import sleep.runtime.ScriptInstance;
+import sleep.runtime.ScriptLoader;
+import sleep.runtime.SleepUtils;
+import sleep.taint.TaintUtils;
+
+import fi.iki.elonen.WebSocket;
+
+/**
+ * Runs a .sl page as a WebSocket endpoint. The sleep code in the page is run
+ * once when the connection opens and registers its handlers with:
+ *
+ * <pre>
+ * on open { ... }
+ * on message { send("echo: $1"); }
+ * on close { println("closed with $1 $2"); }
+ * </pre>
+ *
+ * Each connection gets its own script instance so handlers can keep state in
+ * their variables.
+ */
+public class SleepWebSocket implements WebSocket.Handler {
+	
+	private final String fileContents;
+	
+	private final String classID;
+	
+	private final Map<String, String> data;
+	
+	private final Map<String, String> header;
+	
+	private final ScriptLoader loader;
+	
+	private final Map<String, SleepClosure> handlers = new Hashtable<String, SleepClosure>();
+	
+	private ScriptInstance instance;
+	
+	private WebSocket socket;
+	
+	public SleepWebSocket(final File f, final Map<String, String> parms, final Map<String, String> header, final ScriptLoader loader) throws IOException, YourCodeSucksException {
+	
+		final BufferedReader br = new BufferedReader(new FileReader(f));
+		
+		final StringBuffer str = new StringBuffer();
+		
+		String line = br.readLine();
+		
+		while(line != null) {
+			str.append(line);
+			line = br.readLine();
+		}
+		br.close();
+		
+		classID = f.getName();
+		
+		fileContents = str.toString();
+		
+		data = parms;
+		
+		this.header = header;
+		
+		this.loader = loader;
+		
+		instance = loader.loadScriptNoReference("ws:" + classID, compile(), null);
+		
+		new WebSocketCommands().scriptLoaded(instance);
+		
+		instance.chdir(new File("./configs/"));
+		
+		instance.runScript();
+	}
+	
+	/**
+	 * The fragments of a page share one script here, there is no markup to
+	 * render in between them
+	 */
+	private Block compile() throws YourCodeSucksException {
+	
+		final Matcher matcher = Constants.TAG_REGEX.matcher(fileContents);
+		
+		final StringBuffer code = new StringBuffer();
+		
+		while(matcher.find()) {
+			code.append(matcher.group(1).trim());
+		}
+		
+		return loader.compileScript("ws:" + classID, code.toString());
+	}
+	
+	/**
+	 * Calls the closure bound with "on name", if there is one
+	 */
+	private void fire(final String name, final Scalar... args) {
+	
+		final SleepClosure closure = handlers.get(name);
+		
+		if (closure == null) {
+			return;
+		}
+		
+		final Stack<Scalar> locals = new Stack<Scalar>();
+		for (int i = args.length - 1; i >= 0; i--) {
+			locals.push(args[i]);
+		}
+		
+		synchronized(instance) {
+			closure.callClosure(name, instance, locals);
+		}
+	}
+	
+	@Override
+	public void onOpen(final WebSocket socket) {
+	
+		this.socket = socket;
+		fire("open");
+	}
+	
+	@Override
+	public void onMessage(final WebSocket socket, final String message) {
+	
+		fire("message", TaintUtils.taint(SleepUtils.getScalar(message)));
+	}
+	
+	@Override
+	public void onBinary(final WebSocket socket, final byte[] data) {
+	
+		fire("message", TaintUtils.taint(SleepUtils.getScalar(data)));
+	}
+	
+	@Override
+	public void onClose(final WebSocket socket, final int code, final String reason) {
+	
+		fire("close", SleepUtils.getScalar(code), SleepUtils.getScalar(reason));
+		instance.setUnloaded();
+	}
+	
+	class WebSocketCommands implements Loadable, Environment {
+		
+		@Override
+		public void scriptLoaded(final ScriptInstance script) {
+		
+			@SuppressWarnings("unchecked")
+			final Hashtable<String, Object> temp = script.getScriptEnvironment().getEnvironment();
+			final Variable globals = script.getScriptVariables().getGlobalVariables();
+			globals.putScalar("%__HEADERS__", TaintUtils.taint(SleepUtils.getHashWrapper(header)));
+			globals.putScalar("%__DATA__", TaintUtils.taint(SleepUtils.getHashWrapper(data)));
+			temp.put("on", this);
+			temp.put("&send", new Send());
+			temp.put("&disconnect", new Disconnect());
+		}
+		
+		@Override
+		public void scriptUnloaded(final ScriptInstance script) {
+		
+		}
+		
+		@Override
+		public void bindFunction(final ScriptInstance si, final String type, final String name, final Block code) {
+		
+			handlers.put(name, new SleepClosure(si, code));
+		}
+		
+	}
+	
+	class Send implements Function {
+		
+		/**
+         *
+         */
+		private static final long serialVersionUID = -2281958717466283046L;
+		
+		@Override
+		@SuppressWarnings(value = "rawtypes")
+		public Scalar evaluate(final String functionName, final ScriptInstance anInstance, final Stack passedInLocals) {
+		
+			if (socket == null) {
+				return SleepUtils.getScalar(false);
+			}
+			
+			return SleepUtils.getScalar(socket.send(passedInLocals.pop().toString()));
+		}
+		
+	}
+	
+	class Disconnect implements Function {
+		
+		/**
+         *
+         */
+		private static final long serialVersionUID = 6210870335618016254L;
+		
+		@Override
+		@SuppressWarnings(value = "rawtypes")
+		public Scalar evaluate(final String functionName, final ScriptInstance anInstance, final Stack passedInLocals) {
+		
+			if (socket != null) {
+				socket.close(WebSocket.CLOSE_NORMAL, passedInLocals.isEmpty() ? "" : passedInLocals.pop().toString());
+			}
+			
+			return SleepUtils.getEmptyScalar();
+		}
+		
+	}
+	
+}
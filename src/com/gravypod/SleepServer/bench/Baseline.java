@@ -0,0 +1,99 @@
+package com.gravypod.SleepServer.bench;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Saved results of an earlier run. A run regresses when its throughput drops
+ * or its p99 latency grows by more than the tolerance.
+ *
+ * @author gravypod
+ */
+public class Baseline {
+	
+	private final File file;
+	
+	private final Properties props = new Properties();
+	
+	public Baseline(final File file) throws IOException {
+	
+		this.file = file;
+		if (file.exists()) {
+			final InputStream in = new FileInputStream(file);
+			try {
+				props.load(in);
+			} finally {
+				in.close();
+			}
+		}
+	}
+	
+	public void update(final Result result) {
+	
+		result.store(props);
+	}
+	
+	public void save() throws IOException {
+	
+		final File parent = file.getAbsoluteFile().getParentFile();
+		if (parent != null) {
+			parent.mkdirs();
+		}
+		
+		final OutputStream out = new FileOutputStream(file);
+		try {
+			props.store(out, "SleepServer benchmark baseline");
+		} finally {
+			out.close();
+		}
+	}
+	
+	/**
+	 * Returns a line for every figure that got worse than the tolerance allows,
+	 * nothing if the scenario has no baseline yet
+	 *
+	 * @param tolerance
+	 *            allowed change as a fraction, 0.1 is ten percent
+	 */
+	public List<String> compare(final Result result, final double tolerance) {
+	
+		final List<String> regressions = new ArrayList<String>();
+		final String prefix = result.getScenario() + ".";
+		
+		final String throughput = props.getProperty(prefix + "throughput");
+		if (throughput != null) {
+			final double before = Double.parseDouble(throughput);
+			if (result.getThroughput() < before * (1 - tolerance)) {
+				regressions.add(String.format("%s: throughput %.1f req/s, baseline %.1f req/s", result.getScenario(), result.getThroughput(), before));
+			}
+		}
+		
+		final String p99 = props.getProperty(prefix + "p99");
+		if (p99 != null) {
+			final long before = Long.parseLong(p99);
+			final long now = result.percentile(0.99);
+			if (now > before * (1 + tolerance)) {
+				regressions.add(String.format("%s: p99 %.2fms, baseline %.2fms", result.getScenario(), now / 1000.0, before / 1000.0));
+			}
+		}
+		
+		if (result.getErrors() > 0 && result.getErrors() > Long.parseLong(props.getProperty(prefix + "errors", "0"))) {
+			regressions.add(result.getScenario() + ": " + result.getErrors() + " failed requests");
+		}
+		
+		return regressions;
+	}
+	
+	public File getFile() {
+	
+		return file;
+	}
+	
+}
@@ -0,0 +1,190 @@
+package com.gravypod.SleepServer.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.gravypod.SleepServer.Site;
+
+import fi.iki.elonen.SimpleWebServer;
+
+/**
+ * Starts a SimpleWebServer on the loopback interface and runs the canned
+ * scenarios against it.
+ *
+ * <pre>
+ * java com.gravypod.SleepServer.bench.Benchmark [options] [scenario ...]
+ *
+ *   -c, --concurrency n     connections to use (16)
+ *   -d, --duration ms       how long to measure each scenario (10000)
+ *   -w, --warmup ms         how long to run before measuring (3000)
+ *   -r, --rate n            open loop at n requests a second, 0 is closed loop (0)
+ *   -k, --keep-alive        reuse connections when the server allows it
+ *   -m, --mix spec          also run a mix, e.g. small-static=5,template=2
+ *   -s, --sites dir         where index.sl is copied from (./sites/)
+ *   -b, --baseline file     baseline to compare against (bench-baseline.properties)
+ *   -t, --tolerance pct     how much worse than the baseline is allowed (10)
+ *   --save                  write the results to the baseline
+ * </pre>
+ *
+ * With no scenarios named all of them are run. Exits with 1 if any scenario
+ * is worse than its baseline, so a build can fail on it. Baselines only mean
+ * something against runs with the same options on the same machine.
+ *
+ * @author gravypod
+ */
+public class Benchmark {
+	
+	private static final String HOST = "bench.localhost";
+	
+	public static void main(final String[] args) throws IOException {
+	
+		int concurrency = 16;
+		long duration = 10000;
+		long warmup = 3000;
+		int rate = 0;
+		boolean keepAlive = false;
+		String mix = null;
+		File sites = new File("./sites/");
+		File baselineFile = new File("bench-baseline.properties");
+		double tolerance = 0.10;
+		boolean save = false;
+		final List<String> names = new ArrayList<String>();
+		
+		for (int i = 0; i < args.length; i++) {
+			final String arg = args[i];
+			if (arg.equals("-c") || arg.equals("--concurrency")) {
+				concurrency = Integer.parseInt(args[++i]);
+			} else if (arg.equals("-d") || arg.equals("--duration")) {
+				duration = Long.parseLong(args[++i]);
+			} else if (arg.equals("-w") || arg.equals("--warmup")) {
+				warmup = Long.parseLong(args[++i]);
+			} else if (arg.equals("-r") || arg.equals("--rate")) {
+				rate = Integer.parseInt(args[++i]);
+			} else if (arg.equals("-k") || arg.equals("--keep-alive")) {
+				keepAlive = true;
+			} else if (arg.equals("-m") || arg.equals("--mix")) {
+				mix = args[++i];
+			} else if (arg.equals("-s") || arg.equals("--sites")) {
+				sites = new File(args[++i]);
+			} else if (arg.equals("-b") || arg.equals("--baseline")) {
+				baselineFile = new File(args[++i]);
+			} else if (arg.equals("-t") || arg.equals("--tolerance")) {
+				tolerance = Double.parseDouble(args[++i]) / 100;
+			} else if (arg.equals("--save")) {
+				save = true;
+			} else if (arg.startsWith("-")) {
+				System.err.println("Unknown option " + arg);
+				System.exit(2);
+			} else {
+				names.add(arg);
+			}
+		}
+		
+		final Map<String, Scenario> scenarios = Scenario.defaults();
+		final List<Scenario> run = new ArrayList<Scenario>();
+		if (names.isEmpty() && mix == null) {
+			run.addAll(scenarios.values());
+		}
+		for (final String name : names) {
+			final Scenario scenario = scenarios.get(name);
+			if (scenario == null) {
+				System.err.println("Unknown scenario " + name + ", pick from " + scenarios.keySet());
+				System.exit(2);
+			}
+			run.add(scenario);
+		}
+		if (mix != null) {
+			run.add(Scenario.mix(mix, scenarios));
+		}
+		
+		final File root = Fixture.create(sites);
+		final int port = Benchmark.freePort();
+		final SimpleWebServer server = Benchmark.startServer(root, port);
+		
+		final Baseline baseline = new Baseline(baselineFile);
+		final List<String> regressions = new ArrayList<String>();
+		
+		// The server logs every request; keep that out of the report
+		final PrintStream report = System.out;
+		System.setOut(new PrintStream(new OutputStream() {
+			
+			@Override
+			public void write(final int b) {
+			
+			}
+			
+			@Override
+			public void write(final byte[] b, final int off, final int len) {
+			
+			}
+		}));
+		
+		try {
+			report.println(String.format("%d connections, %s, %s", concurrency, rate == 0 ? "closed loop" : rate + " req/s", keepAlive ? "keep-alive" : "new connection per request"));
+			for (final Scenario scenario : run) {
+				final Result result = new LoadGenerator(new InetSocketAddress("127.0.0.1", port), Benchmark.HOST, scenario).setConcurrency(concurrency).setKeepAlive(keepAlive).setRate(rate).run(warmup, duration);
+				report.println(result);
+				
+				regressions.addAll(baseline.compare(result, tolerance));
+				if (save) {
+					baseline.update(result);
+				}
+			}
+		} finally {
+			server.stop();
+			Fixture.delete(root);
+			System.setOut(report);
+		}
+		
+		if (save) {
+			baseline.save();
+			System.out.println("Baseline saved to " + baseline.getFile());
+		} else if (!regressions.isEmpty()) {
+			System.out.println("Regressions against " + baseline.getFile() + ":");
+			for (final String line : regressions) {
+				System.out.println("  " + line);
+			}
+			System.exit(1);
+		}
+		
+		System.exit(0);
+	}
+	
+	private static SimpleWebServer startServer(final File root, final int port) throws IOException {
+	
+		final Map<String, String> props = new HashMap<String, String>();
+		props.put("sitename", "bench");
+		props.put("serveraddress", Benchmark.HOST);
+		props.put("rootdirectory", root.getPath());
+		props.put("siteport", Integer.toString(port));
+		
+		final Map<String, String> mimiTypes = new HashMap<String, String>();
+		mimiTypes.put("txt", "text/plain");
+		mimiTypes.put("html", "text/html");
+		mimiTypes.put("sl", "application/sl");
+		
+		final SimpleWebServer server = new SimpleWebServer(new Site[] { new Site(props) }, new int[] { port }, mimiTypes, new String[] { "index.sl" });
+		server.setHostname("127.0.0.1");
+		server.start();
+		return server;
+	}
+	
+	private static int freePort() throws IOException {
+	
+		final ServerSocket socket = new ServerSocket(0);
+		try {
+			return socket.getLocalPort();
+		} finally {
+			socket.close();
+		}
+	}
+	
+}
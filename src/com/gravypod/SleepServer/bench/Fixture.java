@@ -0,0 +1,91 @@
+package com.gravypod.SleepServer.bench;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.Random;
+
+/**
+ * The throwaway site the canned scenarios are run against
+ *
+ * @author gravypod
+ */
+public class Fixture {
+	
+	static final String SMALL_FILE = "small.txt";
+	
+	static final String LARGE_FILE = "large.bin";
+	
+	static final String FORM_PAGE = "form.sl";
+	
+	static final String LISTING_DIR = "listing";
+	
+	static final int LISTING_FILES = 2000;
+	
+	static final int SMALL_SIZE = 1024;
+	
+	static final int LARGE_SIZE = 4 * 1024 * 1024;
+	
+	/**
+	 * Creates the site in a temporary directory. index.sl is copied from the
+	 * real site so the template scenario follows changes to it.
+	 */
+	public static File create(final File sites) throws IOException {
+	
+		final File root = Files.createTempDirectory("sleepbench").toFile();
+		
+		final byte[] small = new byte[Fixture.SMALL_SIZE];
+		for (int i = 0; i < small.length; i++) {
+			small[i] = (byte) ('a' + i % 26);
+		}
+		Fixture.write(new File(root, Fixture.SMALL_FILE), small);
+		
+		final byte[] large = new byte[Fixture.LARGE_SIZE];
+		new Random(42).nextBytes(large);
+		Fixture.write(new File(root, Fixture.LARGE_FILE), large);
+		
+		Files.copy(new File(sites, "index.sl").toPath(), new File(root, "index.sl").toPath());
+		
+		Fixture.write(new File(root, Fixture.FORM_PAGE), "<html><body><?sleep print(\"Hello \" . %__DATA__[\"name\"] . \", you sent \" . %__DATA__[\"value\"]); ?></body></html>".getBytes());
+		
+		// A directory without an index, big enough to span two listing pages
+		final File listing = new File(root, Fixture.LISTING_DIR);
+		listing.mkdir();
+		for (int i = 0; i < 20; i++) {
+			new File(listing, "dir" + i).mkdir();
+		}
+		for (int i = 0; i < Fixture.LISTING_FILES; i++) {
+			Fixture.write(new File(listing, "file" + i + ".txt"), small);
+		}
+		
+		return root;
+	}
+	
+	public static void delete(final File root) {
+	
+		final File[] files = root.listFiles();
+		if (files != null) {
+			for (final File f : files) {
+				if (f.isDirectory()) {
+					Fixture.delete(f);
+				} else {
+					f.delete();
+				}
+			}
+		}
+		root.delete();
+	}
+	
+	private static void write(final File f, final byte[] data) throws IOException {
+	
+		final OutputStream out = new FileOutputStream(f);
+		try {
+			out.write(data);
+		} finally {
+			out.close();
+		}
+	}
+	
+}
@@ -0,0 +1,193 @@
+package com.gravypod.SleepServer.bench;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Stack;
+import java.util.regex.Pattern;
+
+import sleep.bridges.SleepClosure;
+import sleep.runtime.Scalar;
+import sleep.runtime.ScriptCache;
+import sleep.runtime.ScriptInstance;
+import sleep.runtime.ScriptLoader;
+import sleep.runtime.SleepUtils;
+
+/**
+ * Microbenchmarks for the parts of the interpreter a page spends its time in.
+ *
+ * <pre>
+ * java com.gravypod.SleepServer.bench.InterpreterBenchmark [options] [regex]
+ *
+ *   -w n     warm up iterations (5)
+ *   -i n     measured iterations (10)
+ *   -t ms    length of an iteration (1000)
+ * </pre>
+ *
+ * Only cases whose name matches the regex are run. Apart from compile and
+ * closure, each case is a script that loops 1000 times, so one op is one run
+ * of that loop.
+ *
+ * @author gravypod
+ */
+public class InterpreterBenchmark {
+	
+	/**
+	 * Parsed by the compile case, roughly the size of a page fragment
+	 */
+	static final String SOURCE = "sub fib { if ($1 < 2) { return $1; } return fib($1 - 1) + fib($1 - 2); }\n" + "%totals = %();\n" + "@names = @('a', 'b', 'c');\n" + "foreach $index => $name (@names) {\n" + "  %totals[$name] = fib($index + 10) . ' for ' . $name;\n" + "}\n" + "$list = [new java.util.ArrayList];\n" + "for ($i = 0; $i < 10; $i++) {\n" + "  if (($i % 2) == 0 && $i != 4) { [$list add: $i]; } else { println(\"odd $i\"); }\n" + "}\n" + "while ($i > 0) { $i--; $total = $total + ($i * 3) / 2; }\n" + "$closure = lambda({ return $x . $1; }, $x => 'a');\n" + "if ('abc123' ismatch '([a-z]+)(\\\\d+)') { ($word, $number) = matched(); }\n" + "return [$list size];\n";
+	
+	/**
+	 * The looped cases, all of them run against a fresh script instance
+	 */
+	static Map<String, String> scripts() {
+	
+		final Map<String, String> scripts = new LinkedHashMap<String, String>();
+		
+		scripts.put("arithmetic", "$total = 0; for ($i = 0; $i < 1000; $i++) { $total = $total + ($i * 2) % 7 - 1; } return $total;");
+		
+		scripts.put("call", "sub add { return $1 + $2; } $total = 0; for ($i = 0; $i < 1000; $i++) { $total = add($total, $i); } return $total;");
+		
+		scripts.put("hash-array", "%h = %(); @a = @(); for ($i = 0; $i < 1000; $i++) { %h[\"k\" . ($i % 50)] = $i; @a[$i % 50] = $i; $x = %h[\"k7\"] + @a[3]; } return $x;");
+		
+		scripts.put("array-index", "@a = @(); for ($i = 0; $i < 1000; $i++) { push(@a, $i); } $t = 0; for ($i = 0; $i < size(@a); $i++) { $t = $t + @a[$i]; } return $t;");
+		
+		scripts.put("small-values", "@a = @(); for ($i = 0; $i < 1000; $i++) { @a[$i % 100] = $i % 10; $n = size(@a) + strlen(''); } return $n;");
+		
+		scripts.put("literals", "$n = 0; for ($i = 0; $i < 1000; $i++) { $s = \"day\" . ': ' . (60 * 60 * 24); if (true) { $n = $n + strlen($s); } } return $n;");
+		
+		scripts.put("concat", "$s = ''; for ($i = 0; $i < 1000; $i++) { $s = $s . 'x'; } return strlen($s);");
+		
+		scripts.put("regex", "$n = 0; for ($i = 0; $i < 1000; $i++) { if (\"item $+ $i\" ismatch 'item(\\\\d+)') { $n = $n + matched()[0]; } } return $n;");
+		
+		scripts.put("dates", "$t = 0; for ($i = 0; $i < 1000; $i++) { $s = formatDate($i * 86400000L, 'yyyy-MM-dd HH:mm:ss'); $t = $t + parseDate('yyyy-MM-dd HH:mm:ss', $s) % 7; } return $t;");
+		
+		scripts.put("pack", "$t = 0; for ($i = 0; $i < 1000; $i++) { $r = pack('I S z d-', $i, $i % 100, 'record', 1.5); @v = unpack('I S z d-', $r); $t = $t + @v[0]; } return $t;");
+		
+		scripts.put("tr", "$n = 0; for ($i = 0; $i < 1000; $i++) { $s = tr('Hello World', 'a-zA-Z', 'n-za-mN-ZA-M'); $n = $n + strlen(tr($s, 'lo', '', 'd')); } return $n;");
+		
+		scripts.put("fork", "$h = fork({ for ($i = 0; $i < 1000; $i++) { writeObject($source, @($i, \"item $i\")); } }); $n = 0; while $x (readObject($h)) { $n = $n + $x[0]; } return $n;");
+		
+		scripts.put("object-access", "$list = [new java.util.ArrayList]; for ($i = 0; $i < 1000; $i++) { [$list add: $i]; } return [$list size];");
+		
+		scripts.put("proxy", "$list = [new java.util.ArrayList]; for ($i = 0; $i < 1000; $i++) { [$list add: ($i * 7919) % 1000]; } [java.util.Collections sort: $list, { return $1 <=> $2; }]; for ($i = 0; $i < 100; $i++) { $r = [new Thread: { }]; } return [$list get: 0];");
+		
+		return scripts;
+	}
+	
+	public static void main(final String[] args) throws Exception {
+	
+		int warmups = 5;
+		int iterations = 10;
+		long millis = 1000;
+		Pattern filter = Pattern.compile(".*");
+		
+		for (int i = 0; i < args.length; i++) {
+			final String arg = args[i];
+			if (arg.equals("-w")) {
+				warmups = Integer.parseInt(args[++i]);
+			} else if (arg.equals("-i")) {
+				iterations = Integer.parseInt(args[++i]);
+			} else if (arg.equals("-t")) {
+				millis = Long.parseLong(args[++i]);
+			} else {
+				filter = Pattern.compile(arg);
+			}
+		}
+		
+		final MicroBenchmark bench = new MicroBenchmark(warmups, iterations, millis);
+		final Map<String, MicroBenchmark.Case> cases = InterpreterBenchmark.cases();
+		
+		System.out.println(MicroBenchmark.HEADER);
+		for (final Map.Entry<String, MicroBenchmark.Case> e : cases.entrySet()) {
+			if (!filter.matcher(e.getKey()).find()) {
+				continue;
+			}
+			
+			System.out.println(bench.measure(e.getKey(), e.getValue()));
+		}
+	}
+	
+	static Map<String, MicroBenchmark.Case> cases() throws Exception {
+	
+		final Map<String, MicroBenchmark.Case> cases = new LinkedHashMap<String, MicroBenchmark.Case>();
+		
+		// No global cache, so every call goes through the lexer and parser
+		final ScriptLoader compiler = new ScriptLoader();
+		cases.put("compile", new MicroBenchmark.Case() {
+			
+			@Override
+			public Object run() throws Exception {
+			
+				return compiler.compileScript("compile", InterpreterBenchmark.SOURCE);
+			}
+		});
+		
+		// The same source read back from the on-disk cache instead
+		final File directory = Files.createTempDirectory("sleep-cache").toFile();
+		directory.deleteOnExit();
+		final ScriptCache disk = new ScriptCache(directory);
+		disk.put("compile", InterpreterBenchmark.SOURCE, compiler.compileScript("compile", InterpreterBenchmark.SOURCE));
+		new File(directory, directory.list()[0]).deleteOnExit();
+		cases.put("compile-cached", new MicroBenchmark.Case() {
+			
+			@Override
+			public Object run() throws Exception {
+			
+				return disk.get("compile", InterpreterBenchmark.SOURCE);
+			}
+		});
+		
+		for (final Map.Entry<String, String> e : InterpreterBenchmark.scripts().entrySet()) {
+			final ScriptInstance instance = new ScriptLoader().loadScript(e.getKey(), e.getValue(), null);
+			cases.put(e.getKey(), new MicroBenchmark.Case() {
+				
+				@Override
+				public Object run() {
+				
+					return instance.runScript();
+				}
+			});
+		}
+		
+		// A thousand lines read through a stream and through a mapping
+		final File lines = File.createTempFile("sleep-lines", ".txt");
+		lines.deleteOnExit();
+		final StringBuilder text = new StringBuilder();
+		for (int i = 0; i < 1000; i++) {
+			text.append("GET /page/").append(i).append(".sl 200 ").append(i * 31 % 4096).append('\n');
+		}
+		Files.write(lines.toPath(), text.toString().getBytes("UTF-8"));
+		
+		for (final String open : new String[] { "openf", "mmap" }) {
+			final ScriptInstance instance = new ScriptLoader().loadScript("lines", "$h = " + open + "('" + lines.getAbsolutePath().replace("\\", "\\\\").replace("'", "\\'") + "'); $n = 0; while $line (readln($h)) { $n = $n + strlen($line); } closef($h); return $n;", null);
+			cases.put("lines-" + open, new MicroBenchmark.Case() {
+				
+				@Override
+				public Object run() {
+				
+					return instance.runScript();
+				}
+			});
+		}
+		
+		final ScriptInstance owner = new ScriptLoader().loadScript("closure", "$f = { return $1 + 1; };", null);
+		owner.runScript();
+		final SleepClosure closure = (SleepClosure) owner.getScriptVariables().getScalar("$f").objectValue();
+		final Scalar argument = SleepUtils.getScalar(41);
+		cases.put("closure", new MicroBenchmark.Case() {
+			
+			@Override
+			public Object run() {
+			
+				final Stack<Scalar> locals = new Stack<Scalar>();
+				locals.push(argument);
+				return closure.callClosure("closure", owner, locals);
+			}
+		});
+		
+		return cases;
+	}
+	
+}
@@ -0,0 +1,500 @@
+package com.gravypod.SleepServer.bench;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Drives a server with a fixed number of connections from a single selector
+ * thread.
+ *
+ * <p>
+ * In closed loop mode (rate 0) every connection sends its next request as
+ * soon as the last one is answered. In open loop mode requests arrive at a
+ * fixed rate whether or not the server keeps up; latency is then measured
+ * from when a request was due rather than when a connection was free to send
+ * it, so a stalled server cannot hide its queueing.
+ * </p>
+ *
+ * @author gravypod
+ */
+public class LoadGenerator {
+	
+	private final InetSocketAddress address;
+	
+	private final String host;
+	
+	private final Scenario scenario;
+	
+	private int concurrency = 16;
+	
+	private boolean keepAlive = false;
+	
+	private int rate = 0;
+	
+	private long timeout = TimeUnit.SECONDS.toNanos(10);
+	
+	private final Random random = new Random(7);
+	
+	private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(64 * 1024);
+	
+	private Selector selector;
+	
+	private final ArrayDeque<Client> idle = new ArrayDeque<Client>();
+	
+	private Result result;
+	
+	private long measureFrom;
+	
+	private long measureUntil;
+	
+	private int inFlight;
+	
+	public LoadGenerator(final InetSocketAddress address, final String host, final Scenario scenario) {
+	
+		this.address = address;
+		this.host = host;
+		this.scenario = scenario;
+	}
+	
+	public LoadGenerator setConcurrency(final int concurrency) {
+	
+		this.concurrency = concurrency;
+		return this;
+	}
+	
+	public LoadGenerator setKeepAlive(final boolean keepAlive) {
+	
+		this.keepAlive = keepAlive;
+		return this;
+	}
+	
+	/**
+	 * Requests per second for open loop mode, 0 for closed loop
+	 */
+	public LoadGenerator setRate(final int rate) {
+	
+		this.rate = rate;
+		return this;
+	}
+	
+	public LoadGenerator setTimeout(final long millis) {
+	
+		timeout = TimeUnit.MILLISECONDS.toNanos(millis);
+		return this;
+	}
+	
+	/**
+	 * Runs the scenario. Requests that finish during the warm up are thrown
+	 * away.
+	 */
+	public Result run(final long warmupMillis, final long durationMillis) throws IOException {
+	
+		if (scenario.isEmpty()) {
+			throw new IllegalArgumentException("Scenario " + scenario.getName() + " has no requests");
+		}
+		
+		selector = Selector.open();
+		result = new Result(scenario.getName());
+		inFlight = 0;
+		idle.clear();
+		
+		final Client[] clients = new Client[concurrency];
+		for (int i = 0; i < clients.length; i++) {
+			clients[i] = new Client();
+			idle.add(clients[i]);
+		}
+		
+		final long start = System.nanoTime();
+		measureFrom = start + TimeUnit.MILLISECONDS.toNanos(warmupMillis);
+		measureUntil = measureFrom + TimeUnit.MILLISECONDS.toNanos(durationMillis);
+		
+		final long interval = rate > 0 ? 1000000000L / rate : 0;
+		long nextArrival = start;
+		final ArrayDeque<Long> backlog = new ArrayDeque<Long>();
+		
+		try {
+			while(true) {
+				long now = System.nanoTime();
+				
+				if (now < measureUntil) {
+					if (rate == 0) {
+						// Clients that fail straight away go back on the queue
+						for (int n = idle.size(); n > 0; n--) {
+							idle.poll().begin(now);
+						}
+					} else {
+						while(nextArrival <= now) {
+							backlog.add(nextArrival);
+							nextArrival += interval;
+						}
+						while(!backlog.isEmpty() && !idle.isEmpty()) {
+							idle.poll().begin(backlog.poll());
+						}
+					}
+				} else if (inFlight == 0 || now > measureUntil + timeout) {
+					break;
+				}
+				
+				long wait = (now < measureUntil ? (rate > 0 ? nextArrival : measureUntil) : measureUntil + timeout) - now;
+				wait = Math.max(1, TimeUnit.NANOSECONDS.toMillis(wait));
+				selector.select(Math.min(wait, 100));
+				
+				final Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				while(keys.hasNext()) {
+					final SelectionKey key = keys.next();
+					keys.remove();
+					((Client) key.attachment()).handle(key);
+				}
+				
+				now = System.nanoTime();
+				for (final Client c : clients) {
+					if (c.busy && now - c.started > timeout) {
+						c.fail();
+					}
+				}
+			}
+		} finally {
+			for (final Client c : clients) {
+				c.close();
+			}
+			selector.close();
+		}
+		
+		result.setElapsed(measureUntil - measureFrom);
+		return result;
+	}
+	
+	private boolean measuring(final long time) {
+	
+		return time >= measureFrom && time <= measureUntil;
+	}
+	
+	/**
+	 * One connection and the request it has outstanding
+	 */
+	class Client {
+		
+		private SocketChannel channel;
+		
+		private SelectionKey key;
+		
+		private ByteBuffer out;
+		
+		private final ResponseParser parser = new ResponseParser();
+		
+		private long started;
+		
+		private boolean busy = false;
+		
+		void begin(final long due) {
+		
+			final Scenario.Request request = scenario.pick(random);
+			out = ByteBuffer.wrap(request.encode(host, keepAlive));
+			parser.reset("HEAD".equals(request.getMethod()));
+			started = due;
+			busy = true;
+			inFlight++;
+			
+			try {
+				if (channel == null) {
+					channel = SocketChannel.open();
+					channel.configureBlocking(false);
+					if (channel.connect(address)) {
+						key = channel.register(selector, SelectionKey.OP_WRITE, this);
+					} else {
+						key = channel.register(selector, SelectionKey.OP_CONNECT, this);
+					}
+				} else {
+					key.interestOps(SelectionKey.OP_WRITE);
+				}
+			} catch (final IOException e) {
+				fail();
+			}
+		}
+		
+		void handle(final SelectionKey key) {
+		
+			try {
+				if (!key.isValid()) {
+					fail();
+					return;
+				}
+				
+				if (key.isConnectable()) {
+					channel.finishConnect();
+					key.interestOps(SelectionKey.OP_WRITE);
+					return;
+				}
+				
+				if (key.isWritable()) {
+					channel.write(out);
+					if (!out.hasRemaining()) {
+						key.interestOps(SelectionKey.OP_READ);
+					}
+					return;
+				}
+				
+				if (key.isReadable()) {
+					readBuffer.clear();
+					final int read = channel.read(readBuffer);
+					if (read < 0) {
+						if (parser.completeOnClose()) {
+							complete(true);
+						} else {
+							fail();
+						}
+						return;
+					}
+					
+					readBuffer.flip();
+					if (parser.feed(readBuffer)) {
+						complete(!keepAlive || parser.isClose());
+					}
+				}
+			} catch (final IOException e) {
+				fail();
+			}
+		}
+		
+		private void complete(final boolean closeAfter) {
+		
+			final long now = System.nanoTime();
+			if (!busy) {
+				return;
+			}
+			
+			if (measuring(now)) {
+				if (parser.getStatus() >= 400 || parser.getStatus() < 100) {
+					result.error();
+				} else {
+					result.record(TimeUnit.NANOSECONDS.toMicros(now - started), parser.getBytes());
+				}
+			}
+			
+			if (closeAfter) {
+				close();
+			} else {
+				key.interestOps(0);
+			}
+			release();
+		}
+		
+		void fail() {
+		
+			if (!busy) {
+				return;
+			}
+			
+			if (measuring(System.nanoTime())) {
+				result.error();
+			}
+			close();
+			release();
+		}
+		
+		private void release() {
+		
+			busy = false;
+			inFlight--;
+			idle.add(this);
+		}
+		
+		void close() {
+		
+			if (channel == null) {
+				return;
+			}
+			
+			if (key != null) {
+				key.cancel();
+				key = null;
+			}
+			try {
+				channel.close();
+			} catch (final IOException ignored) {
+			}
+			channel = null;
+		}
+	}
+	
+	/**
+	 * Just enough of HTTP/1.1 to tell where a response ends: Content-Length,
+	 * chunked bodies and bodies that run until the connection closes
+	 */
+	static class ResponseParser {
+		
+		private static final int STATUS = 0, HEADERS = 1, BODY = 2, CHUNK_SIZE = 3, CHUNK_DATA = 4, CHUNK_END = 5, TRAILER = 6, UNTIL_CLOSE = 7, DONE = 8;
+		
+		private final StringBuilder line = new StringBuilder();
+		
+		private int state;
+		
+		private int status;
+		
+		private long contentLength;
+		
+		private long remaining;
+		
+		private boolean chunked;
+		
+		private boolean close;
+		
+		private boolean head;
+		
+		private long bytes;
+		
+		void reset(final boolean head) {
+		
+			this.head = head;
+			line.setLength(0);
+			state = ResponseParser.STATUS;
+			status = 0;
+			contentLength = -1;
+			remaining = 0;
+			chunked = false;
+			close = false;
+			bytes = 0;
+		}
+		
+		/**
+		 * Consumes the buffer, returns true once the response is complete
+		 */
+		boolean feed(final ByteBuffer data) {
+		
+			while(data.hasRemaining() && state != ResponseParser.DONE) {
+				if (state == ResponseParser.BODY || state == ResponseParser.CHUNK_DATA) {
+					final int n = (int) Math.min(remaining, data.remaining());
+					data.position(data.position() + n);
+					bytes += n;
+					remaining -= n;
+					if (remaining == 0) {
+						state = state == ResponseParser.BODY ? ResponseParser.DONE : ResponseParser.CHUNK_END;
+					}
+					continue;
+				}
+				
+				if (state == ResponseParser.UNTIL_CLOSE) {
+					bytes += data.remaining();
+					data.position(data.limit());
+					continue;
+				}
+				
+				final String text = readLine(data);
+				if (text != null) {
+					onLine(text);
+				}
+			}
+			
+			return state == ResponseParser.DONE;
+		}
+		
+		private String readLine(final ByteBuffer data) {
+		
+			while(data.hasRemaining()) {
+				final char c = (char) (data.get() & 0xFF);
+				bytes++;
+				if (c == '\n') {
+					final int end = line.length() > 0 && line.charAt(line.length() - 1) == '\r' ? line.length() - 1 : line.length();
+					final String text = line.substring(0, end);
+					line.setLength(0);
+					return text;
+				}
+				line.append(c);
+			}
+			return null;
+		}
+		
+		private void onLine(final String text) {
+		
+			switch(state) {
+				case STATUS: {
+					final String[] parts = text.split(" ", 3);
+					status = parts.length > 1 ? Integer.parseInt(parts[1]) : 0;
+					close = parts[0].equals("HTTP/1.0");
+					state = ResponseParser.HEADERS;
+				}
+					break;
+				case HEADERS: {
+					if (text.isEmpty()) {
+						startBody();
+						break;
+					}
+					
+					final int colon = text.indexOf(':');
+					if (colon < 0) {
+						break;
+					}
+					
+					final String name = text.substring(0, colon).trim();
+					final String value = text.substring(colon + 1).trim();
+					if (name.equalsIgnoreCase("Content-Length")) {
+						contentLength = Long.parseLong(value);
+					} else if (name.equalsIgnoreCase("Transfer-Encoding")) {
+						chunked = value.equalsIgnoreCase("chunked");
+					} else if (name.equalsIgnoreCase("Connection")) {
+						close = value.equalsIgnoreCase("close");
+					}
+				}
+					break;
+				case CHUNK_SIZE: {
+					final int ext = text.indexOf(';');
+					remaining = Long.parseLong((ext < 0 ? text : text.substring(0, ext)).trim(), 16);
+					state = remaining == 0 ? ResponseParser.TRAILER : ResponseParser.CHUNK_DATA;
+				}
+					break;
+				case CHUNK_END:
+					state = ResponseParser.CHUNK_SIZE;
+					break;
+				case TRAILER:
+					if (text.isEmpty()) {
+						state = ResponseParser.DONE;
+					}
+					break;
+			}
+		}
+		
+		private void startBody() {
+		
+			if (head || status < 200 || status == 204 || status == 304) {
+				state = ResponseParser.DONE;
+			} else if (chunked) {
+				state = ResponseParser.CHUNK_SIZE;
+			} else if (contentLength >= 0) {
+				remaining = contentLength;
+				state = remaining == 0 ? ResponseParser.DONE : ResponseParser.BODY;
+			} else {
+				close = true;
+				state = ResponseParser.UNTIL_CLOSE;
+			}
+		}
+		
+		boolean completeOnClose() {
+		
+			return state == ResponseParser.UNTIL_CLOSE;
+		}
+		
+		boolean isClose() {
+		
+			return close;
+		}
+		
+		int getStatus() {
+		
+			return status;
+		}
+		
+		long getBytes() {
+		
+			return bytes;
+		}
+	}
+	
+}
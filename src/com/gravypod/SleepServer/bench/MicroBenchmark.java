@@ -0,0 +1,188 @@
+package com.gravypod.SleepServer.bench;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.List;
+
+/**
+ * Times small pieces of code in the same thread, in the spirit of JMH: a few
+ * warm up iterations are thrown away, then each measured iteration calls the
+ * case for a fixed time. Along with the time per call it reports how much the
+ * calling thread allocated and how much the collectors did, like JMH's gc
+ * profiler.
+ *
+ * @author gravypod
+ */
+public class MicroBenchmark {
+	
+	/**
+	 * The code to time. The return value is kept so the JIT cannot throw the
+	 * work away.
+	 */
+	public interface Case {
+		
+		Object run() throws Exception;
+	}
+	
+	/**
+	 * Figures for one case, per call unless noted
+	 */
+	public static class Measurement {
+		
+		private final String name;
+		
+		private final double nanos;
+		
+		private final double error;
+		
+		private final double allocated;
+		
+		private final double allocationRate;
+		
+		private final long gcCount;
+		
+		private final long gcMillis;
+		
+		Measurement(final String name, final double nanos, final double error, final double allocated, final double allocationRate, final long gcCount, final long gcMillis) {
+		
+			this.name = name;
+			this.nanos = nanos;
+			this.error = error;
+			this.allocated = allocated;
+			this.allocationRate = allocationRate;
+			this.gcCount = gcCount;
+			this.gcMillis = gcMillis;
+		}
+		
+		public String getName() {
+		
+			return name;
+		}
+		
+		public double getNanos() {
+		
+			return nanos;
+		}
+		
+		/**
+		 * Bytes allocated by the calling thread, -1 when the JVM cannot tell
+		 */
+		public double getAllocated() {
+		
+			return allocated;
+		}
+		
+		@Override
+		public String toString() {
+		
+			return String.format("%-20s %14.1f +- %8.1f ns/op %14.1f ops/s %12s B/op %10s MB/s %5d gcs %6d ms", name, nanos, error, 1e9 / nanos, allocated < 0 ? "n/a" : String.format("%.1f", allocated), allocated < 0 ? "n/a" : String.format("%.1f", allocationRate), gcCount, gcMillis);
+		}
+	}
+	
+	public static final String HEADER = String.format("%-20s %27s %20s %15s %15s %9s %9s", "case", "time", "throughput", "alloc", "alloc rate", "gc", "gc time");
+	
+	private final int warmups;
+	
+	private final int iterations;
+	
+	private final long iterationNanos;
+	
+	private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+	
+	/**
+	 * Where results go so they stay live
+	 */
+	private volatile Object sink;
+	
+	public MicroBenchmark(final int warmups, final int iterations, final long iterationMillis) {
+	
+		this.warmups = warmups;
+		this.iterations = iterations;
+		iterationNanos = iterationMillis * 1000000L;
+	}
+	
+	public Measurement measure(final String name, final Case c) throws Exception {
+	
+		for (int i = 0; i < warmups; i++) {
+			iteration(c);
+		}
+		
+		final double[] times = new double[iterations];
+		long calls = 0;
+		long elapsed = 0;
+		long allocated = 0;
+		
+		final long gcCountBefore = gcCount();
+		final long gcTimeBefore = gcTime();
+		
+		for (int i = 0; i < iterations; i++) {
+			final long allocatedBefore = allocatedBytes();
+			final long start = System.nanoTime();
+			final long n = iteration(c);
+			final long took = System.nanoTime() - start;
+			allocated += allocatedBytes() - allocatedBefore;
+			
+			times[i] = (double) took / n;
+			calls += n;
+			elapsed += took;
+		}
+		
+		final double mean = (double) elapsed / calls;
+		double variance = 0;
+		for (final double t : times) {
+			variance += (t - mean) * (t - mean);
+		}
+		final double error = iterations > 1 ? Math.sqrt(variance / (iterations - 1)) : 0;
+		
+		final boolean counted = allocatedBytes() >= 0;
+		return new Measurement(name, mean, error, counted ? (double) allocated / calls : -1, counted ? allocated / (elapsed / 1e9) / (1024 * 1024) : -1, gcCount() - gcCountBefore, gcTime() - gcTimeBefore);
+	}
+	
+	/**
+	 * Calls the case until the iteration time is up, returns how many calls
+	 * were made
+	 */
+	private long iteration(final Case c) throws Exception {
+	
+		final long end = System.nanoTime() + iterationNanos;
+		long n = 0;
+		do {
+			sink = c.run();
+			n++;
+		} while(System.nanoTime() < end);
+		return n;
+	}
+	
+	private long allocatedBytes() {
+	
+		if (threads instanceof com.sun.management.ThreadMXBean) {
+			final com.sun.management.ThreadMXBean sun = (com.sun.management.ThreadMXBean) threads;
+			if (sun.isThreadAllocatedMemorySupported() && sun.isThreadAllocatedMemoryEnabled()) {
+				return sun.getThreadAllocatedBytes(Thread.currentThread().getId());
+			}
+		}
+		return -1;
+	}
+	
+	private static long gcCount() {
+	
+		long count = 0;
+		final List<GarbageCollectorMXBean> collectors = ManagementFactory.getGarbageCollectorMXBeans();
+		for (final GarbageCollectorMXBean gc : collectors) {
+			count += Math.max(0, gc.getCollectionCount());
+		}
+		return count;
+	}
+	
+	private static long gcTime() {
+	
+		long time = 0;
+		final List<GarbageCollectorMXBean> collectors = ManagementFactory.getGarbageCollectorMXBeans();
+		for (final GarbageCollectorMXBean gc : collectors) {
+			time += Math.max(0, gc.getCollectionTime());
+		}
+		return time;
+	}
+	
+}
@@ -0,0 +1,133 @@
+package com.gravypod.SleepServer.bench;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Properties;
+
+/**
+ * What one run of the load generator measured. Latencies are kept in
+ * microseconds and sorted when the run is finished.
+ *
+ * @author gravypod
+ */
+public class Result {
+	
+	private final String scenario;
+	
+	private long[] latencies = new long[4096];
+	
+	private int count = 0;
+	
+	private long errors = 0;
+	
+	private long bytes = 0;
+	
+	private long elapsedNanos = 0;
+	
+	private boolean sorted = false;
+	
+	public Result(final String scenario) {
+	
+		this.scenario = scenario;
+	}
+	
+	void record(final long micros, final long size) {
+	
+		if (count == latencies.length) {
+			latencies = Arrays.copyOf(latencies, count * 2);
+		}
+		latencies[count++] = micros;
+		bytes += size;
+		sorted = false;
+	}
+	
+	void error() {
+	
+		errors++;
+	}
+	
+	void setElapsed(final long nanos) {
+	
+		elapsedNanos = nanos;
+	}
+	
+	public String getScenario() {
+	
+		return scenario;
+	}
+	
+	public int getRequests() {
+	
+		return count;
+	}
+	
+	public long getErrors() {
+	
+		return errors;
+	}
+	
+	/**
+	 * Completed requests per second
+	 */
+	public double getThroughput() {
+	
+		return elapsedNanos == 0 ? 0 : count * 1e9 / elapsedNanos;
+	}
+	
+	/**
+	 * Latency in microseconds that the given fraction of requests beat
+	 */
+	public long percentile(final double p) {
+	
+		if (count == 0) {
+			return 0;
+		}
+		
+		if (!sorted) {
+			Arrays.sort(latencies, 0, count);
+			sorted = true;
+		}
+		
+		final int index = (int) Math.ceil(p * count) - 1;
+		return latencies[Math.max(0, Math.min(count - 1, index))];
+	}
+	
+	public long max() {
+	
+		return percentile(1.0);
+	}
+	
+	void store(final Properties props) {
+	
+		final String prefix = scenario + ".";
+		props.setProperty(prefix + "throughput", String.format(Locale.US, "%.1f", getThroughput()));
+		props.setProperty(prefix + "errors", Long.toString(errors));
+		for (final double p : Result.PERCENTILES) {
+			props.setProperty(prefix + "p" + Result.label(p), Long.toString(percentile(p)));
+		}
+	}
+	
+	/**
+	 * Percentiles that are reported and saved
+	 */
+	static final double[] PERCENTILES = { 0.5, 0.9, 0.99, 0.999 };
+	
+	static String label(final double p) {
+	
+		final String digits = Double.toString(p * 100);
+		return digits.endsWith(".0") ? digits.substring(0, digits.length() - 2) : digits;
+	}
+	
+	@Override
+	public String toString() {
+	
+		final StringBuilder str = new StringBuilder();
+		str.append(String.format("%-14s %8d req %6d err %10.1f req/s %8.1f MB/s", scenario, count, errors, getThroughput(), elapsedNanos == 0 ? 0 : bytes * 1e9 / elapsedNanos / (1024 * 1024)));
+		for (final double p : Result.PERCENTILES) {
+			str.append(String.format("  p%s %.2fms", Result.label(p), percentile(p) / 1000.0));
+		}
+		str.append(String.format("  max %.2fms", max() / 1000.0));
+		return str.toString();
+	}
+	
+}
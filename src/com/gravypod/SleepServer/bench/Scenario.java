@@ -0,0 +1,219 @@
+package com.gravypod.SleepServer.bench;
+
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * A named mix of requests. Each request is picked with a chance proportional
+ * to its weight.
+ *
+ * @author gravypod
+ */
+public class Scenario {
+	
+	/**
+	 * One request the load generator can send, encoded once up front
+	 */
+	public static class Request {
+		
+		private final String method;
+		
+		private final String path;
+		
+		private final Map<String, String> headers = new LinkedHashMap<String, String>();
+		
+		private final byte[] body;
+		
+		private byte[] close;
+		
+		private byte[] keepAlive;
+		
+		public Request(final String method, final String path) {
+		
+			this(method, path, null);
+		}
+		
+		public Request(final String method, final String path, final String body) {
+		
+			this.method = method;
+			this.path = path;
+			try {
+				this.body = body == null ? new byte[0] : body.getBytes("UTF-8");
+			} catch (final UnsupportedEncodingException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+		
+		public Request header(final String name, final String value) {
+		
+			headers.put(name, value);
+			return this;
+		}
+		
+		/**
+		 * The request as it goes on the wire
+		 */
+		byte[] encode(final String host, final boolean persistent) {
+		
+			if (persistent ? keepAlive != null : close != null) {
+				return persistent ? keepAlive : close;
+			}
+			
+			final StringBuilder str = new StringBuilder();
+			str.append(method).append(' ').append(path).append(" HTTP/1.1\r\n");
+			str.append("Host: ").append(host).append("\r\n");
+			str.append("Connection: ").append(persistent ? "keep-alive" : "close").append("\r\n");
+			for (final Map.Entry<String, String> e : headers.entrySet()) {
+				str.append(e.getKey()).append(": ").append(e.getValue()).append("\r\n");
+			}
+			if (body.length > 0) {
+				str.append("Content-Length: ").append(body.length).append("\r\n");
+			}
+			str.append("\r\n");
+			
+			final byte[] head = str.toString().getBytes();
+			final byte[] wire = new byte[head.length + body.length];
+			System.arraycopy(head, 0, wire, 0, head.length);
+			System.arraycopy(body, 0, wire, head.length, body.length);
+			
+			if (persistent) {
+				keepAlive = wire;
+			} else {
+				close = wire;
+			}
+			return wire;
+		}
+		
+		public String getMethod() {
+		
+			return method;
+		}
+		
+		public String getPath() {
+		
+			return path;
+		}
+	}
+	
+	private final String name;
+	
+	private final List<Request> requests = new ArrayList<Request>();
+	
+	private final List<Integer> weights = new ArrayList<Integer>();
+	
+	private int totalWeight = 0;
+	
+	public Scenario(final String name) {
+	
+		this.name = name;
+	}
+	
+	public Scenario add(final Request request) {
+	
+		return add(request, 1);
+	}
+	
+	public Scenario add(final Request request, final int weight) {
+	
+		if (weight <= 0) {
+			throw new IllegalArgumentException("Weight must be positive: " + weight);
+		}
+		requests.add(request);
+		weights.add(weight);
+		totalWeight += weight;
+		return this;
+	}
+	
+	/**
+	 * Adds every request of another scenario with the given weight spread over
+	 * them
+	 */
+	public Scenario addAll(final Scenario other, final int weight) {
+	
+		for (int i = 0; i < other.requests.size(); i++) {
+			add(other.requests.get(i), weight * other.weights.get(i));
+		}
+		return this;
+	}
+	
+	Request pick(final Random random) {
+	
+		if (requests.size() == 1) {
+			return requests.get(0);
+		}
+		
+		int roll = random.nextInt(totalWeight);
+		for (int i = 0; i < requests.size(); i++) {
+			roll -= weights.get(i);
+			if (roll < 0) {
+				return requests.get(i);
+			}
+		}
+		return requests.get(requests.size() - 1);
+	}
+	
+	public String getName() {
+	
+		return name;
+	}
+	
+	public boolean isEmpty() {
+	
+		return requests.isEmpty();
+	}
+	
+	/**
+	 * The canned scenarios, run against the site built by {@link Fixture}
+	 */
+	public static Map<String, Scenario> defaults() {
+	
+		final Map<String, Scenario> scenarios = new LinkedHashMap<String, Scenario>();
+		
+		scenarios.put("small-static", new Scenario("small-static").add(new Request("GET", "/" + Fixture.SMALL_FILE)));
+		
+		scenarios.put("large-range", new Scenario("large-range")
+			.add(new Request("GET", "/" + Fixture.LARGE_FILE), 1)
+			.add(new Request("GET", "/" + Fixture.LARGE_FILE).header("Range", "bytes=0-65535"), 4)
+			.add(new Request("GET", "/" + Fixture.LARGE_FILE).header("Range", "bytes=1048576-1179647"), 4));
+		
+		scenarios.put("template", new Scenario("template").add(new Request("GET", "/index.sl?a=5")));
+		
+		scenarios.put("post-form", new Scenario("post-form").add(new Request("POST", "/" + Fixture.FORM_PAGE, "name=bench&value=42\r\n").header("Content-Type", "application/x-www-form-urlencoded")));
+		
+		scenarios.put("listing", new Scenario("listing").add(new Request("GET", "/" + Fixture.LISTING_DIR + "/")));
+		
+		return scenarios;
+	}
+	
+	/**
+	 * Builds a mixed scenario from a spec like "small-static=5,template=2"
+	 */
+	public static Scenario mix(final String spec, final Map<String, Scenario> scenarios) {
+	
+		final Scenario mix = new Scenario("mix");
+		
+		for (final String part : spec.split(",")) {
+			final String entry = part.trim();
+			if (entry.isEmpty()) {
+				continue;
+			}
+			
+			final int eq = entry.indexOf('=');
+			final String name = eq < 0 ? entry : entry.substring(0, eq).trim();
+			final int weight = eq < 0 ? 1 : Integer.parseInt(entry.substring(eq + 1).trim());
+			
+			final Scenario scenario = scenarios.get(name);
+			if (scenario == null) {
+				throw new IllegalArgumentException("Unknown scenario: " + name);
+			}
+			mix.addAll(scenario, weight);
+		}
+		
+		return mix;
+	}
+	
+}
@@ -0,0 +1,217 @@
+package fi.iki.elonen;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+
+/**
+ * One thread that owns every channel that outlives its request: upgraded
+ * WebSockets and streamed responses. It only reads, parses and writes;
+ * anything that runs script code happens on the worker pool.
+ *
+ * @author gravypod
+ */
+public class ChannelSelector extends Thread {
+	
+	/**
+	 * A channel handed over to the selector
+	 */
+	public interface Connection {
+		
+		SocketChannel getChannel();
+		
+		/**
+		 * Called on the selector thread once the channel is registered
+		 */
+		void attach(ChannelSelector selector, SelectionKey key);
+		
+		SelectionKey getKey();
+		
+		/**
+		 * Bytes read from the channel, only valid for the duration of the call
+		 */
+		void feed(ByteBuffer data);
+		
+		/**
+		 * Writes as much queued data as the channel accepts. Returns true once
+		 * everything queued so far has been written.
+		 */
+		boolean drain() throws IOException;
+		
+		/**
+		 * Returns true when the channel can be closed
+		 */
+		boolean isFinished();
+		
+		/**
+		 * The peer went away or the channel failed
+		 */
+		void abort();
+	}
+	
+	private final Selector selector;
+	
+	private final Executor executor;
+	
+	/**
+	 * Shared read buffer, connections copy out of it only when a frame is split
+	 */
+	private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(64 * 1024);
+	
+	/**
+	 * Connections waiting to be registered with the selector
+	 */
+	private final Queue<Connection> registrations = new ConcurrentLinkedQueue<Connection>();
+	
+	/**
+	 * Connections with new outbound data or a pending close
+	 */
+	private final Queue<Connection> flushes = new ConcurrentLinkedQueue<Connection>();
+	
+	public ChannelSelector(final Executor executor) throws IOException {
+	
+		super("ChannelSelector");
+		this.executor = executor;
+		selector = Selector.open();
+		setDaemon(true);
+	}
+	
+	public Executor getExecutor() {
+	
+		return executor;
+	}
+	
+	/**
+	 * Hands a channel over to this selector
+	 */
+	public void register(final Connection connection) {
+	
+		registrations.add(connection);
+		selector.wakeup();
+	}
+	
+	/**
+	 * Asks the selector thread to write the connection's outbound queue
+	 */
+	void requestFlush(final Connection connection) {
+	
+		flushes.add(connection);
+		selector.wakeup();
+	}
+	
+	@Override
+	public void run() {
+	
+		while(true) {
+			try {
+				selector.select();
+				
+				Connection socket;
+				while((socket = registrations.poll()) != null) {
+					try {
+						socket.getChannel().configureBlocking(false);
+						final SelectionKey key = socket.getChannel().register(selector, SelectionKey.OP_READ, socket);
+						socket.attach(this, key);
+						flush(socket);
+					} catch (final ClosedChannelException e) {
+						socket.abort();
+					}
+				}
+				
+				while((socket = flushes.poll()) != null) {
+					flush(socket);
+				}
+				
+				final Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				while(keys.hasNext()) {
+					final SelectionKey key = keys.next();
+					keys.remove();
+					
+					socket = (Connection) key.attachment();
+					if (!key.isValid()) {
+						release(socket);
+						continue;
+					}
+					
+					if (key.isReadable()) {
+						read(socket);
+					}
+					
+					if (key.isValid() && key.isWritable()) {
+						flush(socket);
+					}
+				}
+			} catch (final IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+	
+	private void read(final Connection socket) {
+	
+		readBuffer.clear();
+		try {
+			final int read = socket.getChannel().read(readBuffer);
+			if (read < 0) {
+				socket.abort();
+				release(socket);
+				return;
+			}
+		} catch (final IOException e) {
+			socket.abort();
+			release(socket);
+			return;
+		}
+		
+		readBuffer.flip();
+		socket.feed(readBuffer);
+		flush(socket);
+	}
+	
+	/**
+	 * Writes what the socket will take and only asks for OP_WRITE while a slow
+	 * client still has data queued
+	 */
+	private void flush(final Connection socket) {
+	
+		final SelectionKey key = socket.getKey();
+		if (key == null || !key.isValid()) {
+			return;
+		}
+		
+		try {
+			if (socket.drain()) {
+				if (socket.isFinished()) {
+					release(socket);
+				} else {
+					key.interestOps(SelectionKey.OP_READ);
+				}
+			} else {
+				key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+			}
+		} catch (final IOException e) {
+			socket.abort();
+			release(socket);
+		}
+	}
+	
+	private void release(final Connection socket) {
+	
+		final SocketChannel channel = socket.getChannel();
+		if (socket.getKey() != null) {
+			socket.getKey().cancel();
+		}
+		
+		try {
+			channel.close();
+		} catch (final IOException ignored) {
+		}
+	}
+}
@@ -0,0 +1,258 @@
+package fi.iki.elonen;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import fi.iki.elonen.NanoHTTPD.Method;
+import fi.iki.elonen.NanoHTTPD.Response;
+
+/**
+ * Body of a response that is written while it is being produced.
+ *
+ * <p>
+ * The producer appends with write() and calls flush() whenever the client
+ * should see what it has so far. The first flush sends the headers with
+ * <code>Transfer-Encoding: chunked</code> and hands the channel to the
+ * {@link ChannelSelector}; after that every flush becomes one chunk in a
+ * bounded queue the selector drains, so the producer never waits on the
+ * socket unless the client falls that far behind. A stream that is never
+ * flushed is sent as a plain response once the producer is done.
+ * </p>
+ *
+ * @author gravypod
+ */
+public class ChunkedStream implements ChannelSelector.Connection {
+
+	/**
+	 * Chunks that may wait for a slow client before flush() blocks
+	 */
+	public static final int QUEUE_SIZE = 64;
+
+	/**
+	 * How long flush() waits for room in the queue before giving up on the
+	 * client
+	 */
+	public static final long FLUSH_TIMEOUT = 30;
+
+	private final Response response;
+
+	private final SocketChannel channel;
+
+	private final ChannelSelector selector;
+
+	private final BlockingQueue<ByteBuffer> chunks = new ArrayBlockingQueue<ByteBuffer>(ChunkedStream.QUEUE_SIZE);
+
+	/**
+	 * Output written since the last flush
+	 */
+	private final ByteArrayOutputStream pending = new ByteArrayOutputStream(2048);
+
+	/**
+	 * The terminating zero length chunk
+	 */
+	private final ByteBuffer end = ByteBuffer.wrap(new byte[] { '0', '\r', '\n', '\r', '\n' });
+
+	/**
+	 * The chunk the selector is part way through writing
+	 */
+	private ByteBuffer current;
+
+	private SelectionKey key;
+
+	private boolean committed = false;
+
+	private volatile boolean aborted = false;
+
+	private volatile boolean done = false;
+
+	public ChunkedStream(final Response response, final SocketChannel channel, final ChannelSelector selector) {
+
+		this.response = response;
+		this.channel = channel;
+		this.selector = selector;
+	}
+
+	/**
+	 * The response this stream belongs to. Status, mime type and headers may
+	 * be changed until the first flush.
+	 */
+	public Response getResponse() {
+
+		return response;
+	}
+
+	/**
+	 * Returns true once the headers have been sent
+	 */
+	public boolean isCommitted() {
+
+		return committed;
+	}
+
+	/**
+	 * Returns false once the client has gone away
+	 */
+	public boolean isOpen() {
+
+		return !aborted;
+	}
+
+	public void write(final byte[] data) {
+
+		if (!aborted) {
+			pending.write(data, 0, data.length);
+		}
+	}
+
+	public void write(final String text) {
+
+		try {
+			write(text.getBytes("UTF-8"));
+		} catch (final UnsupportedEncodingException ignored) {
+		}
+	}
+
+	/**
+	 * Sends everything written so far. Returns false if the client has gone
+	 * away or stopped reading.
+	 */
+	public boolean flush() {
+
+		if (aborted) {
+			return false;
+		}
+
+		if (response.getRequestMethod() == Method.HEAD) {
+			return true;
+		}
+
+		if (!committed) {
+			committed = true;
+			enqueue(response.buildHeader(true));
+			selector.register(this);
+		}
+
+		if (pending.size() > 0) {
+			final byte[] data = pending.toByteArray();
+			pending.reset();
+
+			final byte[] size = (Integer.toHexString(data.length) + "\r\n").getBytes();
+			final ByteBuffer chunk = ByteBuffer.allocate(size.length + data.length + 2);
+			chunk.put(size).put(data).put((byte) '\r').put((byte) '\n').flip();
+			enqueue(chunk);
+		}
+
+		return !aborted;
+	}
+
+	/**
+	 * Ends the stream. Returns false if nothing was flushed, the output is then
+	 * available from getUnsentData() and the caller sends a normal response.
+	 */
+	public boolean close() {
+
+		if (!committed) {
+			return false;
+		}
+
+		flush();
+		enqueue(end);
+		return true;
+	}
+
+	/**
+	 * Everything written to a stream that was never flushed
+	 */
+	public InputStream getUnsentData() {
+
+		return new ByteArrayInputStream(pending.toByteArray());
+	}
+
+	private void enqueue(final ByteBuffer chunk) {
+
+		if (aborted) {
+			return;
+		}
+
+		try {
+			if (!chunks.offer(chunk, ChunkedStream.FLUSH_TIMEOUT, TimeUnit.SECONDS)) {
+				abort();
+			}
+		} catch (final InterruptedException e) {
+			abort();
+		}
+
+		selector.requestFlush(this);
+	}
+
+	@Override
+	public SocketChannel getChannel() {
+
+		return channel;
+	}
+
+	@Override
+	public void attach(final ChannelSelector selector, final SelectionKey key) {
+
+		this.key = key;
+	}
+
+	@Override
+	public SelectionKey getKey() {
+
+		return key;
+	}
+
+	/**
+	 * Clients have nothing to say once the request is read
+	 */
+	@Override
+	public void feed(final ByteBuffer data) {
+
+	}
+
+	@Override
+	public boolean drain() throws IOException {
+
+		while(true) {
+			if (current == null) {
+				current = chunks.poll();
+				if (current == null) {
+					return true;
+				}
+			}
+
+			channel.write(current);
+			if (current.hasRemaining()) {
+				return false;
+			}
+
+			if (current == end) {
+				done = true;
+			}
+			current = null;
+		}
+	}
+
+	@Override
+	public boolean isFinished() {
+
+		return done || aborted;
+	}
+
+	@Override
+	public void abort() {
+
+		aborted = true;
+		chunks.clear();
+	}
+}
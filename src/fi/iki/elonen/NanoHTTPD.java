@@ -108,6 +108,21 @@ public abstract class NanoHTTPD {
 	
 	private static AtomicReference<SimpleDateFormat> simpleDateFormat = new AtomicReference<SimpleDateFormat>();
 	
+	/**
+	 * Owns every channel that outlives its request: WebSockets and streamed
+	 * responses
+	 */
+	private ChannelSelector channels;
+	
+	private ThreadPoolExecutor pool;
+	
+	private final List<Server> servers = new ArrayList<Server>();
+	
+	/**
+	 * Address to listen on, null for all of them
+	 */
+	private String hostname = null;
+	
 	public NanoHTTPD(final int port) {
 	
 		myPort = new int[] { port };
@@ -126,33 +141,15 @@ public abstract class NanoHTTPD {
 	}
 	
 	/**
-	 * Start the server.
+	 * Start the server and serve until "stop" is typed on the console.
 	 * 
 	 * @throws IOException
 	 *             if the socket is in use.
 	 */
 	public void run() {
-		List<Server> servers = new ArrayList<NanoHTTPD.Server>();
+	
 		try {
-			
-			final TimeUnit timeUnit = TimeUnit.MICROSECONDS;
-			final ArrayBlockingQueue<Runnable> threadQueue = new ArrayBlockingQueue<Runnable>(100);
-			
-			ThreadPoolExecutor pool = new ThreadPoolExecutor(1, 100, 10, timeUnit, threadQueue);
-			
-			
-			for (int port : myPort) {
-				ServerSocketChannel myServerSocket = ServerSocketChannel.open();
-				
-				myServerSocket.configureBlocking(false);
-				
-				myServerSocket.bind(new InetSocketAddress(port));
-				Server currentServer = new Server(myServerSocket, pool);
-				servers.add(currentServer);
-				currentServer.start();
-				
-			}
-			
+			start();
 		} catch (IOException e1) {
 			e1.printStackTrace();
 		}
@@ -172,6 +169,64 @@ public abstract class NanoHTTPD {
 		
 	}
 	
+	/**
+	 * Binds every port and starts accepting connections in the background.
+	 * 
+	 * @throws IOException
+	 *             if the socket is in use.
+	 */
+	public void start() throws IOException {
+	
+		final TimeUnit timeUnit = TimeUnit.MICROSECONDS;
+		final ArrayBlockingQueue<Runnable> threadQueue = new ArrayBlockingQueue<Runnable>(100);
+		
+		pool = new ThreadPoolExecutor(1, 100, 10, timeUnit, threadQueue);
+		
+		channels = new ChannelSelector(pool);
+		channels.start();
+		
+		for (int port : myPort) {
+			ServerSocketChannel myServerSocket = ServerSocketChannel.open();
+			
+			myServerSocket.configureBlocking(false);
+			
+			myServerSocket.bind(hostname == null ? new InetSocketAddress(port) : new InetSocketAddress(hostname, port));
+			Server currentServer = new Server(myServerSocket, pool);
+			servers.add(currentServer);
+			currentServer.start();
+			
+		}
+		
+	}
+	
+	/**
+	 * Stops accepting connections. Requests already being served are allowed
+	 * to finish.
+	 */
+	public void stop() {
+	
+		for (Server server : servers) {
+			try {
+				server.channel.close();
+			} catch (IOException ignored) {
+			}
+		}
+		servers.clear();
+		
+		if (pool != null) {
+			pool.shutdown();
+		}
+	}
+	
+	/**
+	 * Only listen on the given address, all interfaces are used by default.
+	 * Must be called before the server is started.
+	 */
+	public void setHostname(final String hostname) {
+	
+		this.hostname = hostname;
+	}
+	
 	// ------------------------------------------------------------------------------- //
 	//
 	// Temp file handling strategy.
@@ -349,6 +404,26 @@ public abstract class NanoHTTPD {
 	 */
 	public abstract Response serve(final String uri, final Method method, final Map<String, String> header, final Map<String, String> parms, final Map<String, String> files, final ScriptLoader loader);
 	
+	/**
+	 * Override this to accept WebSocket connections.
+	 * <p/>
+	 * Called instead of serve() when a request asks to be upgraded. Return the
+	 * handler for the new connection, or null to refuse the upgrade.
+	 * 
+	 * @param uri
+	 *            Percent-decoded URI without parameters
+	 * @param header
+	 *            Header entries, percent decoded
+	 * @param parms
+	 *            Parsed, percent decoded parameters from the URI
+	 * @param loader
+	 * @return the handler for the connection, or null
+	 */
+	public WebSocket.Handler serveWebSocket(final String uri, final Map<String, String> header, final Map<String, String> parms, final ScriptLoader loader) {
+	
+		return null;
+	}
+	
 	/**
 	 * Decode percent encoded <code>String</code> values.
 	 * 
@@ -468,6 +543,20 @@ public abstract class NanoHTTPD {
 		 */
 		private Method requestMethod;
 		
+		/**
+		 * Writes the body progressively, null for ordinary responses.
+		 */
+		private Producer producer;
+		
+		/**
+		 * Writes the body of a streamed response. Call flush() on the stream to
+		 * send what has been written so far.
+		 */
+		public interface Producer {
+			
+			void produce(ChunkedStream out);
+		}
+		
 		/**
 		 * Default constructor: response = HTTP_OK, mime = MIME_HTML and your
 		 * supplied message
@@ -501,6 +590,17 @@ public abstract class NanoHTTPD {
 			}
 		}
 		
+		/**
+		 * Streamed response, the body is written by the producer after serve()
+		 * returns.
+		 */
+		public Response(final Status status, final String mimeType, final Producer producer) {
+		
+			this.status = status;
+			this.mimeType = mimeType;
+			this.producer = producer;
+		}
+		
 		public static void error(final SocketChannel channel, final Status error, final String message) {
 		
 			new Response(error, NanoHTTPD.MIME_PLAINTEXT, message).send(channel);
@@ -514,39 +614,82 @@ public abstract class NanoHTTPD {
 			header.put(name, value);
 		}
 		
+		/**
+		 * Builds the status line and headers. Chunked responses are sent as
+		 * HTTP/1.1, everything else as HTTP/1.0.
+		 */
+		ByteBuffer buildHeader(final boolean chunked) {
+		
+			final StringBuilder headerString = new StringBuilder((chunked ? "HTTP/1.1 " : "HTTP/1.0 ") + status.getDescription() + " \r\n");
+			
+			if (mimeType != null) {
+				headerString.append("Content-Type: " + mimeType + "\r\n");
+			}
+			
+			if (header == null || header.get("Date") == null) {
+				headerString.append("Date: " + simpleDateFormat.get().format(new Date()) + "\r\n");
+			}
+			
+			if (header != null) {
+				for (final String key : header.keySet()) {
+					final String value = header.get(key);
+					headerString.append(key + ": " + value + "\r\n");
+				}
+			}
+			
+			if (chunked) {
+				headerString.append("Transfer-Encoding: chunked\r\n");
+				headerString.append("Connection: close\r\n");
+			}
+			
+			headerString.append("\r\n");
+			return ByteBuffer.wrap(headerString.toString().getBytes());
+		}
+		
+		/**
+		 * Sends a streamed response. The producer runs on the calling thread;
+		 * once it flushes, the channel belongs to the selector and true is
+		 * returned so the caller leaves it open.
+		 */
+		private boolean send(final SocketChannel channel, final ChannelSelector selector) {
+		
+			if (producer == null) {
+				send(channel);
+				return false;
+			}
+			
+			final ChunkedStream stream = new ChunkedStream(this, channel, selector);
+			try {
+				producer.produce(stream);
+			} catch (final RuntimeException e) {
+				e.printStackTrace();
+			}
+			
+			if (stream.close()) {
+				return true;
+			}
+			
+			// Never flushed, so it is just a normal response
+			data = stream.getUnsentData();
+			send(channel);
+			return false;
+		}
+		
 		/**
 		 * Sends given response to the socket.
 		 */
 		private void send(final SocketChannel channel) {
 		
-			final String mime = mimeType;
-			
 			try {
 				if (status == null) {
 					throw new Error("sendResponse(): Status can't be null.");
 				}
-				final StringBuilder headerString = new StringBuilder("HTTP/1.0 " + status.getDescription() + " \r\n");
 				
-				if (mime != null) {
-					headerString.append("Content-Type: " + mime + "\r\n");
-				}
-				
-				if (header == null || header.get("Date") == null) {
-					headerString.append("Date: " + simpleDateFormat.get().format(new Date()) + "\r\n");
-				}
-				
-				if (header != null) {
-					for (final String key : header.keySet()) {
-						final String value = header.get(key);
-						headerString.append(key + ": " + value + "\r\n");
-					}
-				}
-				
-				headerString.append("\r\n");
 				{
-					final ByteBuffer data = ByteBuffer.wrap(headerString.toString().getBytes());
-					data.flip();
-					channel.write(data);
+					final ByteBuffer data = buildHeader(false);
+					while(data.hasRemaining()) {
+						channel.write(data);
+					}
 				}
 				if (requestMethod != Method.HEAD && data != null) {
 					int pending = data.available(); // This is to support partial sends, see serveFile()
@@ -558,8 +701,10 @@ public abstract class NanoHTTPD {
 							break;
 						}
 						
-						final ByteBuffer writeData = ByteBuffer.wrap(buff, 0, pending > BUFFER_SIZE ? BUFFER_SIZE : pending);
-						channel.write(writeData);
+						final ByteBuffer writeData = ByteBuffer.wrap(buff, 0, read);
+						while(writeData.hasRemaining()) {
+							channel.write(writeData);
+						}
 						
 						pending -= read;
 					}
@@ -655,6 +800,11 @@ public abstract class NanoHTTPD {
 		
 		private final ScriptLoader loader;
 		
+		/**
+		 * Set once the channel has been handed to the channel selector
+		 */
+		private boolean upgraded = false;
+		
 		/**
 		 * Create a new HTTPSession lined to the given {@link SocketChannel} and
 		 * using the specified {@link TempfileSystem}
@@ -719,6 +869,27 @@ public abstract class NanoHTTPD {
 					throw new InterruptedException();
 				}
 				final String uri = pre.get("uri");
+				
+				if (WebSocket.isUpgradeRequest(header)) {
+					final WebSocket.Handler handler = serveWebSocket(uri, header, parms, loader);
+					if (handler == null) {
+						Response.error(channel, Response.Status.NOT_FOUND, "Error 404, no WebSocket endpoint here.");
+						throw new InterruptedException();
+					}
+					
+					WebSocket.handshake(channel, header);
+					
+					// Anything after the header already belongs to the WebSocket
+					final WebSocket socket = new WebSocket(channel, handler, channels.getExecutor());
+					buffer.position(splitbyte);
+					if (buffer.hasRemaining()) {
+						socket.stash(buffer);
+					}
+					channels.register(socket);
+					upgraded = true;
+					return;
+				}
+				
 				long size = extractContentLength(header);
 				
 				// Write the part of body already read to ByteArrayOutputStream f
@@ -815,7 +986,11 @@ public abstract class NanoHTTPD {
 					throw new InterruptedException();
 				} else {
 					r.setRequestMethod(method);
-					r.send(channel);
+					if (r.send(channel, channels)) {
+						upgraded = true;
+						in.close();
+						return;
+					}
 				}
 				
 				in.close();
@@ -833,6 +1008,15 @@ public abstract class NanoHTTPD {
 			}
 		}
 		
+		/**
+		 * Returns true if the channel now belongs to the channel selector and
+		 * must be left open
+		 */
+		public boolean isUpgraded() {
+		
+			return upgraded;
+		}
+		
 		private long extractContentLength(final Map<String, String> header) {
 		
 			long size = 0x7FFFFFFFFFFFFFFFl;
@@ -1132,6 +1316,10 @@ public abstract class NanoHTTPD {
 			final HTTPSession session = new HTTPSession(finalAccept, tempFileManager, loader);
 			
 			session.run();
+			if (session.isUpgraded()) {
+				System.out.println("Handed off " + System.identityHashCode(finalAccept));
+				return;
+			}
 			System.out.println("Ending " + System.identityHashCode(finalAccept));
 			try {
 				finalAccept.close();
@@ -1179,7 +1367,7 @@ public abstract class NanoHTTPD {
 				} catch (Exception e) {
 				}
 				
-			} while(true); // Create shutdonw
+			} while(channel.isOpen());
 		}
 		
 	}
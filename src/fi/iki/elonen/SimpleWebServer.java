@@ -2,20 +2,24 @@ package fi.iki.elonen;
 
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FilenameFilter;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
-import java.util.Arrays;
-import java.util.Collections;
-import java.util.List;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.Map;
 import java.util.StringTokenizer;
+import java.util.TreeMap;
+import java.util.TreeSet;
 
+import sleep.bridges.BoundedCache;
 import sleep.runtime.ScriptLoader;
 
 import com.gravypod.SleepServer.Site;
 import com.gravypod.SleepServer.SleepCodeHandler;
+import com.gravypod.SleepServer.SleepWebSocket;
 
 import fi.iki.elonen.NanoHTTPD.Response.Status;
 
@@ -67,10 +71,138 @@ public class SimpleWebServer extends NanoHTTPD {
 		return newUri;
 	}
 	
-	private String listDirectory(final String uri, final File f) {
+	/**
+	 * The entries of a directory with their sizes, read once and sorted the
+	 * way the listing shows them
+	 */
+	private static final class Listing {
+		
+		final long modified;
+		
+		final long read;
+		
+		final String[] directories;
+		
+		final String[] files;
+		
+		final long[] sizes;
+		
+		Listing(final long modified, final long read, final String[] directories, final String[] files, final long[] sizes) {
+		
+			this.modified = modified;
+			this.read = read;
+			this.directories = directories;
+			this.files = files;
+			this.sizes = sizes;
+		}
+		
+		int size() {
+		
+			return directories.length + files.length;
+		}
+	}
+	
+	/**
+	 * Entries on one page of a directory listing, the rest are on ?page=2 and
+	 * so on
+	 */
+	private static final int LISTING_PAGE = Integer.getInteger("sleep.listing.page", 1000);
+	
+	/**
+	 * How long a listing is reused while the directory hasn't changed, so file
+	 * sizes don't go too stale
+	 */
+	private static final long LISTING_AGE = 5000;
+	
+	private final BoundedCache<String, Listing> listings = new BoundedCache<String, Listing>(64);
+	
+	/**
+	 * Reads a directory once, every entry's attributes with it, or returns the
+	 * listing read last time if the directory hasn't changed since
+	 */
+	private Listing listing(final File f) throws IOException {
+	
+		final Path dir = f.toPath();
+		final long modified = Files.getLastModifiedTime(dir).toMillis();
+		final long now = System.currentTimeMillis();
+		
+		final Listing cached = listings.get(f.getAbsolutePath());
+		if (cached != null && cached.modified == modified && now - cached.read < SimpleWebServer.LISTING_AGE) {
+			return cached;
+		}
+		
+		final TreeSet<String> directories = new TreeSet<String>();
+		final TreeMap<String, Long> files = new TreeMap<String, Long>();
+		
+		final DirectoryStream<Path> stream = Files.newDirectoryStream(dir);
+		try {
+			for (final Path entry : stream) {
+				final BasicFileAttributes attributes;
+				try {
+					attributes = Files.readAttributes(entry, BasicFileAttributes.class);
+				} catch (final IOException e) {
+					continue; // gone already, or a broken link
+				}
+				
+				if (attributes.isDirectory()) {
+					directories.add(entry.getFileName().toString());
+				} else if (attributes.isRegularFile()) {
+					files.put(entry.getFileName().toString(), attributes.size());
+				}
+			}
+		} finally {
+			stream.close();
+		}
+		
+		final long[] sizes = new long[files.size()];
+		int i = 0;
+		for (final Long size : files.values()) {
+			sizes[i++] = size;
+		}
+		
+		final Listing listing = new Listing(modified, now, directories.toArray(new String[directories.size()]), files.keySet().toArray(new String[files.size()]), sizes);
+		listings.put(f.getAbsolutePath(), listing);
+		return listing;
+	}
+	
+	private Response listDirectory(final String uri, final File f, final Map<String, String> parms) {
+	
+		final Listing listing;
+		try {
+			listing = listing(f);
+		} catch (final IOException e) {
+			return new Response(Response.Status.FORBIDDEN, NanoHTTPD.MIME_PLAINTEXT, "FORBIDDEN: No directory listing.");
+		}
+		
+		int page = 1;
+		try {
+			if (parms.get("page") != null) {
+				page = Integer.parseInt(parms.get("page"));
+			}
+		} catch (final NumberFormatException ignored) {
+		}
+		
+		final int pages = Math.max(1, (listing.size() + SimpleWebServer.LISTING_PAGE - 1) / SimpleWebServer.LISTING_PAGE);
+		final int current = Math.min(Math.max(page, 1), pages);
+		
+		return new Response(Response.Status.OK, NanoHTTPD.MIME_HTML, new Response.Producer() {
+			
+			@Override
+			public void produce(final ChunkedStream out) {
+			
+				writeListing(out, uri, listing, current, pages);
+			}
+		});
+	}
+	
+	/**
+	 * Writes one page of a listing, flushing as it goes so a big directory
+	 * doesn't sit in memory as one string
+	 */
+	private void writeListing(final ChunkedStream out, final String uri, final Listing listing, final int page, final int pages) {
 	
 		final String heading = "Directory " + uri;
-		String msg = "<html><head><title>" + heading + "</title><style><!--\n" + "span.dirname { font-weight: bold; }\n" + "span.filesize { font-size: 75%; }\n" + "// -->\n" + "</style>" + "</head><body><h1>" + heading + "</h1>";
+		out.write("<html><head><title>" + heading + "</title><style><!--\n" + "span.dirname { font-weight: bold; }\n" + "span.filesize { font-size: 75%; }\n" + "// -->\n" + "</style>" + "</head><body><h1>" + heading + "</h1>");
 		
 		String up = null;
 		if (uri.length() > 1) {
@@ -81,62 +213,118 @@ public class SimpleWebServer extends NanoHTTPD {
 			}
 		}
 		
-		final List<String> files = Arrays.asList(f.list(new FilenameFilter() {
-			
-			@Override
-			public boolean accept(final File dir, final String name) {
-			
-				return new File(dir, name).isFile();
-			}
-		}));
-		Collections.sort(files);
-		final List<String> directories = Arrays.asList(f.list(new FilenameFilter() {
-			
-			@Override
-			public boolean accept(final File dir, final String name) {
-			
-				return new File(dir, name).isDirectory();
-			}
-		}));
-		Collections.sort(directories);
-		if (up != null || directories.size() + files.size() > 0) {
-			msg += "<ul>";
-			if (up != null || directories.size() > 0) {
-				msg += "<section class=\"directories\">";
+		// Directories come first, a page is a slice of directories then files
+		final int from = (page - 1) * SimpleWebServer.LISTING_PAGE;
+		final int to = Math.min(from + SimpleWebServer.LISTING_PAGE, listing.size());
+		final int dirsFrom = Math.min(from, listing.directories.length);
+		final int dirsTo = Math.min(to, listing.directories.length);
+		final int filesFrom = Math.max(from, listing.directories.length) - listing.directories.length;
+		final int filesTo = Math.max(to, listing.directories.length) - listing.directories.length;
+		
+		int written = 0;
+		
+		if (up != null || to > from) {
+			out.write("<ul>");
+			if (up != null || dirsTo > dirsFrom) {
+				out.write("<section class=\"directories\">");
 				if (up != null) {
-					msg += "<li><a rel=\"directory\" href=\"" + up + "\"><span class=\"dirname\">..</span></a></b></li>";
+					out.write("<li><a rel=\"directory\" href=\"" + up + "\"><span class=\"dirname\">..</span></a></b></li>");
 				}
-				for (int i = 0; i < directories.size(); i++) {
+				for (int i = dirsFrom; i < dirsTo; i++) {
 					
-					final String dir = directories.get(i) + "/";
-					msg += "<li><a rel=\"directory\" href=\"" + encodeUri(uri + dir) + "\"><span class=\"dirname\">" + dir + "</span></a></b></li>";
+					final String dir = listing.directories[i] + "/";
+					out.write("<li><a rel=\"directory\" href=\"" + encodeUri(uri + dir) + "\"><span class=\"dirname\">" + dir + "</span></a></b></li>");
+					
+					if (++written % 256 == 0 && !out.flush()) {
+						return;
+					}
 				}
-				msg += "</section>";
+				out.write("</section>");
 			}
-			if (files.size() > 0) {
-				msg += "<section class=\"files\">";
-				for (int i = 0; i < files.size(); i++) {
-					final String file = files.get(i);
+			if (filesTo > filesFrom) {
+				out.write("<section class=\"files\">");
+				for (int i = filesFrom; i < filesTo; i++) {
+					final String file = listing.files[i];
 					
-					msg += "<li><a href=\"" + encodeUri(uri + file) + "\"><span class=\"filename\">" + file + "</span></a>";
-					final File curFile = new File(f, file);
-					final long len = curFile.length();
-					msg += "&nbsp;<span class=\"filesize\">(";
+					final StringBuilder msg = new StringBuilder();
+					msg.append("<li><a href=\"").append(encodeUri(uri + file)).append("\"><span class=\"filename\">").append(file).append("</span></a>");
+					final long len = listing.sizes[i];
+					msg.append("&nbsp;<span class=\"filesize\">(");
 					if (len < 1024) {
-						msg += len + " bytes";
+						msg.append(len).append(" bytes");
 					} else if (len < 1024 * 1024) {
-						msg += len / 1024 + "." + len % 1024 / 10 % 100 + " KB";
+						msg.append(len / 1024).append(".").append(len % 1024 / 10 % 100).append(" KB");
 					} else {
-						msg += len / (1024 * 1024) + "." + len % (1024 * 1024) / 10 % 100 + " MB";
+						msg.append(len / (1024 * 1024)).append(".").append(len % (1024 * 1024) / 10 % 100).append(" MB");
+					}
+					msg.append(")</span></li>");
+					out.write(msg.toString());
+					
+					if (++written % 256 == 0 && !out.flush()) {
+						return;
 					}
-					msg += ")</span></li>";
 				}
-				msg += "</section>";
+				out.write("</section>");
+			}
+			out.write("</ul>");
+		}
+		
+		if (pages > 1) {
+			out.write("<p class=\"pages\">");
+			if (page > 1) {
+				out.write("<a rel=\"prev\" href=\"?page=" + (page - 1) + "\">previous</a> ");
+			}
+			out.write("page " + page + " of " + pages);
+			if (page < pages) {
+				out.write(" <a rel=\"next\" href=\"?page=" + (page + 1) + "\">next</a>");
+			}
+			out.write("</p>");
+		}
+		
+		out.write("</body></html>");
+	}
+	
+	@Override
+	public WebSocket.Handler serveWebSocket(String uri, final Map<String, String> header, final Map<String, String> parms, final ScriptLoader loader) {
+	
+		String hostHeader = header.get("host");
+		if (hostHeader == null) {
+			return null;
+		}
+		String hostIp = hostHeader.indexOf(':') > -1 ? hostHeader.substring(0, hostHeader.indexOf(':')) : hostHeader;
+		
+		Site currentSite = null;
+		
+		for (Site site : this.sites) {
+			if (hostIp.contains(site.getHost())) {
+				currentSite = site;
 			}
-			msg += "</ul>";
 		}
-		msg += "</body></html>";
-		return msg;
+		
+		if (currentSite == null) {
+			return null;
+		}
+		
+		uri = uri.trim().replace(File.separatorChar, '/');
+		if (uri.indexOf('?') >= 0)
+			uri = uri.substring(0, uri.indexOf('?'));
+		
+		if (uri.contains("../"))
+			return null;
+		
+		// Only sleep pages can answer a WebSocket
+		File f = new File(currentSite.getRootDir(), uri);
+		int dot = f.getName().lastIndexOf('.');
+		if (!f.isFile() || dot < 0 || !"application/sl".equalsIgnoreCase(mimiTypes.get(f.getName().substring(dot + 1).toLowerCase()))) {
+			return null;
+		}
+		
+		try {
+			return new SleepWebSocket(f, parms, header, loader);
+		} catch (Exception e) {
+			e.printStackTrace();
+			return null;
+		}
 	}
 	
 	@Override
@@ -170,7 +358,7 @@ public class SimpleWebServer extends NanoHTTPD {
 			rootDir = new File(currentSite.getRootDir());
 			System.out.println(hostIp + "'s rootDir is " + new File(currentSite.getRootDir()).getAbsolutePath());
 		}
-		
+
 /*		File f = new File(rootDir, uri);
 		
 		if (res == null && !f.exists()) {
@@ -217,7 +405,7 @@ public class SimpleWebServer extends NanoHTTPD {
 				if (!found) {
 					if (f.canRead()) {
 						// No index file, list the directory if it is readable
-						res = new Response(listDirectory(uri, f));
+						res = listDirectory(uri, f, parms);
 					} else {
 						res = new Response(Response.Status.FORBIDDEN, NanoHTTPD.MIME_PLAINTEXT, "FORBIDDEN: No directory listing.");
 					}
@@ -239,15 +427,16 @@ public class SimpleWebServer extends NanoHTTPD {
 					mime = NanoHTTPD.MIME_DEFAULT_BINARY;
 				} else if (mime.equalsIgnoreCase("application/sl")) {
 					
-					final SleepCodeHandler p = new SleepCodeHandler(f, NanoHTTPD.MIME_HTML, parms, header, method.toString(), loader);
+					final SleepCodeHandler p = new SleepCodeHandler(rootDir, f, NanoHTTPD.MIME_HTML, parms, header, method.toString(), loader);
 					
-					final Response r = new Response(Response.Status.OK, p.getMimeType(), p.parseSleep());
-					
-					for (final Map.Entry<String, String> e : p.getHeaders().entrySet()) {
-						r.addHeader(e.getKey(), e.getValue());
-					}
-					
-					return r;
+					return new Response(Response.Status.OK, p.getMimeType(), new Response.Producer() {
+						
+						@Override
+						public void produce(final ChunkedStream out) {
+						
+							p.parseSleep(out);
+						}
+					});
 				}
 				
 				// Calculate etag
@@ -367,7 +556,7 @@ public class SimpleWebServer extends NanoHTTPD {
 				if (!found) {
 					if (f.canRead()) {
 						// No index file, list the directory if it is readable
-						res = new Response(listDirectory(uri, f));
+						res = listDirectory(uri, f, parms);
 					} else {
 						res = new Response(Response.Status.FORBIDDEN, NanoHTTPD.MIME_PLAINTEXT, "FORBIDDEN: No directory listing.");
 					}
@@ -387,15 +576,16 @@ public class SimpleWebServer extends NanoHTTPD {
 					mime = NanoHTTPD.MIME_DEFAULT_BINARY;
 				} else if (mime.equalsIgnoreCase("application/sl")) {
 					
-					final SleepCodeHandler p = new SleepCodeHandler(f, NanoHTTPD.MIME_HTML, parms, header, method.toString(), loader);
-					
-					final Response r = new Response(Response.Status.OK, p.getMimeType(), p.parseSleep());
-					
-					for (final Map.Entry<String, String> e : p.getHeaders().entrySet()) {
-						r.addHeader(e.getKey(), e.getValue());
-					}
+					final SleepCodeHandler p = new SleepCodeHandler(rootDir, f, NanoHTTPD.MIME_HTML, parms, header, method.toString(), loader);
 					
-					return r;
+					return new Response(Response.Status.OK, p.getMimeType(), new Response.Producer() {
+						
+						@Override
+						public void produce(final ChunkedStream out) {
+						
+							p.parseSleep(out);
+						}
+					});
 				}
 				
 				// Calculate etag
@@ -0,0 +1,576 @@
+package fi.iki.elonen;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+
+/**
+ * A single upgraded WebSocket connection (RFC 6455).
+ *
+ * <p>
+ * Once the handshake is done the channel is owned by a
+ * {@link ChannelSelector}. The selector thread feeds raw bytes into
+ * {@link #feed(ByteBuffer)} which unmasks frames, joins fragments and answers
+ * pings. Complete messages are handed to the {@link Handler} on the worker
+ * pool, one at a time and in order, so an idle connection holds no thread and
+ * no buffer.
+ * </p>
+ *
+ * @author gravypod
+ */
+public class WebSocket implements ChannelSelector.Connection {
+	
+	/**
+	 * Receives the events of a WebSocket connection. Callbacks for one
+	 * connection never run concurrently.
+	 */
+	public interface Handler {
+		
+		void onOpen(WebSocket socket);
+		
+		void onMessage(WebSocket socket, String message);
+		
+		void onBinary(WebSocket socket, byte[] data);
+		
+		void onClose(WebSocket socket, int code, String reason);
+	}
+	
+	/**
+	 * Magic value from RFC 6455 used to compute Sec-WebSocket-Accept
+	 */
+	private static final String ACCEPT_GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+	
+	public static final int OPCODE_CONTINUATION = 0x0;
+	
+	public static final int OPCODE_TEXT = 0x1;
+	
+	public static final int OPCODE_BINARY = 0x2;
+	
+	public static final int OPCODE_CLOSE = 0x8;
+	
+	public static final int OPCODE_PING = 0x9;
+	
+	public static final int OPCODE_PONG = 0xA;
+	
+	public static final int CLOSE_NORMAL = 1000;
+	
+	public static final int CLOSE_GOING_AWAY = 1001;
+	
+	public static final int CLOSE_PROTOCOL_ERROR = 1002;
+	
+	public static final int CLOSE_NO_STATUS = 1005;
+	
+	public static final int CLOSE_ABNORMAL = 1006;
+	
+	public static final int CLOSE_TOO_BIG = 1009;
+	
+	/**
+	 * Largest message (after joining fragments) we are willing to buffer
+	 */
+	public static final int MAX_MESSAGE_SIZE = 1024 * 1024;
+	
+	/**
+	 * Once this many bytes are queued for a slow client, send() refuses more
+	 */
+	public static final int MAX_PENDING_BYTES = 4 * 1024 * 1024;
+	
+	private final SocketChannel channel;
+	
+	private final Handler handler;
+	
+	private final Executor executor;
+	
+	private ChannelSelector selector;
+	
+	private SelectionKey key;
+	
+	/**
+	 * Bytes of an incomplete frame, only allocated while one is in flight
+	 */
+	private ByteBuffer partial;
+	
+	/**
+	 * Payload of a fragmented message, only allocated while one is in flight
+	 */
+	private ByteArrayOutputStream fragments;
+	
+	private int fragmentOpcode;
+	
+	/**
+	 * Encoded frames waiting for the selector to write them
+	 */
+	private final Queue<ByteBuffer> outbound = new ConcurrentLinkedQueue<ByteBuffer>();
+	
+	private int pendingBytes = 0;
+	
+	/**
+	 * Events waiting to be delivered to the handler
+	 */
+	private final Queue<Runnable> events = new ConcurrentLinkedQueue<Runnable>();
+	
+	private boolean dispatching = false;
+	
+	private boolean closeSent = false;
+	
+	private boolean closed = false;
+	
+	public WebSocket(final SocketChannel channel, final Handler handler, final Executor executor) {
+	
+		this.channel = channel;
+		this.handler = handler;
+		this.executor = executor;
+	}
+	
+	/**
+	 * Returns true if the request headers ask for a WebSocket upgrade
+	 */
+	public static boolean isUpgradeRequest(final Map<String, String> header) {
+	
+		final String upgrade = header.get("upgrade");
+		final String connection = header.get("connection");
+		return upgrade != null && connection != null && upgrade.equalsIgnoreCase("websocket") && connection.toLowerCase().contains("upgrade") && header.get("sec-websocket-key") != null;
+	}
+	
+	/**
+	 * Writes the 101 response that completes the opening handshake
+	 */
+	public static void handshake(final SocketChannel channel, final Map<String, String> header) throws IOException {
+	
+		final String accept;
+		try {
+			final MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+			accept = Base64.getEncoder().encodeToString(sha1.digest((header.get("sec-websocket-key").trim() + WebSocket.ACCEPT_GUID).getBytes("ISO-8859-1")));
+		} catch (final NoSuchAlgorithmException e) {
+			throw new IOException(e);
+		}
+		
+		final String response = "HTTP/1.1 101 Switching Protocols\r\n" + "Upgrade: websocket\r\n" + "Connection: Upgrade\r\n" + "Sec-WebSocket-Accept: " + accept + "\r\n\r\n";
+		final ByteBuffer data = ByteBuffer.wrap(response.getBytes("ISO-8859-1"));
+		while(data.hasRemaining()) {
+			channel.write(data);
+		}
+	}
+	
+	@Override
+	public SocketChannel getChannel() {
+	
+		return channel;
+	}
+	
+	public boolean isOpen() {
+	
+		return !closed;
+	}
+	
+	@Override
+	public void attach(final ChannelSelector selector, final SelectionKey key) {
+	
+		this.selector = selector;
+		this.key = key;
+		
+		dispatch(new Runnable() {
+			
+			@Override
+			public void run() {
+			
+				handler.onOpen(WebSocket.this);
+			}
+		});
+		
+		// Frames that arrived together with the handshake
+		if (partial != null) {
+			feed(ByteBuffer.allocate(0));
+		}
+	}
+	
+	@Override
+	public SelectionKey getKey() {
+	
+		return key;
+	}
+	
+	/**
+	 * Queues a text message. Returns false if the connection is closed or the
+	 * client is too far behind to accept more data.
+	 */
+	public boolean send(final String message) {
+	
+		try {
+			return sendFrame(WebSocket.OPCODE_TEXT, message.getBytes("UTF-8"));
+		} catch (final UnsupportedEncodingException e) {
+			return false;
+		}
+	}
+	
+	/**
+	 * Queues a binary message. Returns false if the connection is closed or the
+	 * client is too far behind to accept more data.
+	 */
+	public boolean send(final byte[] data) {
+	
+		return sendFrame(WebSocket.OPCODE_BINARY, data);
+	}
+	
+	/**
+	 * Starts the closing handshake
+	 */
+	public void close(final int code, final String reason) {
+	
+		byte[] text;
+		try {
+			text = reason == null ? new byte[0] : reason.getBytes("UTF-8");
+		} catch (final UnsupportedEncodingException e) {
+			text = new byte[0];
+		}
+		
+		final byte[] payload = new byte[2 + Math.min(text.length, 123)];
+		payload[0] = (byte) (code >> 8);
+		payload[1] = (byte) code;
+		System.arraycopy(text, 0, payload, 2, payload.length - 2);
+		
+		sendFrame(WebSocket.OPCODE_CLOSE, payload);
+	}
+	
+	private boolean sendFrame(final int opcode, final byte[] payload) {
+	
+		final ByteBuffer frame = WebSocket.encodeFrame(opcode, payload);
+		
+		synchronized(this) {
+			if (closed || closeSent) {
+				return false;
+			}
+			
+			if (opcode < WebSocket.OPCODE_CLOSE && pendingBytes + frame.remaining() > WebSocket.MAX_PENDING_BYTES) {
+				return false;
+			}
+			
+			if (opcode == WebSocket.OPCODE_CLOSE) {
+				closeSent = true;
+			}
+			
+			pendingBytes += frame.remaining();
+			outbound.add(frame);
+		}
+		
+		if (selector != null) {
+			selector.requestFlush(this);
+		}
+		return true;
+	}
+	
+	/**
+	 * Server frames are never masked or fragmented
+	 */
+	private static ByteBuffer encodeFrame(final int opcode, final byte[] payload) {
+	
+		final int len = payload.length;
+		final int headerLen = len < 126 ? 2 : len <= 0xFFFF ? 4 : 10;
+		final ByteBuffer frame = ByteBuffer.allocate(headerLen + len);
+		
+		frame.put((byte) (0x80 | opcode));
+		if (len < 126) {
+			frame.put((byte) len);
+		} else if (len <= 0xFFFF) {
+			frame.put((byte) 126);
+			frame.putShort((short) len);
+		} else {
+			frame.put((byte) 127);
+			frame.putLong(len);
+		}
+		frame.put(payload);
+		frame.flip();
+		return frame;
+	}
+	
+	@Override
+	public boolean drain() throws IOException {
+	
+		ByteBuffer frame;
+		while((frame = outbound.peek()) != null) {
+			final int written = channel.write(frame);
+			
+			synchronized(this) {
+				pendingBytes -= written;
+			}
+			
+			if (frame.hasRemaining()) {
+				return false;
+			}
+			outbound.poll();
+		}
+		
+		synchronized(this) {
+			if (closeSent && outbound.isEmpty()) {
+				terminate(WebSocket.CLOSE_NORMAL, "");
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Keeps bytes that arrived with the handshake until the socket is attached
+	 */
+	public void stash(final ByteBuffer data) {
+	
+		partial = ByteBuffer.allocate(data.remaining());
+		partial.put(data).flip();
+	}
+	
+	/**
+	 * Parses every complete frame in the given bytes. Called on the selector
+	 * thread only.
+	 */
+	@Override
+	public void feed(ByteBuffer data) {
+	
+		if (partial != null) {
+			final ByteBuffer joined = ByteBuffer.allocate(partial.remaining() + data.remaining());
+			joined.put(partial).put(data).flip();
+			partial = null;
+			data = joined;
+		}
+		
+		while(!closed && data.hasRemaining()) {
+			final int start = data.position();
+			if (!readFrame(data)) {
+				data.position(start);
+				break;
+			}
+		}
+		
+		if (!closed && data.hasRemaining()) {
+			partial = ByteBuffer.allocate(data.remaining());
+			partial.put(data).flip();
+		}
+	}
+	
+	/**
+	 * Reads one frame, returns false if it is not complete yet
+	 */
+	private boolean readFrame(final ByteBuffer data) {
+	
+		if (data.remaining() < 2) {
+			return false;
+		}
+		
+		final int b0 = data.get() & 0xFF;
+		final int b1 = data.get() & 0xFF;
+		final boolean fin = (b0 & 0x80) != 0;
+		final int opcode = b0 & 0x0F;
+		final boolean masked = (b1 & 0x80) != 0;
+		long len = b1 & 0x7F;
+		
+		if (len == 126) {
+			if (data.remaining() < 2) {
+				return false;
+			}
+			len = data.getShort() & 0xFFFF;
+		} else if (len == 127) {
+			if (data.remaining() < 8) {
+				return false;
+			}
+			len = data.getLong();
+		}
+		
+		if (!masked) {
+			protocolError(WebSocket.CLOSE_PROTOCOL_ERROR, "Client frames must be masked");
+			return true;
+		}
+		
+		if (len < 0 || len > WebSocket.MAX_MESSAGE_SIZE) {
+			protocolError(WebSocket.CLOSE_TOO_BIG, "Frame too large");
+			return true;
+		}
+		
+		if (data.remaining() < 4 + len) {
+			return false;
+		}
+		
+		final byte[] mask = new byte[4];
+		data.get(mask);
+		
+		final byte[] payload = new byte[(int) len];
+		data.get(payload);
+		for (int i = 0; i < payload.length; i++) {
+			payload[i] ^= mask[i & 3];
+		}
+		
+		onFrame(fin, opcode, payload);
+		return true;
+	}
+	
+	private void onFrame(final boolean fin, final int opcode, final byte[] payload) {
+	
+		switch(opcode) {
+			case OPCODE_PING:
+				sendFrame(WebSocket.OPCODE_PONG, payload);
+				break;
+			case OPCODE_PONG:
+				break;
+			case OPCODE_CLOSE: {
+				int code = WebSocket.CLOSE_NO_STATUS;
+				String reason = "";
+				if (payload.length >= 2) {
+					code = (payload[0] & 0xFF) << 8 | payload[1] & 0xFF;
+					reason = WebSocket.decode(payload, 2, payload.length - 2);
+				}
+				
+				if (!closeSent) {
+					close(code == WebSocket.CLOSE_NO_STATUS ? WebSocket.CLOSE_NORMAL : code, "");
+				}
+				terminate(code, reason);
+			}
+				break;
+			case OPCODE_TEXT:
+			case OPCODE_BINARY:
+				if (fragments != null) {
+					protocolError(WebSocket.CLOSE_PROTOCOL_ERROR, "Expected a continuation frame");
+				} else if (fin) {
+					deliver(opcode, payload);
+				} else {
+					fragmentOpcode = opcode;
+					fragments = new ByteArrayOutputStream(payload.length * 2);
+					fragments.write(payload, 0, payload.length);
+				}
+				break;
+			case OPCODE_CONTINUATION:
+				if (fragments == null) {
+					protocolError(WebSocket.CLOSE_PROTOCOL_ERROR, "Unexpected continuation frame");
+				} else if (fragments.size() + payload.length > WebSocket.MAX_MESSAGE_SIZE) {
+					protocolError(WebSocket.CLOSE_TOO_BIG, "Message too large");
+				} else {
+					fragments.write(payload, 0, payload.length);
+					if (fin) {
+						final byte[] message = fragments.toByteArray();
+						fragments = null;
+						deliver(fragmentOpcode, message);
+					}
+				}
+				break;
+			default:
+				protocolError(WebSocket.CLOSE_PROTOCOL_ERROR, "Unknown opcode " + opcode);
+				break;
+		}
+	}
+	
+	private void deliver(final int opcode, final byte[] payload) {
+	
+		dispatch(new Runnable() {
+			
+			@Override
+			public void run() {
+			
+				if (opcode == WebSocket.OPCODE_TEXT) {
+					handler.onMessage(WebSocket.this, WebSocket.decode(payload, 0, payload.length));
+				} else {
+					handler.onBinary(WebSocket.this, payload);
+				}
+			}
+		});
+	}
+	
+	private void protocolError(final int code, final String reason) {
+	
+		close(code, reason);
+		terminate(code, reason);
+	}
+	
+	/**
+	 * Marks the connection closed and tells the handler. The selector closes
+	 * the channel once the close frame has been written.
+	 */
+	void terminate(final int code, final String reason) {
+	
+		synchronized(this) {
+			if (closed) {
+				return;
+			}
+			closed = true;
+		}
+		
+		partial = null;
+		fragments = null;
+		
+		dispatch(new Runnable() {
+			
+			@Override
+			public void run() {
+			
+				handler.onClose(WebSocket.this, code, reason);
+			}
+		});
+		
+		if (selector != null) {
+			selector.requestFlush(this);
+		}
+	}
+	
+	@Override
+	public boolean isFinished() {
+	
+		return closed && outbound.isEmpty();
+	}
+	
+	@Override
+	public void abort() {
+	
+		terminate(WebSocket.CLOSE_ABNORMAL, "");
+	}
+	
+	/**
+	 * Runs handler callbacks on the worker pool, one at a time per connection
+	 */
+	private void dispatch(final Runnable event) {
+	
+		synchronized(this) {
+			events.add(event);
+			if (dispatching) {
+				return;
+			}
+			dispatching = true;
+		}
+		
+		executor.execute(new Runnable() {
+			
+			@Override
+			public void run() {
+			
+				while(true) {
+					final Runnable next;
+					synchronized(WebSocket.this) {
+						next = events.poll();
+						if (next == null) {
+							dispatching = false;
+							return;
+						}
+					}
+					
+					try {
+						next.run();
+					} catch (final RuntimeException e) {
+						e.printStackTrace();
+					}
+				}
+			}
+		});
+	}
+	
+	private static String decode(final byte[] data, final int offset, final int length) {
+	
+		try {
+			return new String(data, offset, length, "UTF-8");
+		} catch (final UnsupportedEncodingException e) {
+			return "";
+		}
+	}
+}
@@ -27,8 +27,6 @@ import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.OutputStream;
-import java.io.PipedInputStream;
-import java.io.PipedOutputStream;
 import java.nio.ByteBuffer;
 import java.security.DigestInputStream;
 import java.security.DigestOutputStream;
@@ -38,6 +36,12 @@ import java.util.Hashtable;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.Stack;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.zip.Adler32;
 import java.util.zip.CRC32;
 import java.util.zip.CheckedInputStream;
@@ -45,9 +49,12 @@ import java.util.zip.CheckedOutputStream;
 import java.util.zip.Checksum;
 
 import sleep.bridges.io.BufferObject;
+import sleep.bridges.io.ChannelObject;
+import sleep.bridges.io.DataCodec;
 import sleep.bridges.io.DataPattern;
 import sleep.bridges.io.FileObject;
 import sleep.bridges.io.IOObject;
+import sleep.bridges.io.MappedFileObject;
 import sleep.bridges.io.ProcessObject;
 import sleep.bridges.io.SocketObject;
 import sleep.engine.types.ObjectValue;
@@ -55,6 +62,7 @@ import sleep.interfaces.Function;
 import sleep.interfaces.Loadable;
 import sleep.interfaces.Predicate;
 import sleep.runtime.Scalar;
+import sleep.runtime.ScalarArray;
 import sleep.runtime.ScalarHash;
 import sleep.runtime.ScriptEnvironment;
 import sleep.runtime.ScriptInstance;
@@ -87,6 +95,7 @@ public class BasicIO implements Loadable, Function {
 		
 		// functions
 		temp.put("&openf", TaintUtils.Sensitive(new openf()));
+		temp.put("&mmap", TaintUtils.Sensitive(new mmap()));
 		
 		final SocketFuncs f = new SocketFuncs();
 		
@@ -193,6 +202,11 @@ public class BasicIO implements Loadable, Function {
 			while(!l.isEmpty()) {
 				final Scalar b = (Scalar) l.pop();
 				try {
+					// a fork gets a copy of the scalar itself
+					if (a instanceof ChannelObject && n.equals("&writeObject") && ((ChannelObject) a).writeScalar(b)) {
+						continue;
+					}
+					
 					final ObjectOutputStream ois = new ObjectOutputStream(a.getWriter());
 					
 					if (n.equals("&writeAsObject")) {
@@ -200,6 +214,8 @@ public class BasicIO implements Loadable, Function {
 					} else {
 						ois.writeObject(b);
 					}
+					
+					ois.flush();
 				} catch (final Exception ex) {
 					i.getScriptEnvironment().flagError(ex);
 					a.close();
@@ -208,6 +224,14 @@ public class BasicIO implements Loadable, Function {
 		} else if (n.equals("&readObject") || n.equals("&readAsObject")) {
 			final IOObject a = BasicIO.chooseSource(l, 1, i);
 			try {
+				if (a instanceof ChannelObject && n.equals("&readObject")) {
+					final Scalar value = ((ChannelObject) a).readScalar();
+					
+					if (value != null) {
+						return value;
+					}
+				}
+				
 				final ObjectInputStream ois = new ObjectInputStream(a.getReader());
 				
 				if (n.equals("&readAsObject")) {
@@ -345,6 +369,25 @@ public class BasicIO implements Loadable, Function {
 		}
 	}
 	
+	private static class mmap implements Function {
+		
+		/**
+         * 
+         */
+		private static final long serialVersionUID = 2830917164356541095L;
+		
+		@Override
+		public Scalar evaluate(final String n, final ScriptInstance i, final Stack l) {
+		
+			final String a = ((Scalar) l.pop()).toString();
+			
+			final MappedFileObject temp = new MappedFileObject();
+			temp.open(a, i.getScriptEnvironment());
+			
+			return SleepUtils.getScalar(temp);
+		}
+	}
+	
 	private static class exec implements Function {
 		
 		/**
@@ -416,6 +459,82 @@ public class BasicIO implements Loadable, Function {
 		}
 	}
 	
+	/**
+	 * Runs &amp;fork'd scripts. Threads are kept for a few seconds between
+	 * forks, up to sleep.fork.threads of them. Past that each fork gets a
+	 * thread of its own rather than a place in a queue, as forks often wait on
+	 * one another. The threads are daemons, an idle one doesn't keep the VM
+	 * up; see forkStarted for the ones that are running.
+	 */
+	private static final ThreadPoolExecutor forks = new ThreadPoolExecutor(0, Integer.getInteger("sleep.fork.threads", 64), 5, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(), new ThreadFactory() {
+		
+		private final AtomicInteger count = new AtomicInteger();
+		
+		@Override
+		public Thread newThread(final Runnable r) {
+		
+			final Thread thread = new Thread(r, "sleep-fork-" + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}, new RejectedExecutionHandler() {
+		
+		@Override
+		public void rejectedExecution(final Runnable r, final ThreadPoolExecutor executor) {
+		
+			final Thread thread = new Thread(r, "sleep-fork");
+			thread.setDaemon(true);
+			thread.start();
+		}
+	});
+	
+	/** how many forks are running, guarded by forksLock */
+	private static int forksRunning = 0;
+	
+	private static final Object forksLock = new Object();
+	
+	/**
+	 * counts a fork as running. While any are, a thread that isn't a daemon
+	 * waits for them, so the VM stays up until they're done as it would with
+	 * a thread per fork.
+	 */
+	private static void forkStarted() {
+	
+		synchronized(BasicIO.forksLock) {
+			if (BasicIO.forksRunning++ > 0) {
+				return;
+			}
+		}
+		
+		final Thread keeper = new Thread(new Runnable() {
+			
+			@Override
+			public void run() {
+			
+				synchronized(BasicIO.forksLock) {
+					while(BasicIO.forksRunning > 0) {
+						try {
+							BasicIO.forksLock.wait();
+						} catch (final InterruptedException ex) {
+							return;
+						}
+					}
+				}
+			}
+		}, "sleep-fork-wait");
+		keeper.setDaemon(false);
+		keeper.start();
+	}
+	
+	private static void forkFinished() {
+	
+		synchronized(BasicIO.forksLock) {
+			if (--BasicIO.forksRunning == 0) {
+				BasicIO.forksLock.notifyAll();
+			}
+		}
+	}
+	
 	private static class fork implements Function {
 		
 		/**
@@ -439,36 +558,39 @@ public class BasicIO implements Loadable, Function {
 				vars.putScalar(kvp.getKey().toString(), SleepUtils.getScalar(kvp.getValue()));
 			}
 			
-			// create a pipe between these two items...
-			final IOObject parent_io = new IOObject();
-			final IOObject child_io = new IOObject();
+			// connect the fork to this script...
+			final ChannelObject[] channel = ChannelObject.pair();
+			final ChannelObject parent_io = channel[0];
+			final ChannelObject child_io = channel[1];
+			
+			child.getScriptVariables().putScalar("$source", SleepUtils.getScalar(child_io));
+			child.setParent(parent_io);
+			
+			final String name = "fork of " + child.getRunnableBlock().getSourceLocation();
+			
+			BasicIO.forkStarted();
 			
 			try {
-				final PipedInputStream parent_in = new PipedInputStream();
-				final PipedOutputStream parent_out = new PipedOutputStream();
-				parent_in.connect(parent_out);
-				
-				final PipedInputStream child_in = new PipedInputStream();
-				final PipedOutputStream child_out = new PipedOutputStream();
-				child_in.connect(child_out);
-				
-				parent_io.openRead(child_in);
-				parent_io.openWrite(parent_out);
-				
-				child_io.openRead(parent_in);
-				child_io.openWrite(child_out);
-				
-				child.getScriptVariables().putScalar("$source", SleepUtils.getScalar(child_io));
-				
-				final Thread temp = new Thread(child, "fork of " + child.getRunnableBlock().getSourceLocation());
-				
-				parent_io.setThread(temp);
-				child_io.setThread(temp);
-				
-				child.setParent(parent_io);
-				
-				temp.start();
+				BasicIO.forks.execute(new Runnable() {
+					
+					@Override
+					public void run() {
+					
+						final Thread thread = Thread.currentThread();
+						final String pooled = thread.getName();
+						thread.setName(name);
+						
+						try {
+							child.run();
+						} finally {
+							parent_io.finish();
+							thread.setName(pooled);
+							BasicIO.forkFinished();
+						}
+					}
+				});
 			} catch (final Exception ex) {
+				BasicIO.forkFinished();
 				i.getScriptEnvironment().flagError(ex);
 			}
 			
@@ -577,6 +699,15 @@ public class BasicIO implements Loadable, Function {
 		
 			final IOObject a = BasicIO.chooseSource(l, 1, i);
 			
+			// a mapped file's lines are left in the file until they're used
+			if (a instanceof MappedFileObject) {
+				final ScalarArray lines = ((MappedFileObject) a).readLines();
+				
+				if (lines != null) {
+					return SleepUtils.getArrayScalar(lines);
+				}
+			}
+			
 			final Scalar ar = SleepUtils.getArrayScalar();
 			
 			String temp;
@@ -715,11 +846,7 @@ public class BasicIO implements Loadable, Function {
 			buffer.order(pattern.order);
 			
 			if (pattern.value == 'M') {
-				if (pattern.count == 1) {
-					pattern.count = 1024 * 10; // 10K worth of data :)
-				}
-				
-				in.mark(pattern.count);
+				in.mark(pattern.count == 1 ? 1024 * 10 : pattern.count); // 10K worth of data :)
 			} else if (pattern.value == 'x') {
 				try {
 					in.skip(pattern.count);
@@ -1257,6 +1384,11 @@ public class BasicIO implements Loadable, Function {
 			final String data = BridgeUtilities.getString(l, "");
 			
 			try {
+				final DataPattern format = DataPattern.Parse(pattern);
+				if (DataCodec.isSupported(format)) {
+					return DataCodec.unpack(format, data, i.getScriptEnvironment());
+				}
+				
 				final ByteArrayOutputStream out = new ByteArrayOutputStream(data.length());
 				final DataOutputStream toBytes = new DataOutputStream(out);
 				toBytes.writeBytes(data);
@@ -1280,6 +1412,11 @@ public class BasicIO implements Loadable, Function {
 		
 			final String pattern = BridgeUtilities.getString(l, "");
 			
+			final DataPattern format = DataPattern.Parse(pattern);
+			if (DataCodec.isSupported(format)) {
+				return DataCodec.pack(format, l);
+			}
+			
 			final ByteArrayOutputStream temp = new ByteArrayOutputStream(DataPattern.EstimateSize(pattern) + 128);
 			
 			BasicIO.WriteFormatted(pattern, new DataOutputStream(temp), i.getScriptEnvironment(), l, null);
@@ -21,6 +21,7 @@ import java.util.Comparator;
 import java.util.Hashtable;
 import java.util.Stack;
 
+import sleep.engine.types.StringValue;
 import sleep.interfaces.Function;
 import sleep.interfaces.Loadable;
 import sleep.interfaces.Operator;
@@ -269,6 +270,12 @@ public class BasicStrings implements Loadable, Predicate {
          */
 		private static final long serialVersionUID = 594755995110155926L;
 		
+		/** the most patterns kept compiled */
+		private static final int MAXIMUM = 256;
+		
+		/** compiled patterns by options, the length of the pattern, then pattern and mapper */
+		private static final BoundedCache<String, Transliteration> compiled = new BoundedCache<String, Transliteration>(func_tr.MAXIMUM);
+		
 		@Override
 		public Scalar evaluate(final String n, final ScriptInstance i, final Stack l) {
 		
@@ -289,7 +296,13 @@ public class BasicStrings implements Loadable, Predicate {
 				options = options | Transliteration.OPTION_SQUEEZE;
 			}
 			
-			final Transliteration temp = Transliteration.compile(pattern, mapper, options);
+			final String key = options + ":" + pattern.length() + ":" + pattern + mapper;
+			
+			Transliteration temp = func_tr.compiled.get(key);
+			if (temp == null) {
+				temp = Transliteration.compile(pattern, mapper, options);
+				func_tr.compiled.put(key, temp);
+			}
 			
 			return SleepUtils.getScalar(temp.translate(old));
 		}
@@ -640,6 +653,15 @@ public class BasicStrings implements Loadable, Predicate {
 			final Scalar right = (Scalar) l.pop();
 			
 			if (o.equals(".")) {
+				final ScalarType value = left.getActualValue();
+				
+				// a string being built up, add to its buffer rather than copying it
+				if (value != null && value.getType() == StringValue.class) {
+					final Scalar temp = new Scalar();
+					temp.setValue(((StringValue) value).append(right.toString()));
+					return temp;
+				}
+				
 				return SleepUtils.getScalar(left.toString() + right.toString());
 			}
 			
@@ -0,0 +1,164 @@
+/* 
+ * Copyright (C) 2002-2012 Raphael Mudge (rsmudge@gmail.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of 
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package sleep.bridges;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A cache of things compiled from their key, like regex patterns, kept to a
+ * maximum number of entries. Lookups don't lock. Once the cache is full an
+ * eighth of it is evicted in one go: the least frequently used entries, ties
+ * going to the least recently used. Use counts are halved each time as many
+ * entries as the cache holds have been evicted, so old popularity fades. A
+ * stream of one-off keys pushes out other one-off keys, not the ones in use
+ * all the time.
+ * 
+ * @see sleep.runtime.BlockCache
+ */
+public class BoundedCache<K, V> {
+	
+	private static final class Node<V> {
+		
+		final V value;
+		
+		volatile long used = System.nanoTime();
+		
+		/** gets, halved now and then. racy but only a hint */
+		volatile int frequency = 0;
+		
+		Node(final V value) {
+		
+			this.value = value;
+		}
+	}
+	
+	private static final int MAX_FREQUENCY = 255;
+	
+	private final ConcurrentHashMap<K, Node<V>> entries = new ConcurrentHashMap<K, Node<V>>();
+	
+	private final int maximum;
+	
+	private final Object evicting = new Object();
+	
+	/** entries evicted since the use counts were last halved */
+	private int sinceAging = 0;
+	
+	public BoundedCache(final int maximum) {
+	
+		if (maximum <= 0) {
+			throw new IllegalArgumentException("cache size must be positive: " + maximum);
+		}
+		
+		this.maximum = maximum;
+	}
+	
+	/** returns the value for key, null if it isn't cached. Counts as a use */
+	public V get(final K key) {
+	
+		final Node<V> node = entries.get(key);
+		if (node == null) {
+			return null;
+		}
+		
+		node.used = System.nanoTime();
+		if (node.frequency < BoundedCache.MAX_FREQUENCY) {
+			node.frequency++;
+		}
+		return node.value;
+	}
+	
+	/** caches value for key, evicting the least used entries if it is full */
+	public void put(final K key, final V value) {
+	
+		entries.put(key, new Node<V>(value));
+		
+		if (entries.size() > maximum) {
+			evict();
+		}
+	}
+	
+	/** returns the number of entries cached */
+	public int size() {
+	
+		return entries.size();
+	}
+	
+	/** drops every entry */
+	public void clear() {
+	
+		entries.clear();
+	}
+	
+	/** drops the least used entries until the cache is 7/8 full */
+	private void evict() {
+	
+		synchronized(evicting) {
+			final int target = maximum - maximum / 8;
+			if (entries.size() <= maximum) {
+				return;
+			}
+			
+			@SuppressWarnings("unchecked")
+			final Map.Entry<K, Node<V>>[] all = entries.entrySet().toArray(new Map.Entry[0]);
+			final int[] frequency = new int[all.length];
+			final long[] used = new long[all.length];
+			final Integer[] order = new Integer[all.length];
+			for (int x = 0; x < all.length; x++) {
+				final Node<V> node = all[x].getValue();
+				frequency[x] = node.frequency;
+				used[x] = node.used;
+				order[x] = x;
+			}
+			
+			if (sinceAging >= maximum) {
+				for (final Map.Entry<K, Node<V>> e : all) {
+					e.getValue().frequency /= 2;
+				}
+				sinceAging = 0;
+			}
+			
+			/* sort on a snapshot, the counts keep changing underneath us */
+			Arrays.sort(order, new Comparator<Integer>() {
+				
+				@Override
+				public int compare(final Integer a, final Integer b) {
+				
+					final int x = a.intValue();
+					final int y = b.intValue();
+					return frequency[x] != frequency[y] ? frequency[x] - frequency[y] : Long.compare(used[x], used[y]);
+				}
+			});
+			
+			for (int x = 0; x < order.length && entries.size() > target; x++) {
+				final Map.Entry<K, Node<V>> e = all[order[x].intValue()];
+				if (entries.remove(e.getKey(), e.getValue())) {
+					sinceAging++;
+				}
+			}
+		}
+	}
+	
+	@Override
+	public String toString() {
+	
+		return "BoundedCache[size=" + size() + ", maximum=" + maximum + "]";
+	}
+}
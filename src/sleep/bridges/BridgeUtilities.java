@@ -379,6 +379,15 @@ public class BridgeUtilities {
 		return toValue;
 	}
 	
+	/** $1 .. $16, so most calls don't build their argument names */
+	private static final String[] argumentNames = new String[17];
+	
+	static {
+		for (int x = 1; x < BridgeUtilities.argumentNames.length; x++) {
+			BridgeUtilities.argumentNames[x] = "$" + x;
+		}
+	}
+	
 	/** initializes local scope based on argument stack */
 	public static int initLocalScope(final ScriptVariables vars, final Variable localLevel, final Stack locals) {
 	
@@ -399,7 +408,7 @@ public class BridgeUtilities {
 				}
 			} else {
 				args.getArray().push(lvar);
-				vars.setScalarLevel("$" + name, lvar, localLevel);
+				vars.setScalarLevel(name < BridgeUtilities.argumentNames.length ? BridgeUtilities.argumentNames[name] : "$" + name, lvar, localLevel);
 				name++;
 			}
 		}
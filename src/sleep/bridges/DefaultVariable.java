@@ -60,7 +60,7 @@ public class DefaultVariable implements Variable, Loadable {
 	@Override
 	public Variable createLocalVariableContainer() {
 	
-		return new DefaultVariable();
+		return new LocalVariable();
 	}
 	
 	@Override
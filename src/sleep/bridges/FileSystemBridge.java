@@ -18,8 +18,16 @@
 package sleep.bridges;
 
 import java.io.File;
+import java.io.IOException;
+import java.lang.ref.Cleaner;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Hashtable;
-import java.util.LinkedList;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Stack;
 
 import sleep.interfaces.Function;
@@ -70,6 +78,7 @@ public class FileSystemBridge implements Loadable, Function, Predicate {
 		temp.put("&lof", new lof());
 		temp.put("&ls", new listFiles());
 		temp.put("&listRoots", temp.get("&ls"));
+		temp.put("&lsIterator", new lsIterator());
 		temp.put("&mkdir", this);
 		temp.put("&rename", this);
 		temp.put("&setLastModified", this);
@@ -226,7 +235,7 @@ public class FileSystemBridge implements Loadable, Function, Predicate {
 				files = a.listFiles();
 			}
 			
-			final LinkedList temp = new LinkedList();
+			final List temp = new ArrayList(files == null ? 0 : files.length);
 			
 			if (files != null) {
 				for (final File file : files) {
@@ -238,6 +247,91 @@ public class FileSystemBridge implements Loadable, Function, Predicate {
 		}
 	}
 	
+	private static class lsIterator implements Function {
+		
+		/**
+         * 
+         */
+		private static final long serialVersionUID = 5530461986911329785L;
+		
+		@Override
+		public Scalar evaluate(final String n, final ScriptInstance i, final Stack l) {
+		
+			final File a = BridgeUtilities.getFile(l, i);
+			
+			try {
+				return SleepUtils.getScalar(new DirectoryIterator(Files.newDirectoryStream(a.toPath())));
+			} catch (final Exception ex) {
+				i.getScriptEnvironment().flagError(ex);
+				return SleepUtils.getScalar(Collections.emptyIterator());
+			}
+		}
+	}
+	
+	/**
+	 * the files in a directory as the directory is read, for foreach over
+	 * &amp;lsIterator. Unlike &amp;ls nothing is held but the entry at hand.
+	 * The directory is closed after the last entry, or once the iterator is
+	 * garbage if the script stops early.
+	 */
+	private static final class DirectoryIterator implements Iterator {
+		
+		private static final Cleaner CLEANER = Cleaner.create();
+		
+		private final Iterator<Path> entries;
+		
+		private final Cleaner.Cleanable cleanable;
+		
+		DirectoryIterator(final DirectoryStream<Path> stream) {
+		
+			entries = stream.iterator();
+			cleanable = DirectoryIterator.CLEANER.register(this, new Closer(stream));
+		}
+		
+		@Override
+		public boolean hasNext() {
+		
+			if (entries.hasNext()) {
+				return true;
+			}
+			
+			cleanable.clean();
+			return false;
+		}
+		
+		@Override
+		public Object next() {
+		
+			return entries.next().toAbsolutePath().toString();
+		}
+		
+		@Override
+		public void remove() {
+		
+			throw new RuntimeException("iterator is read-only");
+		}
+	}
+	
+	/** closes a directory stream, kept apart from the iterator so the iterator can be collected */
+	private static final class Closer implements Runnable {
+		
+		private final DirectoryStream<Path> stream;
+		
+		Closer(final DirectoryStream<Path> stream) {
+		
+			this.stream = stream;
+		}
+		
+		@Override
+		public void run() {
+		
+			try {
+				stream.close();
+			} catch (final IOException ex) {
+			}
+		}
+	}
+	
 	@Override
 	public boolean decide(final String n, final ScriptInstance i, final Stack l) {
 	
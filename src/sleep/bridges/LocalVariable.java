@@ -0,0 +1,139 @@
+/* 
+ * Copyright (C) 2002-2012 Raphael Mudge (rsmudge@gmail.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of 
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package sleep.bridges;
+
+import java.util.Arrays;
+
+import sleep.interfaces.Variable;
+import sleep.runtime.Scalar;
+
+/**
+ * <p>
+ * The container DefaultVariable hands out for local scopes. A local scope
+ * lives for one call and holds a handful of names ($0, the arguments, @_ and
+ * whatever the sub declares with &amp;local), so rather than a Hashtable it
+ * keeps the names and values side by side in two arrays and looks a name up
+ * by scanning them.
+ * </p>
+ * 
+ * <p>
+ * Every call of a sub fills its scope in the same order, so a variable tends
+ * to land in the same slot each time. Callers that remember where they found
+ * a name can pass that slot to {@link #slotOf(String, int)} and skip the scan
+ * when it is still right.
+ * </p>
+ */
+public class LocalVariable implements Variable {
+	
+	/**
+     * 
+     */
+	private static final long serialVersionUID = 1894519218702359862L;
+	
+	protected String[] names = new String[8];
+	
+	protected Scalar[] values = new Scalar[8];
+	
+	protected int count = 0;
+	
+	/**
+	 * returns the slot holding the named variable, or -1 if there isn't one.
+	 * The hint is checked first.
+	 */
+	public int slotOf(final String key, final int hint) {
+	
+		if (hint >= 0 && hint < count && (names[hint] == key || names[hint].equals(key))) {
+			return hint;
+		}
+		
+		for (int x = 0; x < count; x++) {
+			if (names[x] == key || names[x].equals(key)) {
+				return x;
+			}
+		}
+		
+		return -1;
+	}
+	
+	/** returns the value in a slot found with slotOf */
+	public Scalar getSlot(final int slot) {
+	
+		return values[slot];
+	}
+	
+	@Override
+	public boolean scalarExists(final String key) {
+	
+		return slotOf(key, -1) >= 0;
+	}
+	
+	@Override
+	public Scalar getScalar(final String key) {
+	
+		final int slot = slotOf(key, -1);
+		return slot >= 0 ? values[slot] : null;
+	}
+	
+	@Override
+	public Scalar putScalar(final String key, final Scalar value) {
+	
+		final int slot = slotOf(key, -1);
+		if (slot >= 0) {
+			final Scalar old = values[slot];
+			values[slot] = value;
+			return old;
+		}
+		
+		if (count == names.length) {
+			names = Arrays.copyOf(names, count * 2);
+			values = Arrays.copyOf(values, count * 2);
+		}
+		
+		names[count] = key;
+		values[count] = value;
+		count++;
+		return null;
+	}
+	
+	@Override
+	public void removeScalar(final String key) {
+	
+		final int slot = slotOf(key, -1);
+		if (slot < 0) {
+			return;
+		}
+		
+		count--;
+		System.arraycopy(names, slot + 1, names, slot, count - slot);
+		System.arraycopy(values, slot + 1, values, slot, count - slot);
+		names[count] = null;
+		values[count] = null;
+	}
+	
+	@Override
+	public Variable createLocalVariableContainer() {
+	
+		return new LocalVariable();
+	}
+	
+	@Override
+	public Variable createInternalVariableContainer() {
+	
+		return new DefaultVariable();
+	}
+}
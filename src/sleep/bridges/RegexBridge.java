@@ -17,7 +17,6 @@
  */
 package sleep.bridges;
 
-import java.util.Collections;
 import java.util.Hashtable;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
@@ -26,6 +25,7 @@ import java.util.Stack;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import sleep.engine.types.PatternValue;
 import sleep.interfaces.Function;
 import sleep.interfaces.Loadable;
 import sleep.interfaces.Predicate;
@@ -39,7 +39,11 @@ import sleep.taint.TaintUtils;
 /** Provides a bridge between Java's regex API and sleep. Rock on */
 public class RegexBridge implements Loadable {
 	
-	private static Map patternCache = Collections.synchronizedMap(new Cache(128));
+	/** the most patterns kept compiled, -Dsleep.regex.cache */
+	private static final int PATTERN_MAXIMUM = Integer.getInteger("sleep.regex.cache", 512).intValue();
+	
+	/** patterns compiled at runtime */
+	private static final BoundedCache<String, Pattern> patternCache = new BoundedCache<String, Pattern>(RegexBridge.PATTERN_MAXIMUM);
 	
 	private static class Cache extends LinkedHashMap {
 		
@@ -70,16 +74,31 @@ public class RegexBridge implements Loadable {
 	
 	private static Pattern getPattern(final String pattern) {
 	
-		Pattern temp = (Pattern) RegexBridge.patternCache.get(pattern);
+		Pattern temp = RegexBridge.patternCache.get(pattern);
 		
 		if (temp != null) {
-			return temp;
-		} else {
-			temp = Pattern.compile(pattern);
-			RegexBridge.patternCache.put(pattern, temp);
-			
 			return temp;
 		}
+		
+		temp = Pattern.compile(pattern);
+		RegexBridge.patternCache.put(pattern, temp);
+		return temp;
+	}
+	
+	/** the pattern in value, compiled by the parser if it was a literal */
+	private static Pattern getPattern(final Scalar value) {
+	
+		if (value.getActualValue() instanceof PatternValue) {
+			return ((PatternValue) value.getActualValue()).getPattern();
+		}
+		
+		return RegexBridge.getPattern(value.toString());
+	}
+	
+	/** pops the pattern argument, the empty pattern if there is none */
+	private static Pattern popPattern(final Stack l) {
+	
+		return l.isEmpty() ? RegexBridge.getPattern("") : RegexBridge.getPattern((Scalar) l.pop());
 	}
 	
 	@Override
@@ -118,9 +137,7 @@ public class RegexBridge implements Loadable {
 		public Scalar evaluate(final String n, final ScriptInstance i, final Stack l) {
 		
 			final String string = BridgeUtilities.getString(l, "");
-			final String patterns = BridgeUtilities.getString(l, "");
-			
-			final Pattern pattern = RegexBridge.getPattern(patterns);
+			final Pattern pattern = RegexBridge.popPattern(l);
 			final Matcher matchit = pattern.matcher(string);
 			final int start = BridgeUtilities.normalize(BridgeUtilities.getInt(l, 0), string.length());
 			
@@ -190,7 +207,7 @@ public class RegexBridge implements Loadable {
 			final Scalar bb = (Scalar) l.pop(); // PATTERN
 			final Scalar aa = (Scalar) l.pop(); // TEXT TO MATCH AGAINST
 			
-			final Pattern pattern = RegexBridge.getPattern(bb.toString());
+			final Pattern pattern = RegexBridge.getPattern(bb);
 			
 			Scalar container = null;
 			Matcher matcher = null;
@@ -259,11 +276,10 @@ public class RegexBridge implements Loadable {
 		public Scalar evaluate(final String n, final ScriptInstance i, final Stack l) {
 		
 			final String a = ((Scalar) l.pop()).toString();
-			final String b = ((Scalar) l.pop()).toString();
+			final Pattern pattern = RegexBridge.getPattern((Scalar) l.pop());
 			final int c = BridgeUtilities.getInt(l, -1);
 			final int d = BridgeUtilities.getInt(l, c);
 			
-			final Pattern pattern = RegexBridge.getPattern(b);
 			final Matcher matcher = pattern.matcher(a);
 			
 			Scalar value = SleepUtils.getArrayScalar();
@@ -302,11 +318,9 @@ public class RegexBridge implements Loadable {
 		@Override
 		public Scalar evaluate(final String n, final ScriptInstance i, final Stack l) {
 		
-			final String a = ((Scalar) l.pop()).toString();
+			final Pattern pattern = RegexBridge.getPattern((Scalar) l.pop());
 			final String b = ((Scalar) l.pop()).toString();
 			
-			final Pattern pattern = RegexBridge.getPattern(a);
-			
 			final String results[] = l.isEmpty() ? pattern.split(b) : pattern.split(b, BridgeUtilities.getInt(l, 0));
 			
 			final Scalar array = SleepUtils.getArrayScalar();
@@ -358,13 +372,12 @@ public class RegexBridge implements Loadable {
 		public Scalar evaluate(final String n, final ScriptInstance script, final Stack l) {
 		
 			final String a = BridgeUtilities.getString(l, ""); // current
-			final String b = BridgeUtilities.getString(l, ""); // old
+			final Pattern pattern = RegexBridge.popPattern(l); // old
 			final String c = BridgeUtilities.getString(l, ""); // new
 			final int d = BridgeUtilities.getInt(l, -1);
 			
 			final StringBuffer rv = new StringBuffer();
 			
-			final Pattern pattern = RegexBridge.getPattern(b);
 			final Matcher matcher = pattern.matcher(a);
 			
 			int matches = 0;
@@ -20,8 +20,24 @@ package sleep.bridges;
 import java.text.FieldPosition;
 import java.text.ParsePosition;
 import java.text.SimpleDateFormat;
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeFormatterBuilder;
+import java.time.format.ResolverStyle;
+import java.time.temporal.ChronoField;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Set;
 import java.util.Stack;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
 
 import sleep.interfaces.Function;
 import sleep.interfaces.Loadable;
@@ -29,8 +45,309 @@ import sleep.runtime.Scalar;
 import sleep.runtime.ScriptInstance;
 import sleep.runtime.SleepUtils;
 
+/**
+ * Provides &amp;ticks, &amp;formatDate and &amp;parseDate. Date patterns use
+ * the SimpleDateFormat syntax. Each pattern is set up once and cached: the
+ * parts a java.time DateTimeFormatter does exactly as SimpleDateFormat would
+ * go through the formatter, which is immutable and shared by every thread,
+ * everything else through a copy of a SimpleDateFormat made for the pattern.
+ * The time zone and locale are the defaults when a pattern is first used.
+ */
 public class TimeDateBridge implements Loadable {
 	
+	/** the most date patterns kept, -Dsleep.date.cache */
+	private static final int PATTERN_MAXIMUM = Integer.getInteger("sleep.date.cache", 256).intValue();
+	
+	/** the HTTP and ISO-8601 patterns, set up when the class loads and never dropped */
+	private static final Set<String> COMMON = Collections.unmodifiableSet(new HashSet<String>(Arrays.asList("EEE, dd MMM yyyy HH:mm:ss zzz", "EEE, dd MMM yyyy HH:mm:ss Z", "EEE, d MMM yyyy HH:mm:ss Z", "yyyy-MM-dd", "yyyy-MM-dd HH:mm:ss", "yyyy-MM-dd'T'HH:mm:ss", "yyyy-MM-dd'T'HH:mm:ssZ", "yyyy-MM-dd'T'HH:mm:ss.SSSZ", "yyyy-MM-dd'T'HH:mm:ssXXX", "yyyy-MM-dd'T'HH:mm:ss.SSSXXX", "HH:mm:ss", "MM/dd/yyyy")));
+	
+	/**
+	 * patterns in use. Lookups don't lock; once the cache is full an eighth of
+	 * it is dropped, whichever entries the iterator gets to first
+	 */
+	private static final ConcurrentHashMap<String, DatePattern> patterns = new ConcurrentHashMap<String, DatePattern>();
+	
+	static {
+		for (final String pattern : TimeDateBridge.COMMON) {
+			TimeDateBridge.patterns.put(pattern, new DatePattern(pattern));
+		}
+	}
+	
+	/**
+	 * One date pattern, in the default zone and locale at the time it was made.
+	 * The SimpleDateFormat isn't thread safe, so it is only ever copied. The
+	 * DateTimeFormatter is there when it formats, or parses, a spread of dates
+	 * the same as the SimpleDateFormat.
+	 */
+	private static final class DatePattern {
+		
+		private final TimeZone zone;
+		
+		private final Locale locale;
+		
+		private final SimpleDateFormat prototype;
+		
+		private final DateTimeFormatter formatter;
+		
+		private final boolean formats;
+		
+		private final boolean parses;
+		
+		/** whether the pattern parses an offset, otherwise the time is local */
+		private final boolean offset;
+		
+		DatePattern(final String pattern) {
+		
+			zone = TimeZone.getDefault();
+			locale = Locale.getDefault(Locale.Category.FORMAT);
+			
+			prototype = new SimpleDateFormat(pattern, locale);
+			prototype.setTimeZone(zone);
+			
+			final String letters = TimeDateBridge.letters(pattern);
+			formatter = letters == null ? null : TimeDateBridge.translate(pattern, letters, zone.toZoneId(), locale);
+			
+			offset = letters != null && (letters.indexOf('Z') >= 0 || letters.indexOf('X') >= 0);
+			formats = formatter != null && formatsLikePrototype();
+			
+			// zone names are ambiguous, the two classes don't pick the same zone for all of them
+			parses = formats && letters.indexOf('z') < 0 && parsesLikePrototype();
+		}
+		
+		/** true if the default zone and locale are still the ones this was made in */
+		boolean isCurrent() {
+		
+			return zone.equals(TimeZone.getDefault()) && locale.equals(Locale.getDefault(Locale.Category.FORMAT));
+		}
+		
+		private SimpleDateFormat copy() {
+		
+			return (SimpleDateFormat) prototype.clone();
+		}
+		
+		String format(final long time) {
+		
+			if (formats) {
+				return formatter.format(Instant.ofEpochMilli(time));
+			}
+			
+			return copy().format(new Date(time), new StringBuffer(), new FieldPosition(0)).toString();
+		}
+		
+		/** returns the date in text or null if text isn't one */
+		Date parse(final String text) {
+		
+			if (parses) {
+				try {
+					return new Date(parseStrictly(text));
+				} catch (final DateTimeException ex) {
+					// the formatter is strict, SimpleDateFormat is lenient and gets the last word
+				}
+			}
+			
+			return copy().parse(text, new ParsePosition(0));
+		}
+		
+		/**
+		 * parses text with the formatter. A local time the clocks go through
+		 * twice is taken as the later one, as SimpleDateFormat does.
+		 */
+		private long parseStrictly(final String text) {
+		
+			final ZonedDateTime date = ZonedDateTime.from(formatter.parse(text, new ParsePosition(0)));
+			return (offset ? date : date.withLaterOffsetAtOverlap()).toInstant().toEpochMilli();
+		}
+		
+		private boolean formatsLikePrototype() {
+		
+			try {
+				for (final long sample : TimeDateBridge.samples(zone.toZoneId())) {
+					if (!formatter.format(Instant.ofEpochMilli(sample)).equals(copy().format(new Date(sample)))) {
+						return false;
+					}
+				}
+				return true;
+			} catch (final DateTimeException ex) {
+				return false;
+			}
+		}
+		
+		private boolean parsesLikePrototype() {
+		
+			try {
+				for (final long sample : TimeDateBridge.samples(zone.toZoneId())) {
+					final String text = copy().format(new Date(sample));
+					final Date expected = copy().parse(text, new ParsePosition(0));
+					
+					if (expected != null && expected.getTime() != parseStrictly(text)) {
+						return false;
+					}
+				}
+				return true;
+			} catch (final DateTimeException ex) {
+				return false;
+			}
+		}
+	}
+	
+	/**
+	 * a dozen times to compare the two formats with, one in each month, with
+	 * hours either side of noon and one and two digit fields
+	 */
+	private static long[] samples(final ZoneId zone) {
+	
+		final long[] samples = new long[12];
+		
+		for (int m = 0; m < 12; m++) {
+			samples[m] = ZonedDateTime.of(1990 + m * 3, m + 1, 1 + m * 2, m * 2, m * 5, m * 4, m * 83000000, zone).toInstant().toEpochMilli();
+		}
+		
+		return samples;
+	}
+	
+	/**
+	 * returns the pattern letters in pattern, or null if it uses a letter, or
+	 * a letter count, that means something else to a DateTimeFormatter
+	 */
+	private static String letters(final String pattern) {
+	
+		final StringBuilder letters = new StringBuilder();
+		boolean quoted = false;
+		
+		int x = 0;
+		while(x < pattern.length()) {
+			final char c = pattern.charAt(x);
+			
+			int count = 1;
+			while(x + count < pattern.length() && pattern.charAt(x + count) == c) {
+				count++;
+			}
+			
+			if (c == '\'') {
+				quoted = !quoted;
+				count = 1;
+			} else if (quoted) {
+				count = 1;
+			} else if (c == '[' || c == ']' || c == '{' || c == '}' || c == '#') {
+				return null; // optional sections and reserved characters to a DateTimeFormatter
+			} else if (c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z') {
+				if (!TimeDateBridge.isTranslatable(c, count)) {
+					return null;
+				}
+				letters.append(c);
+			}
+			
+			x += count;
+		}
+		
+		return letters.toString();
+	}
+	
+	private static boolean isTranslatable(final char letter, final int count) {
+	
+		switch (letter) {
+			case 'a':
+				return count == 1;
+			case 'y':
+				return count == 1 || count == 2 || count == 4;
+			case 'S':
+				return count == 3; // milliseconds to one, a fraction of a second to the other
+			case 'd':
+			case 'H':
+			case 'h':
+			case 'k':
+			case 'K':
+			case 'm':
+			case 's':
+				return count <= 2;
+			case 'G':
+			case 'D':
+			case 'Z':
+			case 'X':
+				return count <= 3;
+			case 'M':
+			case 'E':
+			case 'z':
+				return count <= 4; // five letters is the narrow form to a DateTimeFormatter
+			default:
+				return false;
+		}
+	}
+	
+	/**
+	 * a strict formatter for pattern in zone and locale. Fields the pattern
+	 * leaves out are parsed as SimpleDateFormat does, as the start of 1970.
+	 */
+	private static DateTimeFormatter translate(final String pattern, final String letters, final ZoneId zone, final Locale locale) {
+	
+		try {
+			final DateTimeFormatterBuilder builder = new DateTimeFormatterBuilder().appendPattern(pattern);
+			
+			if (letters.indexOf('G') < 0) {
+				builder.parseDefaulting(ChronoField.ERA, 1);
+			}
+			if (letters.indexOf('y') < 0) {
+				builder.parseDefaulting(ChronoField.YEAR_OF_ERA, 1970);
+			}
+			if (letters.indexOf('M') < 0 && letters.indexOf('D') < 0) {
+				builder.parseDefaulting(ChronoField.MONTH_OF_YEAR, 1);
+			}
+			if (letters.indexOf('d') < 0 && letters.indexOf('D') < 0) {
+				builder.parseDefaulting(ChronoField.DAY_OF_MONTH, 1);
+			}
+			if (letters.indexOf('h') >= 0 || letters.indexOf('K') >= 0) {
+				if (letters.indexOf('a') < 0) {
+					builder.parseDefaulting(ChronoField.AMPM_OF_DAY, 0);
+				}
+			} else if (letters.indexOf('H') < 0 && letters.indexOf('k') < 0) {
+				builder.parseDefaulting(ChronoField.HOUR_OF_DAY, 0);
+			}
+			if (letters.indexOf('m') < 0) {
+				builder.parseDefaulting(ChronoField.MINUTE_OF_HOUR, 0);
+			}
+			if (letters.indexOf('s') < 0) {
+				builder.parseDefaulting(ChronoField.SECOND_OF_MINUTE, 0);
+			}
+			if (letters.indexOf('S') < 0) {
+				builder.parseDefaulting(ChronoField.NANO_OF_SECOND, 0);
+			}
+			
+			return builder.toFormatter(locale).withResolverStyle(ResolverStyle.STRICT).withZone(zone);
+		} catch (final IllegalArgumentException ex) {
+			return null;
+		}
+	}
+	
+	/**
+	 * returns the cached form of pattern, throws IllegalArgumentException for a
+	 * bad pattern. A pattern made before the default zone or locale changed is
+	 * made again.
+	 */
+	private static DatePattern getPattern(final String pattern) {
+	
+		DatePattern temp = TimeDateBridge.patterns.get(pattern);
+		
+		if (temp != null && temp.isCurrent()) {
+			return temp;
+		}
+		
+		temp = new DatePattern(pattern);
+		
+		if (TimeDateBridge.patterns.size() >= TimeDateBridge.PATTERN_MAXIMUM + TimeDateBridge.COMMON.size()) {
+			int drop = Math.max(1, TimeDateBridge.PATTERN_MAXIMUM / 8);
+			final Iterator<String> i = TimeDateBridge.patterns.keySet().iterator();
+			while(drop > 0 && i.hasNext()) {
+				if (!TimeDateBridge.COMMON.contains(i.next())) {
+					i.remove();
+					drop--;
+				}
+			}
+		}
+		
+		TimeDateBridge.patterns.put(pattern, temp);
+		return temp;
+	}
+	
 	@Override
 	public void scriptLoaded(final ScriptInstance script) {
 	
@@ -63,10 +380,7 @@ public class TimeDateBridge implements Loadable {
 			
 			final String b = locals.pop().toString();
 			
-			final SimpleDateFormat format = new SimpleDateFormat(b);
-			final Date adate = new Date(a);
-			
-			return SleepUtils.getScalar(format.format(adate, new StringBuffer(), new FieldPosition(0)).toString());
+			return SleepUtils.getScalar(TimeDateBridge.getPattern(b).format(a));
 		}
 	}
 	
@@ -83,8 +397,7 @@ public class TimeDateBridge implements Loadable {
 			final String a = locals.pop().toString();
 			final String b = locals.pop().toString();
 			
-			final SimpleDateFormat format = new SimpleDateFormat(a);
-			final Date pdate = format.parse(b, new ParsePosition(0));
+			final Date pdate = TimeDateBridge.getPattern(a).parse(b);
 			
 			return SleepUtils.getScalar(pdate.getTime());
 		}
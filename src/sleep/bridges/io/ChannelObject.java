@@ -0,0 +1,547 @@
+/* 
+ * Copyright (C) 2002-2012 Raphael Mudge (rsmudge@gmail.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of 
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package sleep.bridges.io;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import sleep.engine.types.DoubleValue;
+import sleep.engine.types.HashContainer;
+import sleep.engine.types.IntValue;
+import sleep.engine.types.ListContainer;
+import sleep.engine.types.LongValue;
+import sleep.engine.types.NullValue;
+import sleep.engine.types.PatternValue;
+import sleep.engine.types.StringValue;
+import sleep.runtime.Scalar;
+import sleep.runtime.ScalarArray;
+import sleep.runtime.ScriptEnvironment;
+import sleep.runtime.SleepUtils;
+
+/**
+ * <p>
+ * One end of the connection between a script and a script it &amp;fork'd. Each
+ * direction is a bounded ring that one side fills and the other drains. The
+ * two sides never lock each other out and a side only sleeps when the ring is
+ * empty (reading) or full (writing). Threads on the same side, a script and
+ * the thread &amp;read started for it say, take turns.
+ * </p>
+ * 
+ * <p>
+ * Text and binary writes go into the ring as chunks of bytes, one chunk per
+ * flush. &amp;writeObject puts a copy of the scalar itself into the ring
+ * when it holds nothing but numbers, strings and plain arrays and hashes of
+ * them, and &amp;readObject takes it back out; anything else is serialized
+ * into bytes as with any other handle. A scalar read as bytes is serialized
+ * then, so a side that mixes the two sees what a pipe would have given it.
+ * </p>
+ * 
+ * <p>
+ * As with the pipes this replaces, a side that waits on a thread that has
+ * died gives up after a second.
+ * </p>
+ */
+public class ChannelObject extends IOObject<ChannelObject> {
+	
+	/** the most chunks and scalars waiting in each direction */
+	private static final int CAPACITY = 256;
+	
+	/** how many bytes are gathered into one chunk before it's passed on regardless of flushes */
+	private static final int CHUNK = 8192;
+	
+	/** how deep an array or hash may nest and still be copied rather than serialized */
+	private static final int DEPTH = 32;
+	
+	private final Ring incoming;
+	
+	private final Ring outgoing;
+	
+	private final CountDownLatch finished;
+	
+	private ChannelObject peer;
+	
+	private ChannelObject(final Ring incoming, final Ring outgoing, final CountDownLatch finished) {
+	
+		this.incoming = incoming;
+		this.outgoing = outgoing;
+		this.finished = finished;
+		
+		openRead(new RingInput(incoming));
+		openWrite(new RingOutput(outgoing));
+	}
+	
+	/** creates two connected handles, the first for the parent and the second for the fork */
+	public static ChannelObject[] pair() {
+	
+		final Ring up = new Ring(ChannelObject.CAPACITY);
+		final Ring down = new Ring(ChannelObject.CAPACITY);
+		final CountDownLatch finished = new CountDownLatch(1);
+		
+		final ChannelObject parent = new ChannelObject(up, down, finished);
+		final ChannelObject child = new ChannelObject(down, up, finished);
+		
+		parent.peer = child;
+		child.peer = parent;
+		
+		return new ChannelObject[] { parent, child };
+	}
+	
+	/** returns the handle at the other end of this channel */
+	@Override
+	public ChannelObject getSource() {
+	
+		return peer;
+	}
+	
+	/**
+	 * marks the fork behind this channel as done, closing its end. Called once
+	 * the fork's return value is set.
+	 */
+	public void finish() {
+	
+		peer.close();
+		finished.countDown();
+	}
+	
+	/** waits for the fork to finish and returns its return value */
+	@Override
+	public Scalar wait(final ScriptEnvironment env, final long timeout) {
+	
+		try {
+			if (timeout <= 0) {
+				finished.await();
+			} else if (!finished.await(timeout, TimeUnit.MILLISECONDS)) {
+				env.flagError(new IOException("wait on object timed out"));
+				return SleepUtils.getEmptyScalar();
+			}
+		} catch (final InterruptedException ex) {
+			env.flagError(ex);
+			return SleepUtils.getEmptyScalar();
+		}
+		
+		return getToken();
+	}
+	
+	@Override
+	public void close() {
+	
+		super.close();
+		
+		outgoing.close();
+		incoming.abandon();
+	}
+	
+	/**
+	 * passes a copy of value to the other side without serializing it.
+	 * Returns false if value has to be written as bytes instead.
+	 */
+	public boolean writeScalar(final Scalar value) throws IOException {
+	
+		if (!(out instanceof RingOutput)) {
+			return false;
+		}
+		
+		final Scalar copy = ChannelObject.copy(value, 0);
+		
+		if (copy == null) {
+			return false;
+		}
+		
+		writerb.flush();
+		outgoing.put(copy);
+		
+		return true;
+	}
+	
+	/**
+	 * waits for the next thing written to this side and returns it if it's a
+	 * scalar passed by writeScalar. Returns null if there's bytes to read
+	 * first or nothing more will come.
+	 */
+	public Scalar readScalar() throws IOException {
+	
+		if (!(in instanceof RingInput) || reader == null || reader.available() > 0) {
+			return null;
+		}
+		
+		return incoming.takeScalar();
+	}
+	
+	/** returns a copy of value that shares nothing with it, or null if it isn't plain data */
+	private static Scalar copy(final Scalar value, final int depth) {
+	
+		if (depth > ChannelObject.DEPTH) {
+			return null;
+		}
+		
+		if (value.getArray() != null) {
+			if (value.getArray().getClass() != ListContainer.class) {
+				return null;
+			}
+			
+			final ScalarArray copy = new ListContainer();
+			final Iterator i = value.getArray().scalarIterator();
+			while(i.hasNext()) {
+				final Scalar temp = ChannelObject.copy((Scalar) i.next(), depth + 1);
+				if (temp == null) {
+					return null;
+				}
+				copy.push(temp);
+			}
+			
+			return SleepUtils.getArrayScalar(copy);
+		}
+		
+		if (value.getHash() != null) {
+			if (value.getHash().getClass() != HashContainer.class) {
+				return null;
+			}
+			
+			final Scalar copy = SleepUtils.getHashScalar();
+			final Iterator i = value.getHash().getData().entrySet().iterator();
+			while(i.hasNext()) {
+				final Map.Entry entry = (Map.Entry) i.next();
+				final Scalar temp = ChannelObject.copy((Scalar) entry.getValue(), depth + 1);
+				if (temp == null) {
+					return null;
+				}
+				copy.getHash().getData().put(entry.getKey(), temp);
+			}
+			
+			return copy;
+		}
+		
+		final Class type = value.getActualValue() == null ? null : value.getActualValue().getClass();
+		
+		if (type == StringValue.class || type == IntValue.class || type == LongValue.class || type == DoubleValue.class || type == NullValue.class || type == PatternValue.class) {
+			return SleepUtils.getScalar(value);
+		}
+		
+		return null;
+	}
+	
+	/**
+	 * a bounded ring of byte chunks and scalars with one side putting and one
+	 * side taking. Each index is only ever advanced by its own side, and only
+	 * by one thread of that side at a time.
+	 */
+	private static final class Ring {
+		
+		private final Object[] slots;
+		
+		private final int mask;
+		
+		/** the next slot to take from */
+		private final AtomicLong head = new AtomicLong();
+		
+		/** the next slot to put into */
+		private final AtomicLong tail = new AtomicLong();
+		
+		private volatile Thread taker;
+		
+		private volatile Thread putter;
+		
+		/** the thread that last put or took, checked like a pipe checks its threads */
+		private volatile Thread lastPutter;
+		
+		private volatile Thread lastTaker;
+		
+		/** true once nothing more will be put */
+		private volatile boolean closed;
+		
+		/** true once nothing more will be taken */
+		private volatile boolean abandoned;
+		
+		/** held while putting, so two threads writing don't put into the same slot */
+		private final Object putLock = new Object();
+		
+		/** held while taking, so two threads reading don't take the same slot */
+		private final Object takeLock = new Object();
+		
+		Ring(final int capacity) {
+		
+			slots = new Object[Integer.highestOneBit(capacity - 1) << 1];
+			mask = slots.length - 1;
+		}
+		
+		void put(final Object value) throws IOException {
+		
+			synchronized(putLock) {
+				lastPutter = Thread.currentThread();
+				
+				final long t = tail.get();
+				
+				while(t - head.get() == slots.length) {
+					if (abandoned || lastTaker != null && !lastTaker.isAlive()) {
+						throw new IOException("Read end dead");
+					}
+					
+					putter = Thread.currentThread();
+					if (t - head.get() == slots.length && !abandoned) {
+						LockSupport.parkNanos(this, TimeUnit.SECONDS.toNanos(1));
+					}
+					putter = null;
+				}
+				
+				if (abandoned) {
+					throw new IOException("Read end dead");
+				}
+				
+				slots[(int) t & mask] = value;
+				tail.set(t + 1);
+				
+				final Thread waiting = taker;
+				if (waiting != null) {
+					LockSupport.unpark(waiting);
+				}
+			}
+		}
+		
+		/** waits for something to take and returns it without taking it, null if nothing more will come */
+		Object peek() throws IOException {
+		
+			synchronized(takeLock) {
+				lastTaker = Thread.currentThread();
+				
+				final long h = head.get();
+				
+				while(h == tail.get()) {
+					if (closed) {
+						// a last put may have gone in before the close
+						if (h == tail.get()) {
+							return null;
+						}
+						break;
+					}
+					
+					if (lastPutter != null && !lastPutter.isAlive()) {
+						throw new IOException("Write end dead");
+					}
+					
+					taker = Thread.currentThread();
+					if (h == tail.get() && !closed) {
+						LockSupport.parkNanos(this, TimeUnit.SECONDS.toNanos(1));
+					}
+					taker = null;
+				}
+				
+				return slots[(int) h & mask];
+			}
+		}
+		
+		/** waits for something to take and takes it, null if nothing more will come */
+		Object take() throws IOException {
+		
+			synchronized(takeLock) {
+				final Object value = peek();
+				
+				if (value != null) {
+					final long h = head.get();
+					slots[(int) h & mask] = null;
+					head.set(h + 1);
+					
+					final Thread waiting = putter;
+					if (waiting != null) {
+						LockSupport.unpark(waiting);
+					}
+				}
+				
+				return value;
+			}
+		}
+		
+		/** waits for something to take and takes it if it's a scalar, null otherwise */
+		Scalar takeScalar() throws IOException {
+		
+			synchronized(takeLock) {
+				return peek() instanceof Scalar ? (Scalar) take() : null;
+			}
+		}
+		
+		/** returns how many bytes can be taken without waiting, as far as the next slot tells */
+		int available() {
+		
+			final long h = head.get();
+			
+			if (h == tail.get()) {
+				return 0;
+			}
+			
+			final Object next = slots[(int) h & mask];
+			return next instanceof byte[] ? ((byte[]) next).length : 0;
+		}
+		
+		void close() {
+		
+			closed = true;
+			
+			final Thread waiting = taker;
+			if (waiting != null) {
+				LockSupport.unpark(waiting);
+			}
+		}
+		
+		void abandon() {
+		
+			abandoned = true;
+			
+			final Thread waiting = putter;
+			if (waiting != null) {
+				LockSupport.unpark(waiting);
+			}
+		}
+	}
+	
+	/** reads the chunks in a ring as one stream of bytes, one reader at a time */
+	private static final class RingInput extends InputStream {
+		
+		private final Ring ring;
+		
+		private byte[] chunk = new byte[0];
+		
+		private int offset = 0;
+		
+		RingInput(final Ring ring) {
+		
+			this.ring = ring;
+		}
+		
+		/** makes sure there's a chunk with something left in it, false at the end */
+		private boolean fill() throws IOException {
+		
+			while(offset >= chunk.length) {
+				final Object next = ring.take();
+				
+				if (next == null) {
+					return false;
+				} else if (next instanceof Scalar) {
+					// read as bytes, so give the bytes &writeObject would have written
+					final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+					final ObjectOutputStream temp = new ObjectOutputStream(bytes);
+					temp.writeObject(next);
+					temp.flush();
+					chunk = bytes.toByteArray();
+				} else {
+					chunk = (byte[]) next;
+				}
+				
+				offset = 0;
+			}
+			
+			return true;
+		}
+		
+		@Override
+		public synchronized int read() throws IOException {
+		
+			return fill() ? chunk[offset++] & 0xFF : -1;
+		}
+		
+		@Override
+		public synchronized int read(final byte[] b, final int off, final int len) throws IOException {
+		
+			if (len == 0) {
+				return 0;
+			}
+			
+			if (!fill()) {
+				return -1;
+			}
+			
+			final int n = Math.min(len, chunk.length - offset);
+			System.arraycopy(chunk, offset, b, off, n);
+			offset += n;
+			
+			return n;
+		}
+		
+		@Override
+		public synchronized int available() {
+		
+			return chunk.length - offset + (offset >= chunk.length ? ring.available() : 0);
+		}
+		
+		@Override
+		public void close() {
+		
+			ring.abandon();
+		}
+	}
+	
+	/** gathers writes into chunks, each flush puts what's gathered into the ring. One writer at a time. */
+	private static final class RingOutput extends OutputStream {
+		
+		private final Ring ring;
+		
+		private final ByteArrayOutputStream pending = new ByteArrayOutputStream();
+		
+		RingOutput(final Ring ring) {
+		
+			this.ring = ring;
+		}
+		
+		@Override
+		public synchronized void write(final int b) throws IOException {
+		
+			pending.write(b);
+			
+			if (pending.size() >= ChannelObject.CHUNK) {
+				flush();
+			}
+		}
+		
+		@Override
+		public synchronized void write(final byte[] b, final int off, final int len) throws IOException {
+		
+			pending.write(b, off, len);
+			
+			if (pending.size() >= ChannelObject.CHUNK) {
+				flush();
+			}
+		}
+		
+		@Override
+		public synchronized void flush() throws IOException {
+		
+			if (pending.size() > 0) {
+				final byte[] chunk = pending.toByteArray();
+				pending.reset();
+				ring.put(chunk);
+			}
+		}
+		
+		@Override
+		public synchronized void close() throws IOException {
+		
+			try {
+				flush();
+			} finally {
+				ring.close();
+			}
+		}
+	}
+}
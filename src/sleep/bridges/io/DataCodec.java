@@ -0,0 +1,455 @@
+/* 
+ * Copyright (C) 2002-2012 Raphael Mudge (rsmudge@gmail.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of 
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package sleep.bridges.io;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Iterator;
+import java.util.Stack;
+
+import sleep.bridges.BridgeUtilities;
+import sleep.runtime.Scalar;
+import sleep.runtime.ScriptEnvironment;
+import sleep.runtime.SleepUtils;
+
+/**
+ * Packs and unpacks data patterns for &amp;pack and &amp;unpack straight to
+ * and from a ByteBuffer, instead of through a stack of streams made for each
+ * call. Each thread reuses one buffer. The results are byte for byte those of
+ * the stream code in BasicIO, which still does everything that reads or
+ * writes a stream. Patterns with serialized objects (o) are left to it too.
+ */
+public final class DataCodec {
+	
+	/** buffers that grew past this are not kept for the next call */
+	private static final int RETAINED = 64 * 1024;
+	
+	private static final ThreadLocal<DataCodec> codecs = new ThreadLocal<DataCodec>() {
+		
+		@Override
+		protected DataCodec initialValue() {
+		
+			return new DataCodec();
+		}
+	};
+	
+	private ByteBuffer buffer = ByteBuffer.allocate(256);
+	
+	/** set while the codec is in use, a closure called by toString may pack too */
+	private boolean busy = false;
+	
+	private DataCodec() {
+	
+	}
+	
+	/** returns true if the codec can pack and unpack pattern */
+	public static boolean isSupported(DataPattern pattern) {
+	
+		while(pattern != null) {
+			if (pattern.value == 'o') {
+				return false;
+			}
+			pattern = pattern.next;
+		}
+		
+		return true;
+	}
+	
+	private static DataCodec acquire() {
+	
+		final DataCodec codec = DataCodec.codecs.get();
+		
+		if (codec.busy) {
+			return new DataCodec();
+		}
+		
+		codec.busy = true;
+		codec.buffer.clear();
+		return codec;
+	}
+	
+	private void release() {
+	
+		busy = false;
+		
+		if (buffer.capacity() > DataCodec.RETAINED) {
+			buffer = ByteBuffer.allocate(256);
+		}
+	}
+	
+	/** makes room for n more bytes */
+	private void ensure(final int n) {
+	
+		if (buffer.remaining() < n) {
+			final ByteBuffer bigger = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + n));
+			buffer.flip();
+			bigger.put(buffer);
+			buffer = bigger;
+		}
+	}
+	
+	/**
+	 * packs the arguments as pattern says, returns the bytes as a string. A
+	 * lone array argument is packed as its elements.
+	 */
+	public static Scalar pack(final DataPattern pattern, final Stack arguments) {
+	
+		if (arguments.size() == 1 && ((Scalar) arguments.peek()).getArray() != null) {
+			final Stack temp = new Stack();
+			final Iterator i = ((Scalar) arguments.peek()).getArray().scalarIterator();
+			while(i.hasNext()) {
+				temp.push(i.next());
+			}
+			
+			return DataCodec.pack(pattern, temp);
+		}
+		
+		final DataCodec codec = DataCodec.acquire();
+		
+		try {
+			codec.ensure(DataPattern.EstimateSize(pattern) + 128);
+			codec.write(pattern, arguments);
+			return SleepUtils.getScalar(codec.buffer.array(), codec.buffer.position());
+		} finally {
+			codec.release();
+		}
+	}
+	
+	/** unpacks data, a string of bytes, as pattern says */
+	public static Scalar unpack(final DataPattern pattern, final String data, final ScriptEnvironment env) {
+	
+		final DataCodec codec = DataCodec.acquire();
+		
+		try {
+			codec.ensure(data.length());
+			for (int x = 0; x < data.length(); x++) {
+				codec.buffer.put((byte) data.charAt(x));
+			}
+			codec.buffer.flip();
+			
+			return codec.read(pattern, env);
+		} finally {
+			codec.release();
+		}
+	}
+	
+	private void write(DataPattern pattern, final Stack arguments) {
+	
+		while(pattern != null) {
+			buffer.order(pattern.order);
+			
+			if (pattern.value == 'z' || pattern.value == 'Z' || pattern.value == 'u' || pattern.value == 'U') {
+				final boolean wide = pattern.value == 'u' || pattern.value == 'U';
+				final String text = BridgeUtilities.getString(arguments, "");
+				
+				ensure(text.length() * 2);
+				for (int x = 0; x < text.length(); x++) {
+					if (wide) {
+						buffer.putChar(text.charAt(x));
+					} else {
+						buffer.put((byte) text.charAt(x));
+					}
+				}
+				
+				// handle padding...
+				
+				if (pattern.value == 'Z' || pattern.value == 'U') {
+					final int padding = (pattern.count - text.length()) * (wide ? 2 : 1);
+					
+					ensure(Math.max(0, padding));
+					for (int x = 0; x < padding; x++) {
+						buffer.put((byte) 0);
+					}
+				}
+				
+				// and the terminating null
+				
+				ensure(2);
+				if (pattern.value == 'z' || pattern.value == 'Z' && pattern.count == -1) {
+					buffer.put((byte) 0);
+				} else if (pattern.value == 'u' || pattern.value == 'U' && pattern.count == -1) {
+					buffer.putChar((char) 0);
+				}
+			} else if (pattern.value == 'h' || pattern.value == 'H') {
+				final String text = BridgeUtilities.getString(arguments, "");
+				
+				if (text.length() % 2 != 0) {
+					throw new IllegalArgumentException("can not pack '" + text + "' as hex string, number of characters must be even");
+				}
+				
+				final char[] number = new char[2];
+				
+				ensure(text.length() / 2);
+				for (int y = 0; y < text.length(); y += 2) {
+					number[pattern.value == 'H' ? 0 : 1] = text.charAt(y);
+					number[pattern.value == 'H' ? 1 : 0] = text.charAt(y + 1);
+					
+					// the low byte of the int, where a big endian int keeps it
+					final int value = Integer.parseInt(new String(number), 16);
+					buffer.put((byte) (pattern.order == ByteOrder.BIG_ENDIAN ? value : value >>> 24));
+				}
+			} else {
+				for (int z = 0; z != pattern.count && !arguments.isEmpty(); z++) {
+					Scalar temp = null;
+					
+					if (pattern.value != 'x') {
+						temp = BridgeUtilities.getScalar(arguments);
+					}
+					
+					ensure(8);
+					
+					try {
+						switch(pattern.value) {
+							case 'x':
+								buffer.put((byte) 0);
+								break;
+							case 'c':
+								buffer.putChar(temp.toString().charAt(0));
+								break;
+							case 'C':
+								buffer.put((byte) temp.toString().charAt(0));
+								break;
+							case 'b':
+							case 'B':
+								buffer.put((byte) temp.intValue());
+								break;
+							case 's':
+							case 'S':
+								buffer.putShort((short) temp.intValue());
+								break;
+							case 'i':
+								buffer.putInt(temp.intValue());
+								break;
+							case 'I':
+								buffer.putInt((int) temp.longValue());
+								break;
+							case 'f':
+								buffer.putFloat((float) temp.doubleValue());
+								break;
+							case 'd':
+								buffer.putDouble(temp.doubleValue());
+								break;
+							case 'l':
+								buffer.putLong(temp.longValue());
+								break;
+							default:
+						}
+					} catch (final Exception ex) {
+						return;
+					}
+				}
+			}
+			
+			pattern = pattern.next;
+		}
+	}
+	
+	/** returns the next byte, -1 at the end of the data */
+	private int next() {
+	
+		return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+	}
+	
+	/** true if n more bytes can be read, otherwise whatever is left is skipped */
+	private boolean has(final int n) {
+	
+		if (buffer.remaining() < n) {
+			buffer.position(buffer.limit());
+			return false;
+		}
+		
+		return true;
+	}
+	
+	private void skip(final int n) {
+	
+		buffer.position(buffer.position() + Math.max(0, Math.min(n, buffer.remaining())));
+	}
+	
+	private Scalar read(DataPattern pattern, final ScriptEnvironment env) {
+	
+		final Scalar temp = SleepUtils.getArrayScalar();
+		int mark = 0;
+		
+		while(pattern != null) {
+			buffer.order(pattern.order);
+			
+			if (pattern.value == 'M') {
+				mark = buffer.position();
+			} else if (pattern.value == 'x') {
+				skip(pattern.count);
+			} else if (pattern.value == 'h' || pattern.value == 'H') {
+				final StringBuffer temps = new StringBuffer();
+				
+				for (int z = 0; z < pattern.count || pattern.count == -1; z++) {
+					final int value = next();
+					
+					if (value == -1) {
+						temp.getArray().push(SleepUtils.getScalar(temps.toString()));
+						return temp;
+					}
+					
+					final int early = (value & 0x00F0) >> 4;
+					final int later = value & 0x000F;
+					
+					if (pattern.value == 'h') {
+						temps.append(Integer.toHexString(later));
+						temps.append(Integer.toHexString(early));
+					} else {
+						temps.append(Integer.toHexString(early));
+						temps.append(Integer.toHexString(later));
+					}
+				}
+				
+				temp.getArray().push(SleepUtils.getScalar(temps.toString())); // reads in a full on string :)
+			} else if (pattern.value == 'z' || pattern.value == 'Z' || pattern.value == 'U' || pattern.value == 'u') {
+				final boolean wide = pattern.value == 'u' || pattern.value == 'U';
+				final StringBuffer temps = new StringBuffer();
+				
+				int tempval = wide ? has(2) ? buffer.getChar() : -1 : next();
+				if (tempval == -1) {
+					temp.getArray().push(SleepUtils.getScalar(temps.toString()));
+					return temp;
+				}
+				
+				int z = 1;
+				
+				for (; tempval != 0 && z != pattern.count; z++) {
+					temps.append((char) tempval);
+					
+					tempval = wide ? has(2) ? buffer.getChar() : -1 : next();
+					if (tempval == -1) {
+						temp.getArray().push(SleepUtils.getScalar(temps.toString()));
+						return temp;
+					}
+				}
+				
+				if (tempval != 0) {
+					temps.append((char) tempval);
+				}
+				
+				if ((pattern.value == 'Z' || pattern.value == 'U') && z < pattern.count) {
+					skip((pattern.count - z) * (pattern.value == 'U' ? 2 : 1));
+				}
+				
+				temp.getArray().push(SleepUtils.getScalar(temps.toString())); // reads in a full on string :)
+			} else {
+				for (int z = 0; z != pattern.count; z++) // pattern.count is the integer specified "AFTER" the letter
+				{
+					Scalar value = null;
+					
+					switch(pattern.value) {
+						case 'R':
+							buffer.position(mark);
+							break;
+						case 'C':
+							if (!has(1)) {
+								return temp;
+							}
+							
+							value = SleepUtils.getScalar((char) buffer.get() + ""); // turns the char into a string
+							break;
+						case 'c':
+							if (!has(2)) {
+								return temp;
+							}
+							
+							value = SleepUtils.getScalar(buffer.getChar() + ""); // turns the char into a string
+							break;
+						case 'b':
+							final int b = next();
+							
+							// the stream code reads a byte of 0xFF as the end of the data too
+							if (b == -1 || b == 0xFF) {
+								return temp;
+							}
+							
+							value = SleepUtils.getScalar((int) (byte) b); // turns the byte into an int
+							break;
+						case 'B':
+							if (!has(1)) {
+								return temp;
+							}
+							
+							value = SleepUtils.getScalar(buffer.get() & 0xFF);
+							break;
+						case 's':
+							if (!has(2)) {
+								return temp;
+							}
+							
+							value = SleepUtils.getScalar(buffer.getShort());
+							break;
+						case 'S':
+							if (!has(2)) {
+								return temp;
+							}
+							
+							value = SleepUtils.getScalar(buffer.getShort() & 0x0000FFFF);
+							break;
+						case 'i':
+							if (!has(4)) {
+								return temp;
+							}
+							
+							value = SleepUtils.getScalar(buffer.getInt());
+							break;
+						case 'I':
+							if (!has(4)) {
+								return temp;
+							}
+							
+							value = SleepUtils.getScalar(buffer.getInt() & 0x00000000FFFFFFFFL);
+							break;
+						case 'f':
+							if (!has(4)) {
+								return temp;
+							}
+							
+							value = SleepUtils.getScalar(buffer.getFloat());
+							break;
+						case 'd':
+							if (!has(8)) {
+								return temp;
+							}
+							
+							value = SleepUtils.getScalar(buffer.getDouble());
+							break;
+						case 'l':
+							if (!has(8)) {
+								return temp;
+							}
+							
+							value = SleepUtils.getScalar(buffer.getLong());
+							break;
+						default:
+							env.showDebugMessage("unknown file pattern character: " + pattern.value);
+					}
+					
+					if (value != null) {
+						temp.getArray().push(value);
+					}
+				}
+			}
+			
+			pattern = pattern.next;
+		}
+		
+		return temp;
+	}
+}
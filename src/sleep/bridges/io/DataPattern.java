@@ -18,9 +18,13 @@
 package sleep.bridges.io;
 
 import java.nio.ByteOrder;
-import java.util.HashMap;
 
-/** A DataPattern represents a data format for Sleep's IO functions. */
+import sleep.bridges.BoundedCache;
+
+/**
+ * A DataPattern represents a data format for Sleep's IO functions. Parsed
+ * formats are cached and shared, so a pattern is never changed once parsed.
+ */
 public class DataPattern {
 	
 	public DataPattern next = null;
@@ -33,12 +37,18 @@ public class DataPattern {
 	
 	public ByteOrder order = ByteOrder.BIG_ENDIAN;
 	
-	private static HashMap<String, DataPattern> patternCache = new HashMap<String, DataPattern>();
+	/** the most formats kept parsed */
+	private static final int PATTERN_MAXIMUM = 256;
+	
+	private static final BoundedCache<String, DataPattern> patternCache = new BoundedCache<String, DataPattern>(DataPattern.PATTERN_MAXIMUM);
 	
 	public static int EstimateSize(final String format) {
 	
-		DataPattern pattern = DataPattern.Parse(format);
-		
+		return DataPattern.EstimateSize(DataPattern.Parse(format));
+	}
+	
+	public static int EstimateSize(DataPattern pattern) {
+	
 		int count = 0;
 		
 		while(pattern != null) {
@@ -54,8 +64,10 @@ public class DataPattern {
 	
 	public static DataPattern Parse(final String format) {
 	
-		if (DataPattern.patternCache.get(format) != null) {
-			return DataPattern.patternCache.get(format);
+		final DataPattern cached = DataPattern.patternCache.get(format);
+		
+		if (cached != null) {
+			return cached;
 		}
 		
 		DataPattern head = null, temp = null;
@@ -131,7 +143,10 @@ public class DataPattern {
 			temp.count = Integer.parseInt(count.toString());
 		}
 		
-		DataPattern.patternCache.put(format, head);
+		if (head != null) {
+			DataPattern.patternCache.put(format, head);
+		}
+		
 		return head;
 	}
 }
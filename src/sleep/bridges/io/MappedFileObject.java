@@ -0,0 +1,500 @@
+/* 
+ * Copyright (C) 2002-2012 Raphael Mudge (rsmudge@gmail.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of 
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package sleep.bridges.io;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.StandardOpenOption;
+
+import sleep.bridges.BridgeUtilities;
+import sleep.runtime.ScalarArray;
+import sleep.runtime.ScriptEnvironment;
+
+/**
+ * <p>
+ * Reads a file through memory mappings rather than a stream, for &amp;mmap.
+ * The whole file is mapped read only, in pieces of up to a gigabyte so files
+ * past 2GB work, and the handle keeps one position in it. The binary read
+ * functions (&amp;readb, &amp;bread, &amp;skip, &amp;mark, &amp;reset and
+ * &amp;available) copy straight out of the mapping and &amp;readln finds the
+ * end of a line in the mapped bytes before decoding it. Scripts can move
+ * around with <code>[$handle seek: offset]</code> and ask where they are with
+ * <code>[$handle position]</code> and <code>[$handle length]</code>.
+ * </p>
+ * 
+ * <p>
+ * &amp;readAll returns a read only array over the rest of the file. Finding
+ * the lines is a scan of the bytes, a line is only decoded when it is
+ * accessed, so a script can walk a log of many gigabytes without a scalar for
+ * every line. The array stays usable after the handle is closed.
+ * </p>
+ * 
+ * <p>
+ * Lines end at \n, \r or \r\n, as with any other handle. For a charset that
+ * doesn't write those as single bytes (UTF-16 say) lines are read a character
+ * at a time instead and &amp;readAll reads them all as usual.
+ * </p>
+ * 
+ * @see MappedLines
+ */
+public class MappedFileObject extends IOObject<File> {
+	
+	/** files are mapped in pieces of 1 &lt;&lt; CHUNK_BITS bytes */
+	static final int CHUNK_BITS = 30;
+	
+	static final long CHUNK_MASK = (1L << MappedFileObject.CHUNK_BITS) - 1;
+	
+	protected File file;
+	
+	private Mapping data = null;
+	
+	private long position = 0;
+	
+	private long mark = 0;
+	
+	private Charset charset = Charset.defaultCharset();
+	
+	/** true if line ends can be found in the bytes, as with ASCII and UTF-8 */
+	private boolean bytewise = MappedFileObject.isBytewise(charset);
+	
+	private CharsetDecoder decoder = null;
+	
+	/** the second half of a surrogate pair the decoder handed over */
+	private int pending = -1;
+	
+	/** set after a line that ended with \r, a \n right after it is part of that line end */
+	private boolean stripLineFeed = false;
+	
+	/** returns the file referenced by this IOObject */
+	@Override
+	public File getSource() {
+	
+		return file;
+	}
+	
+	/** maps the file named by descriptor for reading */
+	public void open(final String descriptor, final ScriptEnvironment env) {
+	
+		try {
+			file = BridgeUtilities.toSleepFile(descriptor, env.getScriptInstance());
+			data = Mapping.map(file);
+			
+			final MappedStream stream = new MappedStream();
+			in = stream;
+			reader = stream;
+			readerb = new DataInputStream(stream);
+			readeru = new InputStreamReader(readerb, charset);
+		} catch (final Exception ex) {
+			env.flagError(ex);
+		}
+	}
+	
+	/** returns the length of the file in bytes */
+	public long length() {
+	
+		return data == null ? 0 : data.length();
+	}
+	
+	/** returns the offset of the next byte to be read */
+	public long position() {
+	
+		return position;
+	}
+	
+	/** moves to offset bytes into the file, or as near as the file allows */
+	public void seek(final long offset) {
+	
+		position = Math.max(0, Math.min(offset, length()));
+		stripLineFeed = false;
+		pending = -1;
+		decoder = null;
+	}
+	
+	@Override
+	public void setEncoding(final String name) throws UnsupportedEncodingException {
+	
+		super.setEncoding(name);
+		
+		charset = Charset.forName(name);
+		bytewise = MappedFileObject.isBytewise(charset);
+		decoder = null;
+	}
+	
+	private static boolean isBytewise(final Charset charset) {
+	
+		final byte[] lf = "\n".getBytes(charset);
+		final byte[] cr = "\r".getBytes(charset);
+		
+		return lf.length == 1 && lf[0] == '\n' && cr.length == 1 && cr[0] == '\r';
+	}
+	
+	@Override
+	public String readLine() {
+	
+		if (reader == null) {
+			return null;
+		}
+		
+		if (!bytewise || pending != -1) {
+			return readLineByCharacter();
+		}
+		
+		final long end = data.length();
+		
+		if (stripLineFeed && position < end && data.get(position) == '\n') {
+			position++;
+		}
+		
+		stripLineFeed = false;
+		
+		if (position >= end) {
+			close();
+			return null;
+		}
+		
+		final long eol = data.findLineEnd(position);
+		final String line = data.decode(position, eol, charset);
+		
+		if (eol >= end) {
+			position = end;
+			close();
+		} else {
+			stripLineFeed = data.get(eol) == '\r';
+			position = eol + 1;
+		}
+		
+		return line;
+	}
+	
+	/** the same as IOObject's readLine, a character at a time */
+	private String readLineByCharacter() {
+	
+		final StringBuilder rv = new StringBuilder();
+		
+		int temp = nextCharacter();
+		
+		if (stripLineFeed && temp == '\n') {
+			temp = nextCharacter();
+		}
+		
+		stripLineFeed = false;
+		
+		while(temp != -1) {
+			if (temp == '\n') {
+				return rv.toString();
+			} else if (temp == '\r') {
+				stripLineFeed = true;
+				return rv.toString();
+			} else {
+				rv.append((char) temp);
+			}
+			
+			temp = nextCharacter();
+		}
+		
+		close();
+		
+		return rv.length() > 0 ? rv.toString() : null;
+	}
+	
+	@Override
+	public String readCharacter() {
+	
+		if (reader == null) {
+			return null;
+		}
+		
+		final int temp = nextCharacter();
+		
+		if (temp == -1) {
+			close();
+			return null;
+		}
+		
+		return (char) temp + "";
+	}
+	
+	/** decodes the character at the position, -1 at the end of the file */
+	private int nextCharacter() {
+	
+		if (pending != -1) {
+			final int temp = pending;
+			pending = -1;
+			return temp;
+		}
+		
+		if (position >= data.length()) {
+			return -1;
+		}
+		
+		if (decoder == null) {
+			decoder = charset.newDecoder().onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+		}
+		
+		final byte[] window = new byte[(int) Math.min(8, data.length() - position)];
+		data.get(position, window, 0, window.length);
+		
+		final ByteBuffer bytes = ByteBuffer.wrap(window);
+		CharBuffer chars = CharBuffer.allocate(1);
+		decoder.decode(bytes, chars, false);
+		
+		if (chars.position() == 0) {
+			// a surrogate pair needs room for two
+			chars = CharBuffer.allocate(2);
+			decoder.decode(bytes, chars, false);
+		}
+		
+		if (chars.position() == 0) {
+			// what's left of the file isn't a whole character
+			position = data.length();
+			return 0xFFFD;
+		}
+		
+		position += bytes.position();
+		
+		if (chars.position() == 2) {
+			pending = chars.get(1);
+		}
+		
+		return chars.get(0);
+	}
+	
+	/**
+	 * returns the lines from the position to the end of the file as a read
+	 * only array and closes this handle, as reading every line would. Returns
+	 * null if the lines have to be read one at a time.
+	 */
+	public ScalarArray readLines() {
+	
+		if (reader == null || !bytewise || pending != -1) {
+			return null;
+		}
+		
+		long start = position;
+		
+		if (stripLineFeed && start < data.length() && data.get(start) == '\n') {
+			start++;
+		}
+		
+		final ScalarArray lines = new MappedLines(data, start, charset);
+		
+		position = data.length();
+		close();
+		
+		return lines;
+	}
+	
+	/**
+	 * the input stream behind this handle. It reads at the position and keeps
+	 * nothing buffered, so the read functions and the position always agree.
+	 */
+	private final class MappedStream extends BufferedInputStream {
+		
+		MappedStream() {
+		
+			super(InputStream.nullInputStream(), 1);
+		}
+		
+		@Override
+		public int read() {
+		
+			if (position >= data.length()) {
+				return -1;
+			}
+			
+			return data.get(position++) & 0xFF;
+		}
+		
+		@Override
+		public int read(final byte[] b, final int off, final int len) {
+		
+			if (len == 0) {
+				return 0;
+			}
+			
+			final long left = data.length() - position;
+			
+			if (left <= 0) {
+				return -1;
+			}
+			
+			final int n = (int) Math.min(len, left);
+			data.get(position, b, off, n);
+			position += n;
+			
+			return n;
+		}
+		
+		@Override
+		public long skip(final long n) {
+		
+			final long skipped = Math.max(0, Math.min(n, data.length() - position));
+			position += skipped;
+			
+			return skipped;
+		}
+		
+		@Override
+		public int available() {
+		
+			return (int) Math.min(Integer.MAX_VALUE, data.length() - position);
+		}
+		
+		@Override
+		public boolean markSupported() {
+		
+			return true;
+		}
+		
+		@Override
+		public void mark(final int readlimit) {
+		
+			mark = position;
+		}
+		
+		@Override
+		public void reset() {
+		
+			position = mark;
+			stripLineFeed = false;
+			pending = -1;
+		}
+		
+		@Override
+		public void close() {
+		
+			// the mapping goes when nothing refers to it anymore
+		}
+	}
+	
+	/** a file mapped into memory a piece at a time */
+	static final class Mapping {
+		
+		private final ByteBuffer[] chunks;
+		
+		private final long length;
+		
+		private Mapping(final ByteBuffer[] chunks, final long length) {
+		
+			this.chunks = chunks;
+			this.length = length;
+		}
+		
+		static Mapping map(final File file) throws IOException {
+		
+			final FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+			
+			try {
+				final long length = channel.size();
+				final ByteBuffer[] chunks = new ByteBuffer[(int) (length + MappedFileObject.CHUNK_MASK >>> MappedFileObject.CHUNK_BITS)];
+				
+				for (int x = 0; x < chunks.length; x++) {
+					final long offset = (long) x << MappedFileObject.CHUNK_BITS;
+					chunks[x] = channel.map(FileChannel.MapMode.READ_ONLY, offset, Math.min(MappedFileObject.CHUNK_MASK + 1, length - offset));
+				}
+				
+				return new Mapping(chunks, length);
+			} finally {
+				channel.close();
+			}
+		}
+		
+		long length() {
+		
+			return length;
+		}
+		
+		byte get(final long at) {
+		
+			return chunks[(int) (at >>> MappedFileObject.CHUNK_BITS)].get((int) (at & MappedFileObject.CHUNK_MASK));
+		}
+		
+		void get(long at, final byte[] b, int off, int len) {
+		
+			while(len > 0) {
+				final ByteBuffer chunk = chunks[(int) (at >>> MappedFileObject.CHUNK_BITS)];
+				final int offset = (int) (at & MappedFileObject.CHUNK_MASK);
+				final int n = Math.min(len, chunk.limit() - offset);
+				
+				chunk.get(offset, b, off, n);
+				
+				at += n;
+				off += n;
+				len -= n;
+			}
+		}
+		
+		/** returns the offset of the first \r or \n from the offset on, or the length */
+		long findLineEnd(long from) {
+		
+			while(from < length) {
+				final ByteBuffer chunk = chunks[(int) (from >>> MappedFileObject.CHUNK_BITS)];
+				final long base = from & ~MappedFileObject.CHUNK_MASK;
+				final int limit = chunk.limit();
+				
+				for (int x = (int) (from & MappedFileObject.CHUNK_MASK); x < limit; x++) {
+					final byte b = chunk.get(x);
+					if (b == '\n' || b == '\r') {
+						return base + x;
+					}
+				}
+				
+				from = base + limit;
+			}
+			
+			return length;
+		}
+		
+		/** returns where the line after the one at the offset starts, the length if there's none */
+		long nextLine(final long from) {
+		
+			final long eol = findLineEnd(from);
+			
+			if (eol >= length) {
+				return length;
+			} else if (get(eol) == '\r' && eol + 1 < length && get(eol + 1) == '\n') {
+				return eol + 2;
+			}
+			
+			return eol + 1;
+		}
+		
+		String decode(final long from, final long to, final Charset charset) {
+		
+			if (to - from > Integer.MAX_VALUE - 8) {
+				throw new IllegalStateException("line at " + from + " is too long to read");
+			}
+			
+			final byte[] bytes = new byte[(int) (to - from)];
+			get(from, bytes, 0, bytes.length);
+			
+			return new String(bytes, charset);
+		}
+	}
+}
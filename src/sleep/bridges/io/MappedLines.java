@@ -0,0 +1,300 @@
+/* 
+ * Copyright (C) 2002-2012 Raphael Mudge (rsmudge@gmail.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of 
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package sleep.bridges.io;
+
+import java.nio.charset.Charset;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import sleep.engine.types.ListContainer;
+import sleep.runtime.Scalar;
+import sleep.runtime.ScalarArray;
+import sleep.runtime.SleepUtils;
+
+/**
+ * A scalar array of the lines in part of a mapped file, what &amp;readAll
+ * returns for a handle from &amp;mmap. Lines are decoded into scalars when
+ * they are accessed. Where every 64th line starts is remembered as far into
+ * the file as anything has looked, so getting at a line means scanning at
+ * most 63 others. The first change to the array, or a sublist of it, copies
+ * the lines into a ListContainer and everything goes to that from then on.
+ * 
+ * @see MappedFileObject
+ */
+public class MappedLines implements ScalarArray {
+	
+	/**
+     * 
+     */
+	private static final long serialVersionUID = 6043525957254431790L;
+	
+	private static final int STRIDE = 64;
+	
+	private final transient MappedFileObject.Mapping data;
+	
+	private final transient Charset charset;
+	
+	private final long start;
+	
+	/** where lines 0, STRIDE, 2 * STRIDE and so on start */
+	private long[] checkpoints = new long[16];
+	
+	/** how many lines have been found so far */
+	private int known = 0;
+	
+	/** where the last line found starts */
+	private long last;
+	
+	/** true once there are no more lines to find */
+	private boolean complete;
+	
+	/** lines handed out by getAt, kept so a value assigned to one is still there next time */
+	private final Map<Integer, Scalar> handed = new HashMap<Integer, Scalar>();
+	
+	/** the lines once the array has been changed, null until then */
+	private ScalarArray copy;
+	
+	MappedLines(final MappedFileObject.Mapping data, final long start, final Charset charset) {
+	
+		this.data = data;
+		this.start = start;
+		this.charset = charset;
+		
+		last = start;
+		complete = start >= data.length();
+		
+		if (!complete) {
+			checkpoints[0] = start;
+			known = 1;
+		}
+	}
+	
+	/** finds the lines up to and including the given one, if there are that many */
+	private void scanTo(final int index) {
+	
+		while(known <= index && !complete) {
+			final long next = data.nextLine(last);
+			
+			if (next >= data.length()) {
+				complete = true;
+			} else {
+				if (known % MappedLines.STRIDE == 0) {
+					if (known / MappedLines.STRIDE == checkpoints.length) {
+						final long[] temp = new long[checkpoints.length * 2];
+						System.arraycopy(checkpoints, 0, temp, 0, checkpoints.length);
+						checkpoints = temp;
+					}
+					
+					checkpoints[known / MappedLines.STRIDE] = next;
+				}
+				
+				last = next;
+				known++;
+			}
+		}
+	}
+	
+	/** returns where the line at the index starts */
+	private synchronized long startOf(final int index) {
+	
+		scanTo(index);
+		
+		if (index < 0 || index >= known) {
+			throw new ArrayIndexOutOfBoundsException(index);
+		}
+		
+		long at = checkpoints[index / MappedLines.STRIDE];
+		
+		for (int x = index % MappedLines.STRIDE; x > 0; x--) {
+			at = data.nextLine(at);
+		}
+		
+		return at;
+	}
+	
+	private Scalar lineAt(final long at) {
+	
+		return SleepUtils.getScalar(data.decode(at, data.findLineEnd(at), charset));
+	}
+	
+	/** returns the line at the index, the one getAt handed out if there is one */
+	private Scalar lineAt(final long at, final int index) {
+	
+		final Scalar line = handed.get(index);
+		return line != null ? line : lineAt(at);
+	}
+	
+	/** copies the lines into a ListContainer, the first time it's called, and returns that */
+	private synchronized ScalarArray writable() {
+	
+		if (copy == null) {
+			final ScalarArray temp = new ListContainer();
+			final Iterator i = scalarIterator();
+			
+			while(i.hasNext()) {
+				temp.push((Scalar) i.next());
+			}
+			
+			copy = temp;
+			handed.clear();
+		}
+		
+		return copy;
+	}
+	
+	@Override
+	public synchronized int size() {
+	
+		if (copy != null) {
+			return copy.size();
+		}
+		
+		scanTo(Integer.MAX_VALUE);
+		return known;
+	}
+	
+	@Override
+	public synchronized Scalar getAt(final int index) {
+	
+		if (copy != null) {
+			return copy.getAt(index);
+		}
+		
+		if (index >= size()) {
+			return writable().getAt(index); // a ListContainer grows to the index
+		}
+		
+		Scalar line = handed.get(index);
+		
+		if (line == null) {
+			line = lineAt(startOf(index));
+			handed.put(index, line);
+		}
+		
+		return line;
+	}
+	
+	@Override
+	public ScalarArray sublist(final int begin, final int end) {
+	
+		return writable().sublist(begin, end); // writes through a sublist show up here too
+	}
+	
+	@Override
+	public synchronized Iterator scalarIterator() {
+	
+		if (copy != null) {
+			return copy.scalarIterator();
+		}
+		
+		return new Iterator() {
+			
+			private long at = start;
+			
+			private int count = 0;
+			
+			@Override
+			public boolean hasNext() {
+			
+				synchronized(MappedLines.this) {
+					if (copy != null) {
+						return count < copy.size();
+					}
+					
+					return at < data.length();
+				}
+			}
+			
+			@Override
+			public Object next() {
+			
+				synchronized(MappedLines.this) {
+					if (!hasNext()) {
+						throw new NoSuchElementException();
+					}
+					
+					if (copy != null) {
+						return copy.getAt(count++);
+					}
+					
+					final Scalar line = lineAt(at, count);
+					at = data.nextLine(at);
+					count++;
+					
+					return line;
+				}
+			}
+			
+			@Override
+			public void remove() {
+			
+				if (count == 0) {
+					throw new IllegalStateException();
+				}
+				
+				count--;
+				writable().remove(count);
+			}
+		};
+	}
+	
+	@Override
+	public String toString() {
+	
+		return copy != null ? copy.toString() : "(array: lines of a mapped file)";
+	}
+	
+	@Override
+	public Scalar pop() {
+	
+		return writable().pop();
+	}
+	
+	@Override
+	public void sort(final Comparator compare) {
+	
+		writable().sort(compare);
+	}
+	
+	@Override
+	public Scalar push(final Scalar value) {
+	
+		return writable().push(value);
+	}
+	
+	@Override
+	public Scalar remove(final int index) {
+	
+		return writable().remove(index);
+	}
+	
+	@Override
+	public Scalar add(final Scalar value, final int index) {
+	
+		return writable().add(value, index);
+	}
+	
+	@Override
+	public void remove(final Scalar value) {
+	
+		writable().remove(value);
+	}
+}
@@ -20,6 +20,7 @@ package sleep.engine;
 import java.io.File;
 import java.io.Serializable;
 import java.util.ConcurrentModificationException;
+import java.util.List;
 
 import sleep.runtime.Scalar;
 import sleep.runtime.ScriptEnvironment;
@@ -200,6 +201,17 @@ public class Block implements Serializable {
 		last = n;
 	}
 	
+	/** replaces the steps of this block, used by the {@link Optimizer} */
+	void replace(final List<Step> steps) {
+	
+		first = null;
+		last = null;
+		for (final Step n : steps) {
+			n.next = null;
+			add(n);
+		}
+	}
+	
 	/**
 	 * evaluates this block of code. please note that if the block has a return
 	 * statement and the method clearReturn() is not called on the corresponding
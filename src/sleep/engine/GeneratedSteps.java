@@ -33,6 +33,7 @@ import sleep.engine.atoms.Get;
 import sleep.engine.atoms.Goto;
 import sleep.engine.atoms.Index;
 import sleep.engine.atoms.Iterate;
+import sleep.engine.atoms.NumericOperate;
 import sleep.engine.atoms.ObjectAccess;
 import sleep.engine.atoms.ObjectNew;
 import sleep.engine.atoms.Operate;
@@ -64,7 +65,7 @@ public class GeneratedSteps {
 	
 	public Step Operate(final String oper) {
 	
-		final Step temp = new Operate(oper);
+		final Step temp = NumericOperate.opcode(oper) >= 0 ? new NumericOperate(oper) : new Operate(oper);
 		return temp;
 	}
 	
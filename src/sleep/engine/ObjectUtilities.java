@@ -218,6 +218,42 @@ public class ObjectUtilities {
 		}
 	}
 	
+	private static final Object EMPTY_SHAPE = new Object();
+	
+	private static final Object HASH_SHAPE = new Object();
+	
+	private static final Object CHARACTER_SHAPE = new Object();
+	
+	/**
+	 * describes everything about a value that isArgMatch looks at. Values with
+	 * the same shape (compared with ==) match the same method signatures. null
+	 * means the value's match has to be worked out each time, arrays for
+	 * example are matched on what they hold.
+	 */
+	public static Object getArgumentShape(final Scalar scalar) {
+	
+		if (SleepUtils.isEmptyScalar(scalar)) {
+			return ObjectUtilities.EMPTY_SHAPE;
+		} else if (scalar.getArray() != null) {
+			return null;
+		} else if (scalar.getHash() != null) {
+			return ObjectUtilities.HASH_SHAPE;
+		}
+		
+		final Class<?> stemp = scalar.getActualValue().getType();
+		
+		if (stemp == ObjectUtilities.OBJECT_SCALAR) {
+			final Object value = scalar.objectValue();
+			return value == null ? null : value.getClass();
+		} else if (stemp == ObjectUtilities.STRING_SCALAR) {
+			return scalar.getActualValue().toString().length() == 1 ? ObjectUtilities.CHARACTER_SHAPE : stemp;
+		} else if (stemp == ObjectUtilities.INT_SCALAR || stemp == ObjectUtilities.DOUBLE_SCALAR || stemp == ObjectUtilities.LONG_SCALAR) {
+			return stemp;
+		}
+		
+		return null;
+	}
+	
 	/**
 	 * attempts to find the method that is the closest match to the specified
 	 * arguments
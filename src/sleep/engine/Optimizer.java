@@ -0,0 +1,191 @@
+/* 
+ * Copyright (C) 2002-2012 Raphael Mudge (rsmudge@gmail.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of 
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package sleep.engine;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import sleep.engine.atoms.Check;
+import sleep.engine.atoms.CreateFrame;
+import sleep.engine.atoms.Decide;
+import sleep.engine.atoms.Goto;
+import sleep.engine.atoms.NumericOperate;
+import sleep.engine.atoms.Operate;
+import sleep.engine.atoms.PLiteral;
+import sleep.engine.atoms.SValue;
+import sleep.engine.types.DoubleValue;
+import sleep.engine.types.IntValue;
+import sleep.engine.types.LongValue;
+import sleep.engine.types.StringValue;
+import sleep.runtime.Scalar;
+import sleep.runtime.ScalarType;
+import sleep.runtime.SleepUtils;
+
+/**
+ * Rewrites the steps of a freshly generated block so less is left to do at
+ * run time. The CodeGenerator runs each block through here as it finishes
+ * it, inner blocks first.
+ * 
+ * <ul>
+ * <li>A built in numeric operator or the . operator applied to two literals
+ * becomes the literal result, so "a" . "b" and 1 + 2 * 3 cost one step.</li>
+ * <li>A "string" with no variables in it becomes a plain literal.</li>
+ * <li>An if whose condition is a literal is replaced by the branch it would
+ * take, a while loop whose condition is a false literal is dropped.</li>
+ * </ul>
+ * 
+ * Operators and predicates are assumed to be the standard ones. An
+ * application that rebinds +, ., -istrue and the like should turn the
+ * optimizer off by setting the sleep.optimize property to false.
+ */
+public final class Optimizer {
+	
+	private Optimizer() {
+	
+	}
+	
+	/** returns true unless the sleep.optimize property is false */
+	public static boolean isEnabled() {
+	
+		return !"false".equals(System.getProperty("sleep.optimize", "true"));
+	}
+	
+	/** optimizes the steps of this block, its inner blocks are left alone */
+	public static void optimize(final Block block) {
+	
+		final List<Step> steps = new ArrayList<Step>();
+		for (Step temp = block.first; temp != null; temp = temp.next) {
+			Optimizer.add(steps, temp);
+		}
+		
+		block.replace(steps);
+	}
+	
+	/** adds a step, folding it into the steps before it when possible */
+	private static void add(final List<Step> steps, final Step step) {
+	
+		final int size = steps.size();
+		final Class type = step.getClass();
+		
+		if (type == NumericOperate.class || type == Operate.class) {
+			/* CreateFrame, right operand, left operand, operator */
+			if (size >= 3 && steps.get(size - 3).getClass() == CreateFrame.class && Optimizer.isLiteral(steps.get(size - 2)) && Optimizer.isLiteral(steps.get(size - 1))) {
+				final Scalar right = ((SValue) steps.get(size - 2)).getValue();
+				final Scalar left = ((SValue) steps.get(size - 1)).getValue();
+				final Scalar value = Optimizer.fold((Operate) step, left, right);
+				
+				if (value != null) {
+					steps.subList(size - 3, size).clear();
+					Optimizer.add(steps, Optimizer.literal(value, step));
+					return;
+				}
+			}
+		} else if (type == PLiteral.class) {
+			final String value = ((PLiteral) step).getConstantString();
+			
+			if (value != null && size >= 1 && steps.get(size - 1).getClass() == CreateFrame.class) {
+				steps.remove(size - 1);
+				Optimizer.add(steps, Optimizer.literal(SleepUtils.getScalar(value), step));
+				return;
+			}
+		} else if (type == Decide.class) {
+			final Decide decide = (Decide) step;
+			final Boolean value = Optimizer.constant(decide.start);
+			
+			if (value != null) {
+				final Block branch = value.booleanValue() ? decide.iftrue : decide.iffalse;
+				if (branch != null) {
+					/* copy the chain first, add() relinks the steps as it goes */
+					final List<Step> taken = new ArrayList<Step>();
+					for (Step temp = branch.first; temp != null; temp = temp.next) {
+						taken.add(temp);
+					}
+					
+					for (final Step temp : taken) {
+						Optimizer.add(steps, temp);
+					}
+				}
+				return;
+			}
+		} else if (type == Goto.class) {
+			if (Optimizer.constant(((Goto) step).getCondition()) == Boolean.FALSE) {
+				return;
+			}
+		}
+		
+		steps.add(step);
+	}
+	
+	/** works out an operator over two literals, null if it can't be done now */
+	private static Scalar fold(final Operate step, final Scalar left, final Scalar right) {
+	
+		if (step instanceof NumericOperate) {
+			return ((NumericOperate) step).fold(left, right);
+		}
+		
+		if (step.getName().equals(".") && Optimizer.isPlain(left) && Optimizer.isPlain(right)) {
+			return SleepUtils.getScalar(left.toString() + right.toString());
+		}
+		
+		return null;
+	}
+	
+	/**
+	 * returns the value of a check that only tests a literal with -istrue,
+	 * null for anything else
+	 */
+	private static Boolean constant(final Check check) {
+	
+		if (check == null || check.isCompound() || !"-istrue".equals(check.name)) {
+			return null;
+		}
+		
+		final Step setup = check.getSetup().first;
+		if (setup == null || setup.next != null || !Optimizer.isLiteral(setup)) {
+			return null;
+		}
+		
+		final boolean value = SleepUtils.isTrueScalar(((SValue) setup).getValue());
+		return Boolean.valueOf(check.isNegated() ? !value : value);
+	}
+	
+	private static boolean isLiteral(final Step step) {
+	
+		return step.getClass() == SValue.class;
+	}
+	
+	/** true for strings and numbers, the values whose text can't change */
+	private static boolean isPlain(final Scalar value) {
+	
+		final ScalarType actual = value.getActualValue();
+		if (actual == null) {
+			return false;
+		}
+		
+		final Class type = actual.getType();
+		return type == StringValue.class || type == IntValue.class || type == LongValue.class || type == DoubleValue.class;
+	}
+	
+	/** a literal step standing in for the step it replaces */
+	private static Step literal(final Scalar value, final Step replaced) {
+	
+		final Step temp = new SValue(value);
+		temp.setInfo(replaced.getLineNumber());
+		return temp;
+	}
+}
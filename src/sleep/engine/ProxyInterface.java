@@ -20,7 +20,9 @@ package sleep.engine;
 import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
+import java.util.Map;
 import java.util.Stack;
+import java.util.concurrent.ConcurrentHashMap;
 
 import sleep.bridges.SleepClosure;
 import sleep.interfaces.Function;
@@ -38,6 +40,134 @@ public class ProxyInterface implements InvocationHandler {
 	
 	protected Function func;
 	
+	/**
+	 * the last method called, a proxy passes the same Method every time
+	 */
+	private volatile Dispatch last;
+	
+	/**
+	 * how each method of a proxy class is passed to Sleep, filled in as the
+	 * methods are called
+	 */
+	private static final ClassValue<Map<Method, Dispatch>> DISPATCH = new ClassValue<Map<Method, Dispatch>>() {
+		
+		@Override
+		protected Map<Method, Dispatch> computeValue(final Class<?> type) {
+		
+			return new ConcurrentHashMap<Method, Dispatch>();
+		}
+	};
+	
+	private static final int OTHER = 0;
+	
+	private static final int VOID = 1;
+	
+	private static final int BOOLEAN = 2;
+	
+	private static final int INT = 3;
+	
+	private static final int LONG = 4;
+	
+	private static final int DOUBLE = 5;
+	
+	private static final int STRING = 6;
+	
+	/**
+	 * the argument and return conversions of one method, worked out from its
+	 * signature once
+	 */
+	private static final class Dispatch {
+		
+		private final Method method;
+		
+		private final String name;
+		
+		private final int[] arguments;
+		
+		private final Class<?> returnType;
+		
+		private final int returns;
+		
+		private Dispatch(final Method method) {
+		
+			this.method = method;
+			name = method.getName();
+			returnType = method.getReturnType();
+			returns = ProxyInterface.kind(returnType);
+			
+			final Class<?>[] types = method.getParameterTypes();
+			arguments = new int[types.length];
+			for (int x = 0; x < types.length; x++) {
+				arguments[x] = ProxyInterface.kind(types[x]);
+			}
+		}
+		
+		/** pushes the arguments so the first one is on top */
+		private void push(final Stack<Scalar> stack, final Object[] args) {
+		
+			if (args == null) {
+				return;
+			}
+			
+			for (int z = args.length - 1; z >= 0; z--) {
+				final Object arg = args[z];
+				
+				if (arg == null) {
+					stack.push(SleepUtils.getEmptyScalar());
+				} else if (arguments[z] == ProxyInterface.INT) {
+					stack.push(SleepUtils.getScalar(((Integer) arg).intValue()));
+				} else if (arguments[z] == ProxyInterface.LONG) {
+					stack.push(SleepUtils.getScalar(((Long) arg).longValue()));
+				} else if (arguments[z] == ProxyInterface.DOUBLE) {
+					stack.push(SleepUtils.getScalar(((Double) arg).doubleValue()));
+				} else if (arguments[z] == ProxyInterface.BOOLEAN) {
+					stack.push(SleepUtils.getScalar(((Boolean) arg).booleanValue() ? 1 : 0));
+				} else if (arguments[z] == ProxyInterface.STRING) {
+					stack.push(SleepUtils.getScalar((String) arg));
+				} else {
+					stack.push(ObjectUtilities.BuildScalar(true, arg));
+				}
+			}
+		}
+		
+		/** converts what the function returned into the method's return type */
+		private Object toJava(final Scalar value, final ScriptInstance script) {
+		
+			if (returns == ProxyInterface.VOID) {
+				return null;
+			} else if (returns == ProxyInterface.OTHER || returns == ProxyInterface.STRING || value.getArray() != null || value.getHash() != null) {
+				return ObjectUtilities.buildArgument(returnType, value, script);
+			} else if (returns == ProxyInterface.INT) {
+				return Integer.valueOf(value.intValue());
+			} else if (returns == ProxyInterface.LONG) {
+				return Long.valueOf(value.longValue());
+			} else if (returns == ProxyInterface.DOUBLE) {
+				return Double.valueOf(value.doubleValue());
+			} else {
+				return Boolean.valueOf(value.intValue() != 0);
+			}
+		}
+	}
+	
+	private static int kind(final Class<?> type) {
+	
+		if (type == Void.TYPE) {
+			return ProxyInterface.VOID;
+		} else if (type == Boolean.TYPE) {
+			return ProxyInterface.BOOLEAN;
+		} else if (type == Integer.TYPE) {
+			return ProxyInterface.INT;
+		} else if (type == Long.TYPE) {
+			return ProxyInterface.LONG;
+		} else if (type == Double.TYPE) {
+			return ProxyInterface.DOUBLE;
+		} else if (type == String.class) {
+			return ProxyInterface.STRING;
+		}
+		
+		return ProxyInterface.OTHER;
+	}
+	
 	public ProxyInterface(final Function _method, final ScriptInstance _script) {
 	
 		func = _method;
@@ -101,6 +231,17 @@ public class ProxyInterface implements InvocationHandler {
 	@Override
 	public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
 	
+		Dispatch dispatch = last;
+		if (dispatch == null || dispatch.method != method) {
+			final Map<Method, Dispatch> table = ProxyInterface.DISPATCH.get(proxy.getClass());
+			dispatch = table.get(method);
+			if (dispatch == null) {
+				dispatch = new Dispatch(method);
+				table.put(method, dispatch);
+			}
+			last = dispatch;
+		}
+		
 		synchronized(script.getScriptVariables()) {
 			script.getScriptEnvironment().pushSource("<Java>");
 			
@@ -109,11 +250,7 @@ public class ProxyInterface implements InvocationHandler {
 			final boolean isTrace = (script.getDebugFlags() & ScriptInstance.DEBUG_TRACE_CALLS) == ScriptInstance.DEBUG_TRACE_CALLS;
 			StringBuffer message = null;
 			
-			if (args != null) {
-				for (int z = args.length - 1; z >= 0; z--) {
-					temp.push(ObjectUtilities.BuildScalar(true, args[z]));
-				}
-			}
+			dispatch.push(temp, args);
 			
 			Scalar value;
 			
@@ -121,7 +258,7 @@ public class ProxyInterface implements InvocationHandler {
 			
 			if (isTrace) {
 				if (!script.isProfileOnly()) {
-					message = new StringBuffer("[" + func + " " + method.getName());
+					message = new StringBuffer("[" + func + " " + dispatch.name);
 					
 					if (!temp.isEmpty()) {
 						message.append(": " + SleepUtils.describe(temp));
@@ -131,7 +268,7 @@ public class ProxyInterface implements InvocationHandler {
 				}
 				
 				long stat = System.currentTimeMillis();
-				value = func.evaluate(method.getName(), script, temp);
+				value = func.evaluate(dispatch.name, script, temp);
 				stat = System.currentTimeMillis() - stat;
 				
 				if (func.getClass() == SleepClosure.class) {
@@ -148,7 +285,7 @@ public class ProxyInterface implements InvocationHandler {
 					script.fireWarning(message.toString(), -1, true);
 				}
 			} else {
-				value = func.evaluate(method.getName(), script, temp);
+				value = func.evaluate(dispatch.name, script, temp);
 			}
 			script.getScriptEnvironment().popExceptionContext();
 			script.getScriptEnvironment().clearReturn();
@@ -167,7 +304,7 @@ public class ProxyInterface implements InvocationHandler {
 			}
 			
 			if (value != null) {
-				return ObjectUtilities.buildArgument(method.getReturnType(), value, script);
+				return dispatch.toJava(value, script);
 			}
 			
 			return null;
@@ -17,10 +17,13 @@
  */
 package sleep.engine.atoms;
 
+import java.util.Hashtable;
+
 import sleep.engine.Block;
 import sleep.engine.CallRequest;
 import sleep.engine.Step;
 import sleep.interfaces.Function;
+import sleep.runtime.EnvironmentTable;
 import sleep.runtime.Scalar;
 import sleep.runtime.ScriptEnvironment;
 import sleep.runtime.SleepUtils;
@@ -34,6 +37,43 @@ public class Call extends Step {
 	
 	String function;
 	
+	/**
+	 * What this call site resolved to last time, valid while the function
+	 * table and its version are unchanged
+	 */
+	private transient Target target;
+	
+	/**
+	 * An inline cache entry. What the name is bound to depends only on the
+	 * function table, which every script environment of a script shares. The
+	 * request is made for one script environment and made again, without
+	 * another lookup, when a call comes through another one. Everything it
+	 * holds is the same for each call through its environment, so recursive
+	 * calls can share it too.
+	 */
+	private static final class Target {
+		
+		final Hashtable table;
+		
+		final int version;
+		
+		/** the Function or inline Block the name is bound to, null if neither */
+		final Object callee;
+		
+		final ScriptEnvironment environment;
+		
+		final CallRequest request;
+		
+		Target(final Hashtable table, final int version, final Object callee, final ScriptEnvironment environment, final CallRequest request) {
+		
+			this.table = table;
+			this.version = version;
+			this.callee = callee;
+			this.environment = environment;
+			this.request = request;
+		}
+	}
+	
 	public Call(final String f) {
 	
 		function = f;
@@ -54,14 +94,30 @@ public class Call extends Step {
 	@Override
 	public Scalar evaluate(final ScriptEnvironment e) {
 	
-		final Function callme = e.getFunction(function);
-		Block inline = null;
+		final Hashtable table = e.getEnvironment();
 		
-		if (callme != null) {
-			final CallRequest.FunctionCallRequest request = new CallRequest.FunctionCallRequest(e, getLineNumber(), function, callme);
-			request.CallFunction();
-		} else if ((inline = e.getBlock(function)) != null) {
-			final CallRequest.InlineCallRequest request = new CallRequest.InlineCallRequest(e, getLineNumber(), function, inline);
+		CallRequest request;
+		
+		if (table instanceof EnvironmentTable) {
+			Target cached = target;
+			
+			if (cached == null || cached.table != table || cached.version != ((EnvironmentTable) table).getVersion()) {
+				// read the version first, a rebinding after this just means another lookup next time
+				final int version = ((EnvironmentTable) table).getVersion();
+				final Object callee = lookup(e);
+				cached = new Target(table, version, callee, e, request(e, callee));
+				target = cached;
+			} else if (cached.environment != e) {
+				cached = new Target(table, cached.version, cached.callee, e, request(e, cached.callee));
+				target = cached;
+			}
+			
+			request = cached.request;
+		} else {
+			request = request(e, lookup(e));
+		}
+		
+		if (request != null) {
 			request.CallFunction();
 		} else {
 			e.getScriptInstance().fireWarning("Attempted to call non-existent function " + function, getLineNumber());
@@ -70,4 +126,30 @@ public class Call extends Step {
 		
 		return null;
 	}
+	
+	/**
+	 * Looks the function up, returns the Function or inline Block it is bound
+	 * to, null if there is nothing by this name
+	 */
+	private Object lookup(final ScriptEnvironment e) {
+	
+		final Function callme = e.getFunction(function);
+		
+		return callme != null ? callme : e.getBlock(function);
+	}
+	
+	/**
+	 * Makes the request that calls what lookup found, returns null if it found
+	 * nothing
+	 */
+	private CallRequest request(final ScriptEnvironment e, final Object callee) {
+	
+		if (callee instanceof Function) {
+			return new CallRequest.FunctionCallRequest(e, getLineNumber(), function, (Function) callee);
+		} else if (callee instanceof Block) {
+			return new CallRequest.InlineCallRequest(e, getLineNumber(), function, (Block) callee);
+		}
+		
+		return null;
+	}
 }
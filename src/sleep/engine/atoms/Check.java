@@ -18,10 +18,18 @@
 package sleep.engine.atoms;
 
 import java.io.Serializable;
+import java.util.Hashtable;
+import java.util.Stack;
 
+import sleep.bridges.BasicNumbers;
 import sleep.engine.Block;
+import sleep.engine.types.DoubleValue;
+import sleep.engine.types.IntValue;
+import sleep.engine.types.LongValue;
 import sleep.interfaces.Predicate;
+import sleep.runtime.EnvironmentTable;
 import sleep.runtime.Scalar;
+import sleep.runtime.ScalarType;
 import sleep.runtime.ScriptEnvironment;
 import sleep.runtime.ScriptInstance;
 import sleep.runtime.SleepUtils;
@@ -96,6 +104,28 @@ public class Check implements Serializable {
 	
 	public String name;
 	
+	private static final int EQUAL = 0;
+	
+	private static final int NOT_EQUAL = 1;
+	
+	private static final int LESS = 2;
+	
+	private static final int GREATER = 3;
+	
+	private static final int LESS_EQUAL = 4;
+	
+	private static final int GREATER_EQUAL = 5;
+	
+	/**
+	 * Which of BasicNumbers' comparisons the name is, -1 for anything else
+	 */
+	private final int comparison;
+	
+	/**
+	 * The predicate this check found last time
+	 */
+	private transient Resolved predicate;
+	
 	/**
 	 * Converts this object to a string, used by the sleep engine for
 	 * constructing an AST like thing
@@ -152,6 +182,27 @@ public class Check implements Serializable {
 		
 		iftrue = null;
 		iffalse = null;
+		
+		comparison = Check.comparison(name);
+	}
+	
+	private static int comparison(final String name) {
+	
+		if (name.equals("==")) {
+			return Check.EQUAL;
+		} else if (name.equals("!=")) {
+			return Check.NOT_EQUAL;
+		} else if (name.equals("<")) {
+			return Check.LESS;
+		} else if (name.equals(">")) {
+			return Check.GREATER;
+		} else if (name.equals("<=")) {
+			return Check.LESS_EQUAL;
+		} else if (name.equals(">=")) {
+			return Check.GREATER_EQUAL;
+		}
+		
+		return -1;
 	}
 	
 	/**
@@ -169,6 +220,24 @@ public class Check implements Serializable {
 		}
 	}
 	
+	/** returns the block that pushes the operands of this check */
+	public Block getSetup() {
+	
+		return setup;
+	}
+	
+	/** returns true if the result of the predicate is negated */
+	public boolean isNegated() {
+	
+		return negate;
+	}
+	
+	/** returns true if this check is part of an &amp;&amp; or || chain */
+	public boolean isCompound() {
+	
+		return iftrue != null || iffalse != null;
+	}
+	
 	private int hint = -1;
 	
 	/**
@@ -188,7 +257,7 @@ public class Check implements Serializable {
 	
 		env.CreateFrame();
 		setup.evaluate(env);
-		final Predicate choice = env.getPredicate(name);
+		final Predicate choice = getPredicate(env);
 		
 		boolean temp;
 		
@@ -227,6 +296,8 @@ public class Check implements Serializable {
 				}
 				
 				env.getScriptInstance().fireWarning(message.toString(), hint, true);
+			} else if (comparison >= 0 && choice instanceof BasicNumbers) {
+				temp = compare(env, choice);
 			} else {
 				temp = choice.decide(name, env.getScriptInstance(), env.getCurrentFrame());
 			}
@@ -250,4 +321,100 @@ public class Check implements Serializable {
 			return false;
 		}
 	}
+	
+	/** returns what the predicate is bound to in this environment, null if nothing */
+	private Predicate getPredicate(final ScriptEnvironment env) {
+	
+		final Hashtable table = env.getEnvironment();
+		if (!(table instanceof EnvironmentTable)) {
+			return (Predicate) table.get(name);
+		}
+		
+		Resolved cached = predicate;
+		if (cached == null || !cached.isCurrent(table)) {
+			cached = Resolved.lookup(table, name);
+			predicate = cached;
+		}
+		
+		return (Predicate) cached.value;
+	}
+	
+	/**
+	 * Compares two plain numbers the way BasicNumbers would, without going
+	 * through the predicate. Anything else is handed to the predicate.
+	 */
+	private boolean compare(final ScriptEnvironment env, final Predicate choice) {
+	
+		final Stack frame = env.getCurrentFrame();
+		final ScalarType sb = frame.size() >= 2 ? ((Scalar) frame.peek()).getActualValue() : null;
+		final ScalarType sa = frame.size() >= 2 ? ((Scalar) frame.get(frame.size() - 2)).getActualValue() : null;
+		
+		if (sa == null || sb == null || !Check.isNumber(sa.getType()) || !Check.isNumber(sb.getType())) {
+			return choice.decide(name, env.getScriptInstance(), frame);
+		}
+		
+		frame.pop();
+		frame.pop();
+		
+		if (sa.getType() == DoubleValue.class || sb.getType() == DoubleValue.class) {
+			final double a = sa.doubleValue();
+			final double b = sb.doubleValue();
+			
+			switch(comparison) {
+				case EQUAL:
+					return a == b;
+				case NOT_EQUAL:
+					return a != b;
+				case LESS:
+					return a < b;
+				case GREATER:
+					return a > b;
+				case LESS_EQUAL:
+					return a <= b;
+				default:
+					return a >= b;
+			}
+		} else if (sa.getType() == LongValue.class || sb.getType() == LongValue.class) {
+			final long a = sa.longValue();
+			final long b = sb.longValue();
+			
+			switch(comparison) {
+				case EQUAL:
+					return a == b;
+				case NOT_EQUAL:
+					return a != b;
+				case LESS:
+					return a < b;
+				case GREATER:
+					return a > b;
+				case LESS_EQUAL:
+					return a <= b;
+				default:
+					return a >= b;
+			}
+		}
+		
+		final int a = sa.intValue();
+		final int b = sb.intValue();
+		
+		switch(comparison) {
+			case EQUAL:
+				return a == b;
+			case NOT_EQUAL:
+				return a != b;
+			case LESS:
+				return a < b;
+			case GREATER:
+				return a > b;
+			case LESS_EQUAL:
+				return a <= b;
+			default:
+				return a >= b;
+		}
+	}
+	
+	private static boolean isNumber(final Class type) {
+	
+		return type == IntValue.class || type == LongValue.class || type == DoubleValue.class;
+	}
 }
@@ -17,8 +17,10 @@
  */
 package sleep.engine.atoms;
 
+import sleep.bridges.LocalVariable;
 import sleep.engine.Step;
 import sleep.interfaces.Function;
+import sleep.interfaces.Variable;
 import sleep.runtime.Scalar;
 import sleep.runtime.ScriptEnvironment;
 import sleep.runtime.ScriptInstance;
@@ -33,6 +35,11 @@ public class Get extends Step {
 	
 	String value;
 	
+	/**
+	 * Where this variable was found in the local scope last time
+	 */
+	private transient int slot = -1;
+	
 	public Get(final String v) {
 	
 		value = v;
@@ -53,7 +60,7 @@ public class Get extends Step {
 			final Scalar blah = SleepUtils.getScalar(func);
 			e.getCurrentFrame().push(blah);
 		} else {
-			Scalar structure = e.getScalar(value);
+			Scalar structure = lookup(e);
 			
 			if (structure == null) {
 				if (value.charAt(0) == '@') {
@@ -76,4 +83,21 @@ public class Get extends Step {
 		
 		return null;
 	}
+	
+	private Scalar lookup(final ScriptEnvironment e) {
+	
+		final Variable local = e.getScriptVariables().getLocalVariables();
+		
+		if (local instanceof LocalVariable) {
+			final LocalVariable scope = (LocalVariable) local;
+			final int found = scope.slotOf(value, slot);
+			
+			if (found >= 0) {
+				slot = found;
+				return scope.getSlot(found);
+			}
+		}
+		
+		return e.getScalar(value);
+	}
 }
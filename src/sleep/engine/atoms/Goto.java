@@ -65,6 +65,12 @@ public class Goto extends Step {
 		return temp.toString();
 	}
 	
+	/** returns the condition checked before each pass through the loop */
+	public Check getCondition() {
+	
+		return start;
+	}
+	
 	public void setIncrement(final Block i) {
 	
 		increment = i;
@@ -0,0 +1,234 @@
+/* 
+ * Copyright (C) 2002-2012 Raphael Mudge (rsmudge@gmail.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of 
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package sleep.engine.atoms;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Stack;
+
+import sleep.engine.ObjectUtilities;
+import sleep.runtime.Scalar;
+
+/**
+ * A small polymorphic inline cache for the Java calls made by one step. Each
+ * entry remembers the method or constructor ObjectUtilities picked for a
+ * receiver class and the shapes of the arguments (see
+ * ObjectUtilities.getArgumentShape), so the next call with the same classes
+ * skips the search. Entries carry a method handle taking the receiver and the
+ * converted arguments, the step falls back to reflection when there isn't one.
+ *
+ * <p>
+ * Steps are shared by every thread running a block, so entries are immutable
+ * and the array holding them is replaced rather than changed. Once the cache
+ * is full the step just goes back to searching.
+ * </p>
+ */
+final class InlineCache {
+	
+	static final int MAXIMUM = 4;
+	
+	private static final MethodType INVOKER = MethodType.methodType(Object.class, Object.class, Object[].class);
+	
+	private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+	
+	static final class Entry {
+		
+		private final Class<?> receiver;
+		
+		private final Object[] shape;
+		
+		final Method method;
+		
+		final Constructor<?> constructor;
+		
+		final Class<?>[] types;
+		
+		/**
+		 * types with the primitives swapped for their wrappers
+		 */
+		private final Class<?>[] boxed;
+		
+		/**
+		 * (receiver, arguments) to the result, null to use reflection
+		 */
+		private final MethodHandle handle;
+		
+		private Entry(final Class<?> receiver, final Object[] shape, final Method method, final Constructor<?> constructor, final Class<?>[] types, final MethodHandle handle) {
+		
+			this.receiver = receiver;
+			this.shape = shape;
+			this.method = method;
+			this.constructor = constructor;
+			this.types = types;
+			this.handle = handle;
+			
+			boxed = new Class<?>[types.length];
+			for (int x = 0; x < types.length; x++) {
+				boxed[x] = MethodType.methodType(types[x]).wrap().returnType();
+			}
+		}
+		
+		private boolean matches(final Class<?> theClass, final Stack<Scalar> arguments) {
+		
+			if (receiver != theClass || shape.length != arguments.size()) {
+				return false;
+			}
+			
+			for (int x = 0; x < shape.length; x++) {
+				if (shape[x] != ObjectUtilities.getArgumentShape(arguments.get(x))) {
+					return false;
+				}
+			}
+			
+			return true;
+		}
+		
+		/**
+		 * true if the handle can take these arguments. When it can't,
+		 * reflection gets to report what is wrong with them.
+		 */
+		boolean canInvoke(final Object[] parameters) {
+		
+			if (handle == null) {
+				return false;
+			}
+			
+			for (int x = 0; x < types.length; x++) {
+				if (types[x].isPrimitive()) {
+					if (parameters[x] == null || boxed[x] != parameters[x].getClass()) {
+						return false;
+					}
+				} else if (parameters[x] != null && !types[x].isInstance(parameters[x])) {
+					return false;
+				}
+			}
+			
+			return true;
+		}
+		
+		/**
+		 * calls the handle, canInvoke must have said yes. Anything thrown is
+		 * thrown by the method itself.
+		 */
+		Object invoke(final Object target, final Object[] parameters) throws Throwable {
+		
+			return handle.invokeExact(target, parameters);
+		}
+	}
+	
+	private volatile Entry[] entries = new Entry[0];
+	
+	/**
+	 * the entry for these arguments, null when there is none
+	 */
+	Entry find(final Class<?> theClass, final Stack<Scalar> arguments) {
+	
+		final Entry[] temp = entries;
+		
+		for (final Entry entry : temp) {
+			if (entry.matches(theClass, arguments)) {
+				return entry;
+			}
+		}
+		
+		return null;
+	}
+	
+	/**
+	 * remembers the method found for these arguments, if there is room and the
+	 * arguments can be cached at all
+	 */
+	Entry add(final Class<?> theClass, final Stack<Scalar> arguments, final Method method) {
+	
+		final Object[] shape = InlineCache.shape(arguments);
+		if (shape == null || entries.length >= InlineCache.MAXIMUM) {
+			return null;
+		}
+		
+		MethodHandle handle = null;
+		try {
+			handle = LOOKUP.unreflect(method).asFixedArity();
+			handle = handle.asSpreader(Object[].class, method.getParameterTypes().length);
+			if (Modifier.isStatic(method.getModifiers())) {
+				handle = MethodHandles.dropArguments(handle, 0, Object.class);
+			}
+			handle = handle.asType(InlineCache.INVOKER);
+		} catch (final Exception ex) {
+			handle = null; /* not ours to call, reflection will say so */
+		}
+		
+		return add(new Entry(theClass, shape, method, null, method.getParameterTypes(), handle));
+	}
+	
+	/**
+	 * remembers the constructor found for these arguments
+	 */
+	Entry add(final Class<?> theClass, final Stack<Scalar> arguments, final Constructor<?> constructor) {
+	
+		final Object[] shape = InlineCache.shape(arguments);
+		if (shape == null || entries.length >= InlineCache.MAXIMUM) {
+			return null;
+		}
+		
+		MethodHandle handle = null;
+		if (!Modifier.isAbstract(theClass.getModifiers())) {
+			try {
+				handle = LOOKUP.unreflectConstructor(constructor).asFixedArity();
+				handle = handle.asSpreader(Object[].class, constructor.getParameterTypes().length);
+				handle = MethodHandles.dropArguments(handle, 0, Object.class).asType(InlineCache.INVOKER);
+			} catch (final Exception ex) {
+				handle = null;
+			}
+		}
+		
+		return add(new Entry(theClass, shape, null, constructor, constructor.getParameterTypes(), handle));
+	}
+	
+	private synchronized Entry add(final Entry entry) {
+	
+		final Entry[] temp = entries;
+		if (temp.length >= InlineCache.MAXIMUM) {
+			return entry;
+		}
+		
+		final Entry[] next = new Entry[temp.length + 1];
+		System.arraycopy(temp, 0, next, 0, temp.length);
+		next[temp.length] = entry;
+		entries = next;
+		
+		return entry;
+	}
+	
+	private static Object[] shape(final Stack<Scalar> arguments) {
+	
+		final Object[] shape = new Object[arguments.size()];
+		
+		for (int x = 0; x < shape.length; x++) {
+			shape[x] = ObjectUtilities.getArgumentShape(arguments.get(x));
+			if (shape[x] == null) {
+				return null;
+			}
+		}
+		
+		return shape;
+	}
+}
@@ -0,0 +1,263 @@
+/* 
+ * Copyright (C) 2002-2012 Raphael Mudge (rsmudge@gmail.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of 
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package sleep.engine.atoms;
+
+import java.util.Stack;
+
+import sleep.bridges.BasicNumbers;
+import sleep.engine.types.DoubleValue;
+import sleep.engine.types.IntValue;
+import sleep.engine.types.LongValue;
+import sleep.runtime.Scalar;
+import sleep.runtime.ScalarType;
+import sleep.runtime.ScriptEnvironment;
+import sleep.runtime.SleepUtils;
+
+/**
+ * An arithmetic operator the code generator knows is one of BasicNumbers'.
+ * While the operator is still bound to BasicNumbers and both operands hold
+ * plain int, long or double values the result is worked out here, picking the
+ * same int, long or double arithmetic BasicNumbers would. Anything else is
+ * left to the bound operator like any other Operate.
+ */
+public class NumericOperate extends Operate {
+	
+	/**
+     * 
+     */
+	private static final long serialVersionUID = 3022584806151946271L;
+	
+	static final int ADD = 0;
+	
+	static final int SUBTRACT = 1;
+	
+	static final int MULTIPLY = 2;
+	
+	static final int DIVIDE = 3;
+	
+	static final int MODULO = 4;
+	
+	static final int POWER = 5;
+	
+	static final int SHIFT_RIGHT = 6;
+	
+	static final int SHIFT_LEFT = 7;
+	
+	static final int AND = 8;
+	
+	static final int OR = 9;
+	
+	static final int XOR = 10;
+	
+	private final int opcode;
+	
+	/**
+	 * Returns the opcode for one of BasicNumbers' operators, -1 for anything
+	 * else
+	 */
+	public static int opcode(final String oper) {
+	
+		if (oper.equals("+")) {
+			return NumericOperate.ADD;
+		} else if (oper.equals("-")) {
+			return NumericOperate.SUBTRACT;
+		} else if (oper.equals("*")) {
+			return NumericOperate.MULTIPLY;
+		} else if (oper.equals("/")) {
+			return NumericOperate.DIVIDE;
+		} else if (oper.equals("% ")) {
+			return NumericOperate.MODULO;
+		} else if (oper.equals("**")) {
+			return NumericOperate.POWER;
+		} else if (oper.equals(">>")) {
+			return NumericOperate.SHIFT_RIGHT;
+		} else if (oper.equals("<<")) {
+			return NumericOperate.SHIFT_LEFT;
+		} else if (oper.equals("&")) {
+			return NumericOperate.AND;
+		} else if (oper.equals("|")) {
+			return NumericOperate.OR;
+		} else if (oper.equals("^")) {
+			return NumericOperate.XOR;
+		}
+		
+		return -1;
+	}
+	
+	public NumericOperate(final String o) {
+	
+		super(o);
+		opcode = NumericOperate.opcode(o);
+	}
+	
+	@Override
+	public Scalar evaluate(final ScriptEnvironment e) {
+	
+		if (getOperator(e) instanceof BasicNumbers) {
+			final Stack frame = e.getCurrentFrame();
+			final Scalar result = frame.size() >= 2 ? operate((Scalar) frame.peek(), (Scalar) frame.get(frame.size() - 2)) : null;
+			
+			if (result != null) {
+				e.KillFrame();
+				e.getCurrentFrame().push(result);
+				return null;
+			}
+		}
+		
+		return super.evaluate(e);
+	}
+	
+	/**
+	 * Works this operator out for two literals ahead of time, the way
+	 * BasicNumbers would. Returns null when it has to wait for run time.
+	 */
+	public Scalar fold(final Scalar lhs, final Scalar rhs) {
+	
+		return operate(lhs, rhs);
+	}
+	
+	/**
+	 * Returns null when the operands aren't plain numbers
+	 */
+	private Scalar operate(final Scalar lhs, final Scalar rhs) {
+	
+		final ScalarType left = lhs.getActualValue();
+		final ScalarType right = rhs.getActualValue();
+		
+		if (left == null || right == null) {
+			return null;
+		}
+		
+		final Class lt = left.getType();
+		final Class rt = right.getType();
+		
+		if (lt == IntValue.class && rt == IntValue.class) {
+			return NumericOperate.operate(opcode, left.intValue(), right.intValue());
+		}
+		
+		if (!NumericOperate.isNumber(lt) || !NumericOperate.isNumber(rt)) {
+			return null;
+		}
+		
+		if ((lt == DoubleValue.class || rt == DoubleValue.class) && opcode <= NumericOperate.POWER) {
+			return NumericOperate.operate(opcode, left.doubleValue(), right.doubleValue());
+		}
+		
+		if (lt == LongValue.class || rt == LongValue.class) {
+			return NumericOperate.operate(opcode, left.longValue(), right.longValue());
+		}
+		
+		// a bitwise operator with a double and an int, BasicNumbers does that as ints
+		return NumericOperate.operate(opcode, left.intValue(), right.intValue());
+	}
+	
+	private static boolean isNumber(final Class type) {
+	
+		return type == IntValue.class || type == LongValue.class || type == DoubleValue.class;
+	}
+	
+	private static Scalar operate(final int opcode, final int a, final int b) {
+	
+		// division by zero is left to BasicNumbers to report
+		if (b == 0 && (opcode == NumericOperate.DIVIDE || opcode == NumericOperate.MODULO)) {
+			return null;
+		}
+		
+		switch(opcode) {
+			case ADD:
+				return SleepUtils.getScalar(a + b);
+			case SUBTRACT:
+				return SleepUtils.getScalar(a - b);
+			case MULTIPLY:
+				return SleepUtils.getScalar(a * b);
+			case DIVIDE:
+				return SleepUtils.getScalar(a / b);
+			case MODULO:
+				return SleepUtils.getScalar(a % b);
+			case POWER:
+				return SleepUtils.getScalar(Math.pow(a, b));
+			case SHIFT_RIGHT:
+				return SleepUtils.getScalar(a >> b);
+			case SHIFT_LEFT:
+				return SleepUtils.getScalar(a << b);
+			case AND:
+				return SleepUtils.getScalar(a & b);
+			case OR:
+				return SleepUtils.getScalar(a | b);
+			case XOR:
+				return SleepUtils.getScalar(a ^ b);
+		}
+		
+		return null;
+	}
+	
+	private static Scalar operate(final int opcode, final long a, final long b) {
+	
+		// division by zero is left to BasicNumbers to report
+		if (b == 0 && (opcode == NumericOperate.DIVIDE || opcode == NumericOperate.MODULO)) {
+			return null;
+		}
+		
+		switch(opcode) {
+			case ADD:
+				return SleepUtils.getScalar(a + b);
+			case SUBTRACT:
+				return SleepUtils.getScalar(a - b);
+			case MULTIPLY:
+				return SleepUtils.getScalar(a * b);
+			case DIVIDE:
+				return SleepUtils.getScalar(a / b);
+			case MODULO:
+				return SleepUtils.getScalar(a % b);
+			case POWER:
+				return SleepUtils.getScalar(Math.pow(a, b));
+			case SHIFT_RIGHT:
+				return SleepUtils.getScalar(a >> b);
+			case SHIFT_LEFT:
+				return SleepUtils.getScalar(a << b);
+			case AND:
+				return SleepUtils.getScalar(a & b);
+			case OR:
+				return SleepUtils.getScalar(a | b);
+			case XOR:
+				return SleepUtils.getScalar(a ^ b);
+		}
+		
+		return null;
+	}
+	
+	private static Scalar operate(final int opcode, final double a, final double b) {
+	
+		switch(opcode) {
+			case ADD:
+				return SleepUtils.getScalar(a + b);
+			case SUBTRACT:
+				return SleepUtils.getScalar(a - b);
+			case MULTIPLY:
+				return SleepUtils.getScalar(a * b);
+			case DIVIDE:
+				return SleepUtils.getScalar(a / b);
+			case MODULO:
+				return SleepUtils.getScalar(a % b);
+			case POWER:
+				return SleepUtils.getScalar(Math.pow(a, b));
+		}
+		
+		return null;
+	}
+}
@@ -40,12 +40,29 @@ public class ObjectAccess extends Step {
 	
 	protected Class classRef;
 	
+	/**
+	 * the methods this step has called, built as they are found
+	 */
+	private transient InlineCache cache;
+	
 	public ObjectAccess(final String _name, final Class _classRef) {
 	
 		name = _name;
 		classRef = _classRef;
 	}
 	
+	/** returns the name of the method or field this step accesses */
+	public String getName() {
+	
+		return name;
+	}
+	
+	/** returns the class of a static access, null otherwise */
+	public Class getClassRef() {
+	
+		return classRef;
+	}
+	
 	@Override
 	public String toString() {
 	
@@ -62,13 +79,16 @@ public class ObjectAccess extends Step {
 		
 		protected Class theClass;
 		
-		public MethodCallRequest(final ScriptEnvironment e, final int lineNo, final Method method, final Scalar _scalar, final String _name, final Class _class) {
+		protected InlineCache.Entry entry;
+		
+		public MethodCallRequest(final ScriptEnvironment e, final int lineNo, final Method method, final Scalar _scalar, final String _name, final Class _class, final InlineCache.Entry _entry) {
 		
 			super(e, lineNo);
 			theMethod = method;
 			scalar = _scalar;
 			name = _name;
 			theClass = _class;
+			entry = _entry;
 		}
 		
 		@Override
@@ -104,7 +124,20 @@ public class ObjectAccess extends Step {
 		@Override
 		protected Scalar execute() {
 		
-			final Object[] parameters = ObjectUtilities.buildArgumentArray(theMethod.getParameterTypes(), getScriptEnvironment().getCurrentFrame(), getScriptEnvironment().getScriptInstance());
+			final Object[] parameters = ObjectUtilities.buildArgumentArray(entry != null ? entry.types : theMethod.getParameterTypes(), getScriptEnvironment().getCurrentFrame(), getScriptEnvironment().getScriptInstance());
+			
+			if (entry != null && entry.canInvoke(parameters)) {
+				Object value;
+				
+				try {
+					value = entry.invoke(scalar != null ? scalar.objectValue() : null, parameters);
+				} catch (final Throwable ex) {
+					getScriptEnvironment().flagError(ex);
+					throw new RuntimeException(new InvocationTargetException(ex));
+				}
+				
+				return ObjectUtilities.BuildScalar(true, value);
+			}
 			
 			try {
 				return ObjectUtilities.BuildScalar(true, theMethod.invoke(scalar != null ? scalar.objectValue() : null, parameters));
@@ -186,15 +219,24 @@ public class ObjectAccess extends Step {
 		// try to invoke stuff on the object...
 		//
 		
-		final Method theMethod = ObjectUtilities.findMethod(theClass, name, e.getCurrentFrame());
+		InlineCache.Entry entry = cache == null ? null : cache.find(theClass, e.getCurrentFrame());
+		
+		final Method theMethod = entry != null ? entry.method : ObjectUtilities.findMethod(theClass, name, e.getCurrentFrame());
 		
 		if (theMethod != null && (classRef == null || (theMethod.getModifiers() & Modifier.STATIC) == Modifier.STATIC)) {
-			try {
-				theMethod.setAccessible(true);
-			} catch (final Exception ex) {
+			if (entry == null) {
+				try {
+					theMethod.setAccessible(true);
+				} catch (final Exception ex) {
+				}
+				
+				if (cache == null) {
+					cache = new InlineCache();
+				}
+				entry = cache.add(theClass, e.getCurrentFrame(), theMethod);
 			}
 			
-			final MethodCallRequest request = new MethodCallRequest(e, getLineNumber(), theMethod, scalar, name, theClass);
+			final MethodCallRequest request = new MethodCallRequest(e, getLineNumber(), theMethod, scalar, name, theClass, entry);
 			request.CallFunction();
 			return null;
 		} else if (theMethod == null && !e.getCurrentFrame().isEmpty()) {
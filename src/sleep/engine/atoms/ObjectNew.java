@@ -36,11 +36,22 @@ public class ObjectNew extends Step {
 	
 	protected Class name;
 	
+	/**
+	 * the constructors this step has called, built as they are found
+	 */
+	private transient InlineCache cache;
+	
 	public ObjectNew(final Class _name) {
 	
 		name = _name;
 	}
 	
+	/** returns the class this step creates an instance of */
+	public Class getClassRef() {
+	
+		return name;
+	}
+	
 	@Override
 	public String toString() {
 	
@@ -53,11 +64,14 @@ public class ObjectNew extends Step {
 		
 		protected Class name;
 		
-		public ConstructorCallRequest(final ScriptEnvironment e, final int lineNo, final Constructor cont, final Class _name) {
+		protected InlineCache.Entry entry;
+		
+		public ConstructorCallRequest(final ScriptEnvironment e, final int lineNo, final Constructor cont, final Class _name, final InlineCache.Entry _entry) {
 		
 			super(e, lineNo);
 			theConstructor = cont;
 			name = _name;
+			entry = _entry;
 		}
 		
 		@Override
@@ -86,7 +100,20 @@ public class ObjectNew extends Step {
 		@Override
 		protected Scalar execute() {
 		
-			final Object[] parameters = ObjectUtilities.buildArgumentArray(theConstructor.getParameterTypes(), getScriptEnvironment().getCurrentFrame(), getScriptEnvironment().getScriptInstance());
+			final Object[] parameters = ObjectUtilities.buildArgumentArray(entry != null ? entry.types : theConstructor.getParameterTypes(), getScriptEnvironment().getCurrentFrame(), getScriptEnvironment().getScriptInstance());
+			
+			if (entry != null && entry.canInvoke(parameters)) {
+				Object value;
+				
+				try {
+					value = entry.invoke(null, parameters);
+				} catch (final Throwable ex) {
+					getScriptEnvironment().flagError(ex);
+					throw new RuntimeException(new InvocationTargetException(ex));
+				}
+				
+				return ObjectUtilities.BuildScalar(false, value);
+			}
 			
 			try {
 				return ObjectUtilities.BuildScalar(false, theConstructor.newInstance(parameters));
@@ -121,14 +148,24 @@ public class ObjectNew extends Step {
 	public Scalar evaluate(final ScriptEnvironment e) {
 	
 		Scalar result;
-		final Constructor theConstructor = ObjectUtilities.findConstructor(name, e.getCurrentFrame());
+		InlineCache.Entry entry = cache == null ? null : cache.find(name, e.getCurrentFrame());
+		
+		final Constructor theConstructor = entry != null ? entry.constructor : ObjectUtilities.findConstructor(name, e.getCurrentFrame());
 		
 		if (theConstructor != null) {
-			try {
-				theConstructor.setAccessible(true);
-			} catch (final Exception ex) {
+			if (entry == null) {
+				try {
+					theConstructor.setAccessible(true);
+				} catch (final Exception ex) {
+				}
+				
+				if (cache == null) {
+					cache = new InlineCache();
+				}
+				entry = cache.add(name, e.getCurrentFrame(), theConstructor);
 			}
-			final ConstructorCallRequest request = new ConstructorCallRequest(e, getLineNumber(), theConstructor, name);
+			
+			final ConstructorCallRequest request = new ConstructorCallRequest(e, getLineNumber(), theConstructor, name, entry);
 			request.CallFunction();
 			return null;
 		} else {
@@ -17,8 +17,11 @@
  */
 package sleep.engine.atoms;
 
+import java.util.Hashtable;
+
 import sleep.engine.Step;
 import sleep.interfaces.Operator;
+import sleep.runtime.EnvironmentTable;
 import sleep.runtime.Scalar;
 import sleep.runtime.ScriptEnvironment;
 import sleep.runtime.SleepUtils;
@@ -32,11 +35,22 @@ public class Operate extends Step {
 	
 	String oper;
 	
+	/**
+	 * The operator this step found last time
+	 */
+	private transient Resolved operator;
+	
 	public Operate(final String o) {
 	
 		oper = o;
 	}
 	
+	/** returns the name of the operator this step applies */
+	public String getName() {
+	
+		return oper;
+	}
+	
 	@Override
 	public String toString(final String prefix) {
 	
@@ -55,7 +69,7 @@ public class Operate extends Step {
 	@Override
 	public Scalar evaluate(final ScriptEnvironment e) {
 	
-		final Operator callme = e.getOperator(oper);
+		final Operator callme = getOperator(e);
 		
 		if (callme != null) {
 			final Scalar temp = callme.operate(oper, e.getScriptInstance(), e.getCurrentFrame());
@@ -69,4 +83,21 @@ public class Operate extends Step {
 		
 		return null;
 	}
+	
+	/** returns what the operator is bound to in this environment, null if nothing */
+	protected Operator getOperator(final ScriptEnvironment e) {
+	
+		final Hashtable table = e.getEnvironment();
+		if (!(table instanceof EnvironmentTable)) {
+			return (Operator) table.get(oper);
+		}
+		
+		Resolved cached = operator;
+		if (cached == null || !cached.isCurrent(table)) {
+			cached = Resolved.lookup(table, oper);
+			operator = cached;
+		}
+		
+		return (Operator) cached.value;
+	}
 }
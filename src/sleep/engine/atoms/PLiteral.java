@@ -20,6 +20,7 @@ package sleep.engine.atoms;
 import java.io.Serializable;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Stack;
 
 import sleep.engine.Step;
 import sleep.runtime.Scalar;
@@ -91,6 +92,9 @@ public class PLiteral extends Step {
 	
 	private final List fragments;
 	
+	/** the fragments as an array, split out of the list once */
+	private transient Fragment[] parts;
+	
 	/**
 	 * requires a list of parsed literal fragments to use when constructing the
 	 * final string at runtime
@@ -110,26 +114,53 @@ public class PLiteral extends Step {
 		return f;
 	}
 	
+	/**
+	 * returns the string this literal always builds if there are no variables
+	 * in it, null otherwise
+	 */
+	public String getConstantString() {
+	
+		final StringBuilder result = new StringBuilder();
+		for (final Fragment f : getParts()) {
+			if (f.type != PLiteral.STRING_FRAGMENT) {
+				return null;
+			}
+			
+			result.append(f.element);
+		}
+		
+		return result.toString();
+	}
+	
+	private Fragment[] getParts() {
+	
+		Fragment[] temp = parts;
+		if (temp == null) {
+			temp = (Fragment[]) fragments.toArray(new Fragment[fragments.size()]);
+			parts = temp;
+		}
+		
+		return temp;
+	}
+	
 	private String buildString(final ScriptEnvironment e) {
 	
-		final StringBuffer result = new StringBuffer();
+		final StringBuilder result = new StringBuilder();
+		final Stack frame = e.getCurrentFrame();
 		int align = 0;
+		int arg = 0;
 		
 		String temp;
-		final Iterator i = fragments.iterator();
-		
-		while(i.hasNext()) {
-			final Fragment f = (Fragment) i.next();
-			
+		for (final Fragment f : getParts()) {
 			switch(f.type) {
 				case STRING_FRAGMENT:
 					result.append(f.element);
 					break;
 				case ALIGN_FRAGMENT:
-					align = ((Scalar) e.getCurrentFrame().remove(0)).getValue().intValue();
+					align = ((Scalar) frame.get(arg++)).getValue().intValue();
 					break;
 				case VAR_FRAGMENT:
-					temp = ((Scalar) e.getCurrentFrame().remove(0)).getValue().toString();
+					temp = ((Scalar) frame.get(arg++)).getValue().toString();
 					
 					for (int z = 0 - temp.length(); z > align; z--) {
 						result.append(" ");
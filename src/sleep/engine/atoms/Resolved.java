@@ -0,0 +1,58 @@
+/* 
+ * Copyright (C) 2002-2012 Raphael Mudge (rsmudge@gmail.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of 
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package sleep.engine.atoms;
+
+import java.util.Hashtable;
+
+import sleep.runtime.EnvironmentTable;
+
+/**
+ * What a name in the environment was bound to. It stays valid for as long as
+ * the EnvironmentTable it was read from is unchanged, so a step can keep one
+ * in a field and only go back to the Hashtable after something is rebound.
+ * Entries are never changed once made, which makes them safe to share
+ * between threads running the same block.
+ */
+final class Resolved {
+	
+	final Hashtable table;
+	
+	final int version;
+	
+	final Object value;
+	
+	private Resolved(final Hashtable table, final int version, final Object value) {
+	
+		this.table = table;
+		this.version = version;
+		this.value = value;
+	}
+	
+	/** looks the key up, the version is read first so a racing rebind only costs another lookup */
+	static Resolved lookup(final Hashtable table, final String key) {
+	
+		final int version = table instanceof EnvironmentTable ? ((EnvironmentTable) table).getVersion() : 0;
+		return new Resolved(table, version, table.get(key));
+	}
+	
+	/** returns true if this is still what the key is bound to in the table */
+	boolean isCurrent(final Hashtable other) {
+	
+		return other == table && other instanceof EnvironmentTable && ((EnvironmentTable) other).getVersion() == version;
+	}
+}
@@ -42,6 +42,12 @@ public class SValue extends Step {
 		value = v;
 	}
 	
+	/** returns the literal value this step pushes */
+	public Scalar getValue() {
+	
+		return value;
+	}
+	
 	@Override
 	public Scalar evaluate(final ScriptEnvironment e) {
 	
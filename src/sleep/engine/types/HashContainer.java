@@ -17,7 +17,6 @@
  */
 package sleep.engine.types;
 
-import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
 
@@ -43,10 +42,10 @@ public class HashContainer implements ScalarHash {
 		values = container;
 	}
 	
-	/* constructs this hash container backed by a HashMap data structure */
+	/* constructs this hash container backed by a ScalarMap data structure */
 	public HashContainer() {
 	
-		this(new HashMap<String, Scalar>());
+		this(new ScalarMap());
 	}
 	
 	@Override
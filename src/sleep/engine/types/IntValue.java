@@ -28,11 +28,33 @@ public class IntValue implements ScalarType {
 	
 	protected int value;
 	
+	/** the value as a string, kept since the same value is often a hash key */
+	private transient String string;
+	
+	/** the values valueOf shares, they're immutable like every ScalarType */
+	private static final IntValue[] cache = new IntValue[1024 + 128];
+	
+	static {
+		for (int x = 0; x < IntValue.cache.length; x++) {
+			IntValue.cache[x] = new IntValue(x - 128);
+		}
+	}
+	
 	public IntValue(final int _value) {
 	
 		value = _value;
 	}
 	
+	/** returns an IntValue for x, shared for -128 .. 1023 */
+	public static IntValue valueOf(final int x) {
+	
+		if (x >= -128 && x < 1024) {
+			return IntValue.cache[x + 128];
+		}
+		
+		return new IntValue(x);
+	}
+	
 	@Override
 	public ScalarType copyValue() {
 	
@@ -60,7 +82,13 @@ public class IntValue implements ScalarType {
 	@Override
 	public String toString() {
 	
-		return value + "";
+		String temp = string;
+		if (temp == null) {
+			temp = Integer.toString(value);
+			string = temp;
+		}
+		
+		return temp;
 	}
 	
 	@Override
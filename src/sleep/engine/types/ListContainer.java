@@ -28,8 +28,8 @@ import sleep.runtime.ScalarArray;
 import sleep.runtime.SleepUtils;
 
 /**
- * A linked list backing for Sleep Arrays. Most array ops are better off with
- * this type of backing
+ * A list backing for Sleep Arrays. By default the list is a MyArrayList, which
+ * indexes in constant time and pushes or shifts at either end in constant time
  */
 public class ListContainer implements ScalarArray {
 	
@@ -39,7 +39,7 @@ public class ListContainer implements ScalarArray {
 	
 	public ListContainer() {
 	
-		values = new MyLinkedList();
+		values = new MyArrayList();
 	}
 	
 	public ListContainer(final List<Scalar> list) {
@@ -28,11 +28,33 @@ public class LongValue implements ScalarType {
 	
 	protected long value;
 	
+	/** the value as a string, kept since the same value is often a hash key */
+	private transient String string;
+	
+	/** the values valueOf shares, they're immutable like every ScalarType */
+	private static final LongValue[] cache = new LongValue[1024 + 128];
+	
+	static {
+		for (int x = 0; x < LongValue.cache.length; x++) {
+			LongValue.cache[x] = new LongValue(x - 128);
+		}
+	}
+	
 	public LongValue(final long _value) {
 	
 		value = _value;
 	}
 	
+	/** returns a LongValue for x, shared for -128 .. 1023 */
+	public static LongValue valueOf(final long x) {
+	
+		if (x >= -128 && x < 1024) {
+			return LongValue.cache[(int) x + 128];
+		}
+		
+		return new LongValue(x);
+	}
+	
 	@Override
 	public ScalarType copyValue() {
 	
@@ -60,7 +82,13 @@ public class LongValue implements ScalarType {
 	@Override
 	public String toString() {
 	
-		return value + "";
+		String temp = string;
+		if (temp == null) {
+			temp = Long.toString(value);
+			string = temp;
+		}
+		
+		return temp;
 	}
 	
 	@Override
@@ -0,0 +1,473 @@
+/* 
+ * Copyright (C) 2002-2012 Raphael Mudge (rsmudge@gmail.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of 
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package sleep.engine.types;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.NoSuchElementException;
+import java.util.RandomAccess;
+
+/**
+ * The default backing for Sleep arrays. Values are kept in a circular array so
+ * indexing is constant time and so are push, pop, shift and unshift. Inserting
+ * or removing in the middle moves the values after that point.
+ * 
+ * <p>
+ * Sublists are views into the parent, as with MyLinkedList. Changing the parent
+ * other than through a sublist makes the sublist unusable, and changing a list
+ * other than through an iterator makes the iterator unusable.
+ * </p>
+ */
+public class MyArrayList extends AbstractList implements RandomAccess, Serializable {
+	
+	/**
+     * 
+     */
+	private static final long serialVersionUID = -2793184271623087419L;
+	
+	/** always a power of two, so an index wraps with a mask */
+	private transient Object[] elements;
+	
+	/** where index 0 is in elements */
+	private transient int head = 0;
+	
+	private transient int count = 0;
+	
+	public MyArrayList() {
+	
+		elements = new Object[16];
+	}
+	
+	public MyArrayList(final Collection values) {
+	
+		elements = new Object[Math.max(16, Integer.highestOneBit(Math.max(1, values.size()) - 1) << 1)];
+		addAll(values);
+	}
+	
+	@Override
+	public int size() {
+	
+		return count;
+	}
+	
+	private void checkIndex(final int index, final int limit) {
+	
+		if (index < 0 || index >= limit) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + count);
+		}
+	}
+	
+	@Override
+	public Object get(final int index) {
+	
+		checkIndex(index, count);
+		return elements[head + index & elements.length - 1];
+	}
+	
+	@Override
+	public Object set(final int index, final Object element) {
+	
+		checkIndex(index, count);
+		
+		final int slot = head + index & elements.length - 1;
+		final Object old = elements[slot];
+		elements[slot] = element;
+		return old;
+	}
+	
+	@Override
+	public boolean add(final Object element) {
+	
+		if (count == elements.length) {
+			grow();
+		}
+		
+		elements[head + count & elements.length - 1] = element;
+		count++;
+		modCount++;
+		return true;
+	}
+	
+	@Override
+	public void add(final int index, final Object element) {
+	
+		checkIndex(index, count + 1);
+		
+		if (count == elements.length) {
+			grow();
+		}
+		
+		final int mask = elements.length - 1;
+		
+		if (index == 0) {
+			head = head - 1 & mask;
+			elements[head] = element;
+		} else {
+			for (int x = count; x > index; x--) {
+				elements[head + x & mask] = elements[head + x - 1 & mask];
+			}
+			elements[head + index & mask] = element;
+		}
+		
+		count++;
+		modCount++;
+	}
+	
+	@Override
+	public Object remove(final int index) {
+	
+		checkIndex(index, count);
+		
+		final int mask = elements.length - 1;
+		final Object value = elements[head + index & mask];
+		
+		if (index == 0) {
+			elements[head] = null;
+			head = head + 1 & mask;
+		} else {
+			for (int x = index; x < count - 1; x++) {
+				elements[head + x & mask] = elements[head + x + 1 & mask];
+			}
+			elements[head + count - 1 & mask] = null;
+		}
+		
+		count--;
+		modCount++;
+		return value;
+	}
+	
+	@Override
+	public void clear() {
+	
+		Arrays.fill(elements, null);
+		head = 0;
+		count = 0;
+		modCount++;
+	}
+	
+	/**
+	 * sorts the values in place. The same values stay in the list, so this
+	 * doesn't count as a change.
+	 */
+	@Override
+	public void sort(final Comparator c) {
+	
+		final Object[] values = toArray();
+		Arrays.sort(values, c);
+		System.arraycopy(values, 0, elements, 0, count);
+		Arrays.fill(elements, count, elements.length, null);
+		head = 0;
+	}
+	
+	@Override
+	public Object[] toArray() {
+	
+		final Object[] values = new Object[count];
+		final int first = Math.min(count, elements.length - head);
+		System.arraycopy(elements, head, values, 0, first);
+		System.arraycopy(elements, 0, values, first, count - first);
+		return values;
+	}
+	
+	private void grow() {
+	
+		final Object[] values = toArray();
+		elements = new Object[elements.length * 2];
+		System.arraycopy(values, 0, elements, 0, count);
+		head = 0;
+	}
+	
+	@Override
+	public List subList(final int beginAt, final int endAt) {
+	
+		if (beginAt < 0 || endAt > count || beginAt > endAt) {
+			throw new IndexOutOfBoundsException("sublist: " + beginAt + " to " + endAt + ", Size: " + count);
+		}
+		
+		return new Sublist(null, beginAt, endAt - beginAt);
+	}
+	
+	@Override
+	public Iterator iterator() {
+	
+		return new Cursor(this, 0);
+	}
+	
+	@Override
+	public ListIterator listIterator(final int index) {
+	
+		checkIndex(index, count + 1);
+		return new Cursor(this, index);
+	}
+	
+	/**
+	 * a view of part of this list. A sublist of a sublist is a view of that
+	 * sublist, so a change made through it reaches every sublist in between.
+	 */
+	private class Sublist extends AbstractList implements RandomAccess, Serializable {
+		
+		/**
+         * 
+         */
+		private static final long serialVersionUID = 7514880296458740327L;
+		
+		/** the sublist this is a view of, null if it's a view of the list itself */
+		private final Sublist parent;
+		
+		private final int offset;
+		
+		private int size;
+		
+		private int modCountCheck = MyArrayList.this.modCount;
+		
+		public Sublist(final Sublist parent, final int offset, final int size) {
+		
+			this.parent = parent;
+			this.offset = offset;
+			this.size = size;
+		}
+		
+		public void checkSafety() {
+		
+			if (modCountCheck != MyArrayList.this.modCount) {
+				throw new ConcurrentModificationException("parent @array changed after &sublist creation");
+			}
+		}
+		
+		@Override
+		public int size() {
+		
+			return size;
+		}
+		
+		@Override
+		public Object get(final int index) {
+		
+			checkSafety();
+			checkIndex(index, size);
+			return parent == null ? MyArrayList.this.get(offset + index) : parent.get(offset + index);
+		}
+		
+		@Override
+		public Object set(final int index, final Object element) {
+		
+			checkSafety();
+			checkIndex(index, size);
+			return parent == null ? MyArrayList.this.set(offset + index, element) : parent.set(offset + index, element);
+		}
+		
+		@Override
+		public void add(final int index, final Object element) {
+		
+			checkSafety();
+			checkIndex(index, size + 1);
+			if (parent == null) {
+				MyArrayList.this.add(offset + index, element);
+			} else {
+				parent.add(offset + index, element);
+			}
+			modCountCheck = MyArrayList.this.modCount;
+			size++;
+		}
+		
+		@Override
+		public Object remove(final int index) {
+		
+			checkSafety();
+			checkIndex(index, size);
+			final Object value = parent == null ? MyArrayList.this.remove(offset + index) : parent.remove(offset + index);
+			modCountCheck = MyArrayList.this.modCount;
+			size--;
+			return value;
+		}
+		
+		@Override
+		public List subList(final int beginAt, final int endAt) {
+		
+			checkSafety();
+			if (beginAt < 0 || endAt > size || beginAt > endAt) {
+				throw new IndexOutOfBoundsException("sublist: " + beginAt + " to " + endAt + ", Size: " + size);
+			}
+			
+			return new Sublist(this, beginAt, endAt - beginAt);
+		}
+		
+		@Override
+		public Iterator iterator() {
+		
+			return new Cursor(this, 0);
+		}
+		
+		@Override
+		public ListIterator listIterator(final int index) {
+		
+			checkIndex(index, size + 1);
+			return new Cursor(this, index);
+		}
+		
+		/** a sublist is saved as a list of its own */
+		private Object writeReplace() {
+		
+			return new MyArrayList(this);
+		}
+	}
+	
+	/** iterates over this list or one of its sublists */
+	private class Cursor implements ListIterator, Serializable {
+		
+		/**
+         * 
+         */
+		private static final long serialVersionUID = -3367906185736298114L;
+		
+		private final List list;
+		
+		private int index;
+		
+		private int last = -1;
+		
+		private int modCountCheck = modCount;
+		
+		public Cursor(final List list, final int index) {
+		
+			this.list = list;
+			this.index = index;
+		}
+		
+		public void checkSafety() {
+		
+			if (modCountCheck != modCount) {
+				throw new ConcurrentModificationException("@array changed during iteration");
+			}
+		}
+		
+		@Override
+		public boolean hasNext() {
+		
+			return index < list.size();
+		}
+		
+		@Override
+		public boolean hasPrevious() {
+		
+			return index > 0;
+		}
+		
+		@Override
+		public Object next() {
+		
+			checkSafety();
+			if (index >= list.size()) {
+				throw new NoSuchElementException();
+			}
+			
+			last = index;
+			return list.get(index++);
+		}
+		
+		@Override
+		public Object previous() {
+		
+			checkSafety();
+			if (index <= 0) {
+				throw new NoSuchElementException();
+			}
+			
+			last = --index;
+			return list.get(index);
+		}
+		
+		@Override
+		public int nextIndex() {
+		
+			return index;
+		}
+		
+		@Override
+		public int previousIndex() {
+		
+			return index - 1;
+		}
+		
+		@Override
+		public void remove() {
+		
+			if (last < 0) {
+				throw new IllegalStateException("no current element");
+			}
+			
+			checkSafety();
+			list.remove(last);
+			index = last;
+			last = -1;
+			modCountCheck = modCount;
+		}
+		
+		@Override
+		public void set(final Object o) {
+		
+			if (last < 0) {
+				throw new IllegalStateException("no current element");
+			}
+			
+			checkSafety();
+			list.set(last, o);
+		}
+		
+		@Override
+		public void add(final Object o) {
+		
+			checkSafety();
+			list.add(index++, o);
+			last = -1;
+			modCountCheck = modCount;
+		}
+	}
+	
+	/* save this list to the stream */
+	private void writeObject(final ObjectOutputStream out) throws IOException {
+	
+		out.defaultWriteObject();
+		out.writeInt(count);
+		for (int x = 0; x < count; x++) {
+			out.writeObject(elements[head + x & elements.length - 1]);
+		}
+	}
+	
+	/* reconstitute this list from the stream */
+	private void readObject(final ObjectInputStream in) throws IOException, ClassNotFoundException {
+	
+		in.defaultReadObject();
+		final int size = in.readInt();
+		
+		elements = new Object[Math.max(16, Integer.highestOneBit(Math.max(1, size) - 1) << 1)];
+		for (int x = 0; x < size; x++) {
+			add(in.readObject());
+		}
+	}
+}
@@ -0,0 +1,57 @@
+/* 
+ * Copyright (C) 2002-2012 Raphael Mudge (rsmudge@gmail.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of 
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package sleep.engine.types;
+
+import java.util.regex.Pattern;
+
+/**
+ * A string literal the parser found in the pattern position of a regex
+ * predicate or function. The pattern is compiled once, when the script is
+ * parsed, and the regex bridge takes it from here instead of looking the
+ * string up in its cache on every call. Otherwise it is an ordinary string,
+ * so its type is that of a string.
+ *
+ * @see sleep.bridges.RegexBridge
+ */
+public class PatternValue extends StringValue {
+	
+	/**
+     * 
+     */
+	private static final long serialVersionUID = -3127554907151367213L;
+	
+	private final Pattern pattern;
+	
+	public PatternValue(final String _value, final Pattern _pattern) {
+	
+		super(_value);
+		pattern = _pattern;
+	}
+	
+	/** returns the compiled form of this string */
+	public Pattern getPattern() {
+	
+		return pattern;
+	}
+	
+	@Override
+	public Class getType() {
+	
+		return StringValue.class;
+	}
+}
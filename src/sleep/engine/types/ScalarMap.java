@@ -0,0 +1,396 @@
+/* 
+ * Copyright (C) 2002-2012 Raphael Mudge (rsmudge@gmail.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of 
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package sleep.engine.types;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * The default backing for Sleep hashes. Keys, their hash codes and values sit
+ * in parallel arrays and a key is found by probing the slots after its home
+ * slot, so a lookup touches a couple of arrays rather than chasing a chain of
+ * entry objects and a put doesn't allocate an entry. Removed keys leave a
+ * marker behind until the table is next rebuilt.
+ */
+public class ScalarMap extends AbstractMap implements Serializable {
+	
+	/**
+     * 
+     */
+	private static final long serialVersionUID = -6245010051733620641L;
+	
+	/** stands in for the null key */
+	private static final Object NULL_KEY = new Object();
+	
+	/** marks a slot whose key was removed */
+	private static final Object REMOVED = new Object();
+	
+	/** always a power of two */
+	private transient Object[] keys;
+	
+	private transient int[] hashes;
+	
+	private transient Object[] values;
+	
+	private transient int size = 0;
+	
+	/** slots holding a key or a removed marker */
+	private transient int used = 0;
+	
+	private transient int modCount = 0;
+	
+	public ScalarMap() {
+	
+		this(16);
+	}
+	
+	public ScalarMap(final int capacity) {
+	
+		allocate(Math.max(16, Integer.highestOneBit(Math.max(1, capacity * 2) - 1) << 1));
+	}
+	
+	private void allocate(final int capacity) {
+	
+		keys = new Object[capacity];
+		hashes = new int[capacity];
+		values = new Object[capacity];
+		used = size;
+	}
+	
+	private static int hash(final Object key) {
+	
+		final int h = key.hashCode();
+		return h ^ h >>> 16;
+	}
+	
+	/** returns the slot holding key, or -1 */
+	private int find(final Object key) {
+	
+		final Object k = key == null ? ScalarMap.NULL_KEY : key;
+		final int h = ScalarMap.hash(k);
+		final int mask = keys.length - 1;
+		
+		for (int x = h & mask;; x = x + 1 & mask) {
+			final Object candidate = keys[x];
+			if (candidate == null) {
+				return -1;
+			} else if (hashes[x] == h && (candidate == k || candidate != ScalarMap.REMOVED && candidate.equals(k))) {
+				return x;
+			}
+		}
+	}
+	
+	@Override
+	public int size() {
+	
+		return size;
+	}
+	
+	@Override
+	public boolean containsKey(final Object key) {
+	
+		return find(key) >= 0;
+	}
+	
+	@Override
+	public Object get(final Object key) {
+	
+		final int x = find(key);
+		return x >= 0 ? values[x] : null;
+	}
+	
+	@Override
+	public Object put(final Object key, final Object value) {
+	
+		final Object k = key == null ? ScalarMap.NULL_KEY : key;
+		final int h = ScalarMap.hash(k);
+		int mask = keys.length - 1;
+		int reuse = -1;
+		
+		for (int x = h & mask;; x = x + 1 & mask) {
+			final Object candidate = keys[x];
+			if (candidate == null) {
+				break;
+			} else if (candidate == ScalarMap.REMOVED) {
+				if (reuse < 0) {
+					reuse = x;
+				}
+			} else if (hashes[x] == h && (candidate == k || candidate.equals(k))) {
+				final Object old = values[x];
+				values[x] = value;
+				return old;
+			}
+		}
+		
+		if (reuse < 0 && (used + 1) * 3 > keys.length * 2) {
+			rebuild(size + 1 > keys.length / 2 ? keys.length * 2 : keys.length);
+			mask = keys.length - 1;
+		}
+		
+		int x = reuse;
+		if (x < 0) {
+			x = h & mask;
+			while(keys[x] != null) {
+				x = x + 1 & mask;
+			}
+			used++;
+		}
+		
+		keys[x] = k;
+		hashes[x] = h;
+		values[x] = value;
+		size++;
+		modCount++;
+		return null;
+	}
+	
+	@Override
+	public Object remove(final Object key) {
+	
+		final int x = find(key);
+		if (x < 0) {
+			return null;
+		}
+		
+		final Object old = values[x];
+		removeSlot(x);
+		return old;
+	}
+	
+	private void removeSlot(final int x) {
+	
+		keys[x] = ScalarMap.REMOVED;
+		values[x] = null;
+		size--;
+		modCount++;
+	}
+	
+	@Override
+	public void clear() {
+	
+		allocate(16);
+		size = 0;
+		used = 0;
+		modCount++;
+	}
+	
+	/** moves every key into a fresh table, dropping removed markers */
+	private void rebuild(final int capacity) {
+	
+		final Object[] oldKeys = keys;
+		final int[] oldHashes = hashes;
+		final Object[] oldValues = values;
+		
+		allocate(capacity);
+		
+		final int mask = capacity - 1;
+		for (int y = 0; y < oldKeys.length; y++) {
+			if (oldKeys[y] != null && oldKeys[y] != ScalarMap.REMOVED) {
+				int x = oldHashes[y] & mask;
+				while(keys[x] != null) {
+					x = x + 1 & mask;
+				}
+				keys[x] = oldKeys[y];
+				hashes[x] = oldHashes[y];
+				values[x] = oldValues[y];
+			}
+		}
+	}
+	
+	@Override
+	public Set entrySet() {
+	
+		return new AbstractSet() {
+			
+			@Override
+			public Iterator iterator() {
+			
+				return new Slots();
+			}
+			
+			@Override
+			public int size() {
+			
+				return size;
+			}
+			
+			@Override
+			public void clear() {
+			
+				ScalarMap.this.clear();
+			}
+		};
+	}
+	
+	/** walks the occupied slots, handing out an entry for each */
+	private class Slots implements Iterator {
+		
+		private int next = -1;
+		
+		private int last = -1;
+		
+		private int modCountCheck = modCount;
+		
+		private final Object[] table = keys;
+		
+		public Slots() {
+		
+			advance();
+		}
+		
+		private void advance() {
+		
+			do {
+				next++;
+			} while(next < table.length && (table[next] == null || table[next] == ScalarMap.REMOVED));
+		}
+		
+		@Override
+		public boolean hasNext() {
+		
+			return next < table.length;
+		}
+		
+		@Override
+		public Object next() {
+		
+			if (modCountCheck != modCount) {
+				throw new ConcurrentModificationException();
+			}
+			
+			if (next >= table.length) {
+				throw new NoSuchElementException();
+			}
+			
+			last = next;
+			advance();
+			return new Entry(last);
+		}
+		
+		@Override
+		public void remove() {
+		
+			if (last < 0) {
+				throw new IllegalStateException();
+			}
+			
+			if (modCountCheck != modCount) {
+				throw new ConcurrentModificationException();
+			}
+			
+			removeSlot(last);
+			last = -1;
+			modCountCheck = modCount;
+		}
+	}
+	
+	/** a key and value, writing through to the slot they came from */
+	private class Entry implements Map.Entry {
+		
+		private final int slot;
+		
+		private final Object key;
+		
+		public Entry(final int slot) {
+		
+			this.slot = slot;
+			key = keys[slot];
+		}
+		
+		@Override
+		public Object getKey() {
+		
+			return key == ScalarMap.NULL_KEY ? null : key;
+		}
+		
+		@Override
+		public Object getValue() {
+		
+			return slot < keys.length && keys[slot] == key ? values[slot] : get(getKey());
+		}
+		
+		@Override
+		public Object setValue(final Object value) {
+		
+			if (slot < keys.length && keys[slot] == key) {
+				final Object old = values[slot];
+				values[slot] = value;
+				return old;
+			}
+			
+			return put(getKey(), value);
+		}
+		
+		@Override
+		public boolean equals(final Object o) {
+		
+			if (!(o instanceof Map.Entry)) {
+				return false;
+			}
+			
+			final Map.Entry other = (Map.Entry) o;
+			return (getKey() == null ? other.getKey() == null : getKey().equals(other.getKey())) && (getValue() == null ? other.getValue() == null : getValue().equals(other.getValue()));
+		}
+		
+		@Override
+		public int hashCode() {
+		
+			return (getKey() == null ? 0 : getKey().hashCode()) ^ (getValue() == null ? 0 : getValue().hashCode());
+		}
+		
+		@Override
+		public String toString() {
+		
+			return getKey() + "=" + getValue();
+		}
+	}
+	
+	/* save this map to the stream */
+	private void writeObject(final ObjectOutputStream out) throws IOException {
+	
+		out.defaultWriteObject();
+		out.writeInt(size);
+		for (int x = 0; x < keys.length; x++) {
+			if (keys[x] != null && keys[x] != ScalarMap.REMOVED) {
+				out.writeObject(keys[x] == ScalarMap.NULL_KEY ? null : keys[x]);
+				out.writeObject(values[x]);
+			}
+		}
+	}
+	
+	/* reconstitute this map from the stream */
+	private void readObject(final ObjectInputStream in) throws IOException, ClassNotFoundException {
+	
+		in.defaultReadObject();
+		final int count = in.readInt();
+		
+		allocate(Math.max(16, Integer.highestOneBit(Math.max(1, count * 2) - 1) << 1));
+		for (int x = 0; x < count; x++) {
+			put(in.readObject(), in.readObject());
+		}
+	}
+}
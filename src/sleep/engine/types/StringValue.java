@@ -17,8 +17,18 @@
  */
 package sleep.engine.types;
 
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+
 import sleep.runtime.ScalarType;
 
+/**
+ * A string value. Values made by {@link #append(String)} share a growing
+ * buffer with the value they were appended to and only become a String when
+ * something asks for one, so building a string up one piece at a time (<code>$html =
+ * $html . "..."</code> in a loop) costs time in proportion to its length
+ * rather than its length squared.
+ */
 public class StringValue implements ScalarType {
 	
 	/**
@@ -26,23 +36,95 @@ public class StringValue implements ScalarType {
      */
 	private static final long serialVersionUID = 1979570663676146016L;
 	
+	/** strings shorter than this are concatenated the ordinary way */
+	private static final int BUFFER_THRESHOLD = 64;
+	
+	/** the string, null until a value built by append is asked for it */
 	protected String value;
 	
+	/**
+	 * the buffer an appended value is the first length characters of. The
+	 * buffer only ever grows, so those characters never change. It is kept once
+	 * value is set, so a loop that reads a string as it builds it up still
+	 * appends in place.
+	 */
+	private transient StringBuilder buffer;
+	
+	private transient int length;
+	
+	/** the empty string and the ASCII characters, shared by valueOf */
+	private static final StringValue[] cache = new StringValue[129];
+	
+	static {
+		for (int x = 0; x < 128; x++) {
+			StringValue.cache[x] = new StringValue(String.valueOf((char) x));
+		}
+		StringValue.cache[128] = new StringValue("");
+	}
+	
 	public StringValue(final String _value) {
 	
 		value = _value;
 	}
 	
+	private StringValue(final StringBuilder _buffer, final int _length) {
+	
+		buffer = _buffer;
+		length = _length;
+	}
+	
+	/**
+	 * returns a StringValue for x, shared for the empty string and single
+	 * ASCII characters
+	 */
+	public static StringValue valueOf(final String x) {
+	
+		if (x.length() == 0) {
+			return StringValue.cache[128];
+		} else if (x.length() == 1 && x.charAt(0) < 128) {
+			return StringValue.cache[x.charAt(0)];
+		}
+		
+		return new StringValue(x);
+	}
+	
 	@Override
 	public ScalarType copyValue() {
 	
 		return this;
 	}
 	
+	/**
+	 * returns this value with text added to the end. If nothing has been
+	 * appended to this value yet its buffer is extended in place, otherwise a
+	 * new buffer is started.
+	 */
+	public StringValue append(final String text) {
+	
+		final StringBuilder shared = buffer;
+		if (shared != null) {
+			synchronized(shared) {
+				if (shared.length() == length) {
+					shared.append(text);
+					return new StringValue(shared, shared.length());
+				}
+			}
+		}
+		
+		final String start = toString();
+		if (start.length() + text.length() < StringValue.BUFFER_THRESHOLD) {
+			return new StringValue(start.concat(text));
+		}
+		
+		final StringBuilder fresh = new StringBuilder((start.length() + text.length()) * 2);
+		fresh.append(start).append(text);
+		return new StringValue(fresh, fresh.length());
+	}
+	
 	/** does nothing for now... */
 	private String numberOnlyString() {
 	
-		return value;
+		return toString();
 	}
 	
 	@Override
@@ -78,13 +160,21 @@ public class StringValue implements ScalarType {
 	@Override
 	public String toString() {
 	
-		return value;
+		String temp = value;
+		if (temp == null) {
+			synchronized(buffer) {
+				temp = buffer.substring(0, length);
+			}
+			value = temp;
+		}
+		
+		return temp;
 	}
 	
 	@Override
 	public Object objectValue() {
 	
-		return value;
+		return toString();
 	}
 	
 	@Override
@@ -92,4 +182,10 @@ public class StringValue implements ScalarType {
 	
 		return this.getClass();
 	}
+	
+	private void writeObject(final ObjectOutputStream out) throws IOException {
+	
+		toString();
+		out.defaultWriteObject();
+	}
 }
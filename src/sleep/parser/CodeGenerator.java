@@ -17,17 +17,22 @@
  */
 package sleep.parser;
 
-import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Stack;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 
 import sleep.engine.Block;
 import sleep.engine.GeneratedSteps;
+import sleep.engine.Optimizer;
 import sleep.engine.Step;
 import sleep.engine.atoms.Check;
 import sleep.engine.atoms.PLiteral;
+import sleep.engine.types.PatternValue;
 import sleep.runtime.Scalar;
 import sleep.runtime.ScriptEnvironment;
 import sleep.runtime.SleepUtils;
@@ -46,7 +51,13 @@ public class CodeGenerator implements ParserConstants {
 	
 	protected Parser parser;
 	
-	protected static HashMap<String, String> escape_constants = new HashMap<String, String>();
+	protected boolean optimize = Optimizer.isEnabled(); /* run finished blocks through the optimizer */
+	
+	/* set while the literal in the pattern position of a regex call is parsed */
+	private boolean patternLiteral = false;
+	
+	/* read by every parse, scripts may be compiled on several threads at once */
+	protected static Map<String, String> escape_constants = new ConcurrentHashMap<String, String>();
 	
 	static {
 		CodeGenerator.installEscapeConstant('t', "\t");
@@ -62,6 +73,10 @@ public class CodeGenerator implements ParserConstants {
 	
 	public Block getRunnableBlock() {
 	
+		if (optimize) {
+			Optimizer.optimize(CURRENT_BLOCK);
+		}
+		
 		return CURRENT_BLOCK;
 	}
 	
@@ -81,6 +96,11 @@ public class CodeGenerator implements ParserConstants {
 	
 		final Block temp = CURRENT_BLOCK;
 		CURRENT_BLOCK = BACKUP_BLOCKS.pop();
+		
+		if (optimize) {
+			Optimizer.optimize(temp);
+		}
+		
 		return temp;
 	}
 	
@@ -134,7 +154,12 @@ public class CodeGenerator implements ParserConstants {
 				backup();
 				
 				parseIdea(tokens[0]);
-				parseIdea(tokens[2]);
+				
+				if (strings[1].equals("ismatch") || strings[1].equals("hasmatch")) {
+					parsePattern(tokens[2]);
+				} else {
+					parseIdea(tokens[2]);
+				}
 				
 				tempc = factory.Check(strings[1], restore()); // a KillFrame is implied here
 				tempc.setInfo(tokens[1].getHint());
@@ -198,7 +223,7 @@ public class CodeGenerator implements ParserConstants {
 		}
 		
 		/*      System.out.println(stmt);
-
+		
 		      for (int x = 0; x < stmt.getStrings().length; x++)
 		      {
 		          System.out.println(">>> " + stmt.getStrings()[x]);
@@ -309,6 +334,45 @@ public class CodeGenerator implements ParserConstants {
 		}
 	}
 	
+	/**
+	 * parses the pattern argument of a regex predicate or function. A string
+	 * literal that is a valid regex becomes a value holding the compiled
+	 * pattern, so the regex bridge doesn't compile or look it up at runtime.
+	 */
+	public void parsePattern(final Token data) {
+	
+		final LinkedList<Statement> allData = TokenParser.ParseIdea(parser, LexicalAnalyzer.GroupBlockTokens(parser, new StringIterator(data.toString(), data.getHint())));
+		
+		if (parser.hasErrors()) {
+			return;
+		}
+		
+		patternLiteral = allData.size() == 1 && allData.getFirst().getType() == ParserConstants.IDEA_LITERAL;
+		try {
+			final Iterator<Statement> i = allData.iterator();
+			while(i.hasNext()) {
+				parse(i.next());
+			}
+		} finally {
+			patternLiteral = false;
+		}
+	}
+	
+	/**
+	 * returns which argument of a built-in regex function is the pattern, -1
+	 * for any other function
+	 */
+	private static int patternArgument(final String function) {
+	
+		if (function.equals("&split")) {
+			return 0;
+		} else if (function.equals("&matches") || function.equals("&replace") || function.equals("&find")) {
+			return 1;
+		}
+		
+		return -1;
+	}
+	
 	public List<Statement> parseIdea(final Token data) {
 	
 		final LinkedList<Statement> allData = TokenParser.ParseIdea(parser, LexicalAnalyzer.GroupBlockTokens(parser, new StringIterator(data.toString(), data.getHint())));
@@ -430,7 +494,7 @@ public class CodeGenerator implements ParserConstants {
 					}
 				}
 				
-				ascalar = SleepUtils.getScalar(sb.toString());
+				ascalar = patternLiteral ? CodeGenerator.getPatternScalar(sb.toString()) : SleepUtils.getScalar(sb.toString());
 				atom = factory.SValue(ascalar);
 				add(atom, tokens[0]);
 				break;
@@ -771,7 +835,7 @@ public class CodeGenerator implements ParserConstants {
 						add(atom, tokens[0]);
 					}
 					
-					parseParameters(ParserUtilities.extract(tokens[1]));
+					parseParameters(ParserUtilities.extract(tokens[1]), CodeGenerator.patternArgument(strings[0]));
 					
 					atom = factory.Call(strings[0]);
 					add(atom, tokens[0]);
@@ -907,7 +971,7 @@ public class CodeGenerator implements ParserConstants {
 				// |{ &printf("hi"); } 5
 				
 				/**** purposeful fall thru... ****/
-				
+			
 			case EXPR_FOREACH:
 				// |foreach
 				// |$var
@@ -1133,11 +1197,36 @@ public class CodeGenerator implements ParserConstants {
 	
 	public void parseParameters(final Token token) {
 	
+		parseParameters(token, -1);
+	}
+	
+	/** parses the parameters, the one at index pattern as a regex pattern */
+	public void parseParameters(final Token token, final int pattern) {
+	
 		final TokenList terms = ParserUtilities.groupByParameterTerm(parser, token);
 		final Token[] termsAr = terms.getTokens();
 		
 		for (int x = termsAr.length - 1; x >= 0; x--) {
-			parseIdea(termsAr[x]);
+			if (x == pattern) {
+				parsePattern(termsAr[x]);
+			} else {
+				parseIdea(termsAr[x]);
+			}
+		}
+	}
+	
+	/**
+	 * a string scalar holding text compiled as a regex, or a plain string if
+	 * the text isn't a valid regex so the error still comes up when it's used
+	 */
+	private static Scalar getPatternScalar(final String text) {
+	
+		try {
+			final Scalar value = new Scalar();
+			value.setValue(new PatternValue(text, Pattern.compile(text)));
+			return value;
+		} catch (final PatternSyntaxException ex) {
+			return SleepUtils.getScalar(text);
 		}
 	}
 }
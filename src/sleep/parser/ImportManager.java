@@ -31,7 +31,8 @@ import java.util.List;
  * a Sleep parser. The existence of this class also allows these imports to be
  * shared between parser instances. Value is allowing dynamically parsed code
  * like eval, expr, compile_clousre etc.. to inherit their parents imported
- * class information.
+ * class information. An import manager can be shared by parsers running on
+ * different threads, so its methods are synchronized.
  */
 public class ImportManager {
 	
@@ -40,7 +41,7 @@ public class ImportManager {
 	protected HashMap<String, Class<?>> classes = new HashMap<String, Class<?>>();
 	
 	/** Used by Sleep to import statement to save an imported package name. */
-	public void importPackage(final String packagez, final String from) {
+	public synchronized void importPackage(final String packagez, final String from) {
 	
 		String pack, clas;
 		
@@ -133,7 +134,7 @@ public class ImportManager {
 	 * that doesn't resolve then the string is appended to each imported package
 	 * to see where the class might exist
 	 */
-	public Class<?> findImportedClass(final String name) {
+	public synchronized Class<?> findImportedClass(final String name) {
 	
 		if (classes.get(name) == null) {
 			Class<?> rv = null;
@@ -0,0 +1,296 @@
+/* 
+ * Copyright (C) 2002-2012 Raphael Mudge (rsmudge@gmail.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of 
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package sleep.runtime;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The map behind ScriptLoader's global block cache. Lookups don't lock. Once
+ * the cache holds more than its maximum number of entries an eighth of them is
+ * evicted in one go, so the cost of eviction is spread over many puts. The
+ * entries evicted are the least frequently used, ties going to the least
+ * recently used, and the use counts are halved each time as many entries as
+ * the cache holds have been evicted, so old popularity fades. A burst of
+ * one-off scripts therefore pushes out other one-off scripts rather than the
+ * pages used all the time. Hits, misses and evictions are counted for
+ * monitoring.
+ * 
+ * <p>
+ * Only get counts as a use. Values are ScriptLoader's cache entries, an array
+ * of the Block, the time it was cached and, for scripts compiled from a
+ * string, the source it was compiled from.
+ * </p>
+ * 
+ * @see ScriptLoader#setGlobalCache(boolean)
+ */
+public class BlockCache extends AbstractMap<String, Object[]> {
+	
+	/** the number of entries a cache holds unless told otherwise */
+	public static final int DEFAULT_MAXIMUM = Integer.getInteger("sleep.cache.entries", 512).intValue();
+	
+	private static final class Node {
+		
+		final Object[] value;
+		
+		volatile long used = System.nanoTime();
+		
+		/** gets, halved now and then. racy but only a hint */
+		volatile int frequency = 0;
+		
+		Node(final Object[] value) {
+		
+			this.value = value;
+		}
+	}
+	
+	private static final int MAX_FREQUENCY = 255;
+	
+	private final ConcurrentHashMap<String, Node> entries = new ConcurrentHashMap<String, Node>();
+	
+	private final int maximum;
+	
+	private final LongAdder hits = new LongAdder();
+	
+	private final LongAdder misses = new LongAdder();
+	
+	private final LongAdder evictions = new LongAdder();
+	
+	private final Object evicting = new Object();
+	
+	/** entries evicted since the use counts were last halved */
+	private int sinceAging = 0;
+	
+	public BlockCache() {
+	
+		this(BlockCache.DEFAULT_MAXIMUM);
+	}
+	
+	public BlockCache(final int maximum) {
+	
+		if (maximum <= 0) {
+			throw new IllegalArgumentException("cache size must be positive: " + maximum);
+		}
+		
+		this.maximum = maximum;
+	}
+	
+	/** returns the most entries this cache keeps */
+	public int getMaximum() {
+	
+		return maximum;
+	}
+	
+	/** returns how many gets found an entry */
+	public long getHitCount() {
+	
+		return hits.sum();
+	}
+	
+	/** returns how many gets found nothing */
+	public long getMissCount() {
+	
+		return misses.sum();
+	}
+	
+	/** returns how many entries were dropped to make room */
+	public long getEvictionCount() {
+	
+		return evictions.sum();
+	}
+	
+	@Override
+	public Object[] get(final Object key) {
+	
+		return get(key, null);
+	}
+	
+	/**
+	 * returns the entry for a script if it was compiled from this source, a
+	 * null source matches any entry. An entry for other source is a miss.
+	 */
+	public Object[] get(final Object key, final String source) {
+	
+		final Node node = entries.get(key);
+		if (node == null || source != null && !source.equals(node.value[2])) {
+			misses.increment();
+			return null;
+		}
+		
+		hits.increment();
+		node.used = System.nanoTime();
+		if (node.frequency < BlockCache.MAX_FREQUENCY) {
+			node.frequency++;
+		}
+		return node.value;
+	}
+	
+	/** returns an entry without counting it as a use, null if there is none */
+	public Object[] peek(final String key) {
+	
+		final Node node = entries.get(key);
+		return node == null ? null : node.value;
+	}
+	
+	@Override
+	public boolean containsKey(final Object key) {
+	
+		return entries.containsKey(key);
+	}
+	
+	@Override
+	public Object[] put(final String key, final Object[] value) {
+	
+		final Node old = entries.put(key, new Node(value));
+		
+		if (entries.size() > maximum) {
+			evict();
+		}
+		
+		return old == null ? null : old.value;
+	}
+	
+	@Override
+	public Object[] remove(final Object key) {
+	
+		final Node old = entries.remove(key);
+		return old == null ? null : old.value;
+	}
+	
+	@Override
+	public boolean remove(final Object key, final Object value) {
+	
+		final Node node = entries.get(key);
+		return node != null && node.value == value && entries.remove(key, node);
+	}
+	
+	@Override
+	public int size() {
+	
+		return entries.size();
+	}
+	
+	@Override
+	public void clear() {
+	
+		entries.clear();
+	}
+	
+	/** drops the least used entries until the cache is 7/8 full */
+	private void evict() {
+	
+		synchronized(evicting) {
+			final int target = maximum - maximum / 8;
+			if (entries.size() <= maximum) {
+				return;
+			}
+			
+			@SuppressWarnings("unchecked")
+			final Map.Entry<String, Node>[] all = entries.entrySet().toArray(new Map.Entry[0]);
+			final int[] frequency = new int[all.length];
+			final long[] used = new long[all.length];
+			final Integer[] order = new Integer[all.length];
+			for (int x = 0; x < all.length; x++) {
+				final Node node = all[x].getValue();
+				frequency[x] = node.frequency;
+				used[x] = node.used;
+				order[x] = x;
+			}
+			
+			if (sinceAging >= maximum) {
+				for (final Map.Entry<String, Node> e : all) {
+					e.getValue().frequency /= 2;
+				}
+				sinceAging = 0;
+			}
+			
+			/* sort on a snapshot, the counts keep changing underneath us */
+			Arrays.sort(order, new Comparator<Integer>() {
+				
+				@Override
+				public int compare(final Integer a, final Integer b) {
+				
+					final int x = a.intValue();
+					final int y = b.intValue();
+					return frequency[x] != frequency[y] ? frequency[x] - frequency[y] : Long.compare(used[x], used[y]);
+				}
+			});
+			
+			for (int x = 0; x < order.length && entries.size() > target; x++) {
+				final Map.Entry<String, Node> e = all[order[x].intValue()];
+				if (entries.remove(e.getKey(), e.getValue())) {
+					evictions.increment();
+					sinceAging++;
+				}
+			}
+		}
+	}
+	
+	@Override
+	public Set<Map.Entry<String, Object[]>> entrySet() {
+	
+		return new AbstractSet<Map.Entry<String, Object[]>>() {
+			
+			@Override
+			public Iterator<Map.Entry<String, Object[]>> iterator() {
+			
+				final Iterator<Map.Entry<String, Node>> i = entries.entrySet().iterator();
+				return new Iterator<Map.Entry<String, Object[]>>() {
+					
+					@Override
+					public boolean hasNext() {
+					
+						return i.hasNext();
+					}
+					
+					@Override
+					public Map.Entry<String, Object[]> next() {
+					
+						final Map.Entry<String, Node> e = i.next();
+						return new AbstractMap.SimpleImmutableEntry<String, Object[]>(e.getKey(), e.getValue().value);
+					}
+					
+					@Override
+					public void remove() {
+					
+						i.remove();
+					}
+				};
+			}
+			
+			@Override
+			public int size() {
+			
+				return entries.size();
+			}
+		};
+	}
+	
+	@Override
+	public String toString() {
+	
+		return "BlockCache[size=" + size() + ", maximum=" + maximum + ", hits=" + getHitCount() + ", misses=" + getMissCount() + ", evictions=" + getEvictionCount() + "]";
+	}
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2002-2012 Raphael Mudge (rsmudge@gmail.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package sleep.runtime;
+
+import java.util.Hashtable;
+import java.util.Map;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * The environment hashtable scripts get when they aren't handed one. It works
+ * like any other Hashtable but counts changes to the bindings in it, so a step
+ * can remember what a function, operator or predicate name resolved to and
+ * only look it up again once something has been bound, rebound or removed.
+ * The interpreter's own bookkeeping entries (%strace% and the like) change
+ * without invalidating anything.
+ *
+ * <p>
+ * Changes made by removing through the key, value or entry views are not
+ * counted, remove from the table itself.
+ * </p>
+ *
+ * @see sleep.engine.atoms.Call
+ */
+public class EnvironmentTable extends Hashtable {
+	
+	/**
+     *
+     */
+	private static final long serialVersionUID = 5176327766421529834L;
+	
+	private volatile int version = 0;
+	
+	public EnvironmentTable() {
+	
+		super();
+	}
+	
+	public EnvironmentTable(final int initialCapacity) {
+	
+		super(initialCapacity);
+	}
+	
+	/** returns a number that changes whenever a binding in this table does */
+	public int getVersion() {
+	
+		return version;
+	}
+	
+	private void touch(final Object key) {
+	
+		// %strace% and (isloaded), not to be confused with the "% " operator
+		if (key instanceof String && ((String) key).length() > 1) {
+			final String name = (String) key;
+			if (name.charAt(0) == '%' && name.endsWith("%") || name.charAt(0) == '(' && name.endsWith(")")) {
+				return;
+			}
+		}
+		
+		version++;
+	}
+	
+	@Override
+	public synchronized Object put(final Object key, final Object value) {
+	
+		touch(key);
+		return super.put(key, value);
+	}
+	
+	@Override
+	public synchronized Object remove(final Object key) {
+	
+		touch(key);
+		return super.remove(key);
+	}
+	
+	@Override
+	public synchronized boolean remove(final Object key, final Object value) {
+	
+		touch(key);
+		return super.remove(key, value);
+	}
+	
+	@Override
+	public synchronized void putAll(final Map t) {
+	
+		version++;
+		super.putAll(t);
+	}
+	
+	@Override
+	public synchronized void clear() {
+	
+		version++;
+		super.clear();
+	}
+	
+	@Override
+	public synchronized Object putIfAbsent(final Object key, final Object value) {
+	
+		touch(key);
+		return super.putIfAbsent(key, value);
+	}
+	
+	@Override
+	public synchronized Object replace(final Object key, final Object value) {
+	
+		touch(key);
+		return super.replace(key, value);
+	}
+	
+	@Override
+	public synchronized boolean replace(final Object key, final Object oldValue, final Object newValue) {
+	
+		touch(key);
+		return super.replace(key, oldValue, newValue);
+	}
+	
+	@Override
+	public synchronized void replaceAll(final BiFunction function) {
+	
+		version++;
+		super.replaceAll(function);
+	}
+	
+	@Override
+	public synchronized Object computeIfAbsent(final Object key, final Function mappingFunction) {
+	
+		touch(key);
+		return super.computeIfAbsent(key, mappingFunction);
+	}
+	
+	@Override
+	public synchronized Object computeIfPresent(final Object key, final BiFunction remappingFunction) {
+	
+		touch(key);
+		return super.computeIfPresent(key, remappingFunction);
+	}
+	
+	@Override
+	public synchronized Object compute(final Object key, final BiFunction remappingFunction) {
+	
+		touch(key);
+		return super.compute(key, remappingFunction);
+	}
+	
+	@Override
+	public synchronized Object merge(final Object key, final Object value, final BiFunction remappingFunction) {
+	
+		touch(key);
+		return super.merge(key, value, remappingFunction);
+	}
+}
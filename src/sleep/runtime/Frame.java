@@ -0,0 +1,196 @@
+/* 
+ * Copyright (C) 2002-2012 Raphael Mudge (rsmudge@gmail.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of 
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package sleep.runtime;
+
+import java.util.Arrays;
+import java.util.EmptyStackException;
+import java.util.Stack;
+
+/**
+ * <p>
+ * A frame on the sleep data stack. The interpreter pushes the operands of
+ * every step, operator and function call onto one of these, so unlike the
+ * Stack it extends it does not synchronize: a frame belongs to the thread
+ * running its script. It is still a Stack, bridges handed a frame can use it
+ * as one. Values on it are usually scalars, but not always: a callcc leaves
+ * the source and line of the call on the frame for the closure it calls.
+ * </p>
+ * 
+ * <p>
+ * Arguments to a function are on the frame first argument on top. A bridge
+ * that would rather not pop them can read them in place with
+ * {@link #argument(int)} and friends, which neither allocate nor change the
+ * frame. Whatever is left on the frame is cleared when the call returns.
+ * </p>
+ * 
+ * @see sleep.runtime.ScriptEnvironment#getCurrentFrame()
+ */
+public class Frame extends Stack {
+	
+	/**
+     * 
+     */
+	private static final long serialVersionUID = -1985312372560591104L;
+	
+	public Frame() {
+	
+		super();
+	}
+	
+	/** returns the number of arguments on this frame, the same as size() */
+	public int getArgumentCount() {
+	
+		return elementCount;
+	}
+	
+	/**
+	 * returns argument n (0 is the first argument) without removing it, null if
+	 * there aren't that many arguments
+	 */
+	public Scalar argument(final int n) {
+	
+		return n < elementCount ? (Scalar) elementData[elementCount - 1 - n] : null;
+	}
+	
+	/** returns argument n as an int, or the default value if it isn't there */
+	public int intArgument(final int n, final int defaultValue) {
+	
+		return n < elementCount ? ((Scalar) elementData[elementCount - 1 - n]).intValue() : defaultValue;
+	}
+	
+	/** returns argument n as a long, or the default value if it isn't there */
+	public long longArgument(final int n, final long defaultValue) {
+	
+		return n < elementCount ? ((Scalar) elementData[elementCount - 1 - n]).longValue() : defaultValue;
+	}
+	
+	/** returns argument n as a double, or the default value if it isn't there */
+	public double doubleArgument(final int n, final double defaultValue) {
+	
+		return n < elementCount ? ((Scalar) elementData[elementCount - 1 - n]).doubleValue() : defaultValue;
+	}
+	
+	/** returns argument n as a string, or the default value if it isn't there */
+	public String stringArgument(final int n, final String defaultValue) {
+	
+		return n < elementCount ? ((Scalar) elementData[elementCount - 1 - n]).toString() : defaultValue;
+	}
+	
+	/** removes the top n values from this frame */
+	public void drop(final int n) {
+	
+		final int end = elementCount;
+		final int start = Math.max(0, end - n);
+		Arrays.fill(elementData, start, end, null);
+		elementCount = start;
+		modCount++;
+	}
+	
+	@Override
+	public Object push(final Object item) {
+	
+		if (elementCount == elementData.length) {
+			elementData = Arrays.copyOf(elementData, Math.max(10, elementCount * 2));
+		}
+		elementData[elementCount++] = item;
+		modCount++;
+		return item;
+	}
+	
+	@Override
+	public Object pop() {
+	
+		if (elementCount == 0) {
+			throw new EmptyStackException();
+		}
+		
+		final Object item = elementData[--elementCount];
+		elementData[elementCount] = null;
+		modCount++;
+		return item;
+	}
+	
+	@Override
+	public Object peek() {
+	
+		if (elementCount == 0) {
+			throw new EmptyStackException();
+		}
+		
+		return elementData[elementCount - 1];
+	}
+	
+	@Override
+	public boolean empty() {
+	
+		return elementCount == 0;
+	}
+	
+	@Override
+	public boolean isEmpty() {
+	
+		return elementCount == 0;
+	}
+	
+	@Override
+	public int size() {
+	
+		return elementCount;
+	}
+	
+	@Override
+	public Object get(final int index) {
+	
+		if (index >= elementCount) {
+			throw new ArrayIndexOutOfBoundsException(index);
+		}
+		
+		return elementData[index];
+	}
+	
+	@Override
+	public Object elementAt(final int index) {
+	
+		return get(index);
+	}
+	
+	@Override
+	public boolean add(final Object item) {
+	
+		push(item);
+		return true;
+	}
+	
+	@Override
+	public void addElement(final Object item) {
+	
+		push(item);
+	}
+	
+	@Override
+	public void clear() {
+	
+		drop(elementCount);
+	}
+	
+	@Override
+	public void removeAllElements() {
+	
+		drop(elementCount);
+	}
+}
@@ -0,0 +1,452 @@
+/* 
+ * Copyright (C) 2002-2012 Raphael Mudge (rsmudge@gmail.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of 
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package sleep.runtime;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputFilter;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.regex.Pattern;
+
+import sleep.engine.Block;
+import sleep.engine.Optimizer;
+import sleep.engine.Step;
+import sleep.engine.atoms.ObjectAccess;
+import sleep.engine.atoms.ObjectNew;
+import sleep.engine.types.DoubleValue;
+import sleep.engine.types.IntValue;
+import sleep.engine.types.LongValue;
+import sleep.engine.types.NullValue;
+import sleep.engine.types.ObjectValue;
+import sleep.engine.types.PatternValue;
+import sleep.engine.types.StringValue;
+import sleep.taint.PermeableStep;
+import sleep.taint.TaintCall;
+import sleep.taint.TaintObjectAccess;
+import sleep.taint.TaintOperate;
+import sleep.taint.TaintUtils;
+
+/**
+ * Keeps compiled scripts in a directory so they outlive the process. An entry
+ * is found by a digest of the script's name, its source code, the Sleep
+ * release, a fingerprint of the interpreter's classes and the settings that
+ * change what the parser generates, so an edited script or a rebuilt
+ * interpreter simply misses and is parsed again. Nothing is read up front, a
+ * script's entry is only opened when that script is compiled.
+ * 
+ * <p>
+ * Each entry is one file, written to a temporary file and moved into place so
+ * readers never see half an entry. The file starts with a small header:
+ * </p>
+ * 
+ * <pre>
+ * int    magic, 0x534C4342 ("SLCB")
+ * int    format version
+ * int    Sleep release
+ * byte[] digest of the key, 20 bytes
+ * int    length of the block that follows
+ * </pre>
+ * 
+ * followed by the serialized Block. The block is read through a filter that
+ * only lets in the steps and values the parser generates and the JDK's plain
+ * values. Classes a script refers to, like ^String or [new Foo], are kept by
+ * name in the entry and looked up again when it is read, so no class
+ * reference reaches the filter. Entries that don't check out are deleted.
+ * 
+ * <p>
+ * The block is Java serialized rather than written in a format of its own.
+ * Steps already serialize for closures passed through &amp;writeObject, and a
+ * second encoding of every atom would have to follow each change to them. An
+ * entry is a few kilobytes and read once per compile, so it is read whole
+ * rather than mapped.
+ * </p>
+ * 
+ * @see ScriptLoader#setCacheDirectory(File)
+ */
+public class ScriptCache {
+	
+	/** bump when the layout of an entry or of the steps in it changes */
+	public static final int FORMAT = 3;
+	
+	private static final int MAGIC = 0x534C4342;
+	
+	private static final int DIGEST_LENGTH = 20;
+	
+	private static final int HEADER_LENGTH = 4 + 4 + 4 + ScriptCache.DIGEST_LENGTH + 4;
+	
+	/**
+	 * a digest of the interpreter's classes, so a rebuild misses even when the
+	 * release stays the same. Null if the classes can't be found, then nothing
+	 * is cached.
+	 */
+	private static final byte[] BUILD = ScriptCache.fingerprint();
+	
+	/**
+	 * the classes an entry may hold besides primitives and the atoms in
+	 * sleep.engine.atoms: the steps and values the parser generates and the
+	 * JDK values they hold
+	 */
+	private static final Set<Class<?>> VALUES = new HashSet<Class<?>>(Arrays.<Class<?>> asList(Block.class, Step.class, Scalar.class, DoubleValue.class, IntValue.class, LongValue.class, NullValue.class, ObjectValue.class, PatternValue.class, StringValue.class, PermeableStep.class, TaintCall.class, TaintObjectAccess.class, TaintOperate.class, ClassName.class, StepName.class, String.class, Boolean.class, Character.class, Number.class, Byte.class, Short.class, Integer.class, Long.class, Float.class, Double.class, java.util.LinkedList.class, Pattern.class));
+	
+	/** lets the atoms and VALUES, and arrays of them, be read; nothing else */
+	private static final ObjectInputFilter FILTER = new ObjectInputFilter() {
+		
+		@Override
+		public Status checkInput(final FilterInfo info) {
+		
+			Class<?> type = info.serialClass();
+			
+			if (type == null) {
+				return Status.UNDECIDED;
+			}
+			
+			while(type.isArray()) {
+				type = type.getComponentType();
+			}
+			
+			if (type.isPrimitive() || type.getName().startsWith("sleep.engine.atoms.") || ScriptCache.VALUES.contains(type)) {
+				return Status.ALLOWED;
+			}
+			
+			return Status.REJECTED;
+		}
+	};
+	
+	private final File directory;
+	
+	public ScriptCache(final File directory) {
+	
+		this.directory = directory;
+	}
+	
+	/** returns the directory entries are kept in */
+	public File getDirectory() {
+	
+		return directory;
+	}
+	
+	/** returns the cached compiled form of this script, null if there is none */
+	public Block get(final String name, final String code) {
+	
+		if (ScriptCache.BUILD == null) {
+			return null;
+		}
+		
+		final byte[] digest = ScriptCache.digest(name, code);
+		final File file = file(digest);
+		if (!file.isFile()) {
+			return null;
+		}
+		
+		try {
+			return ScriptCache.read(Files.readAllBytes(file.toPath()), digest);
+		} catch (final Exception ex) {
+			/* truncated, from another release or not ours, it will be written again */
+			file.delete();
+			return null;
+		}
+	}
+	
+	/** stores the compiled form of this script, failures are ignored */
+	public void put(final String name, final String code, final Block block) {
+	
+		if (ScriptCache.BUILD == null) {
+			return;
+		}
+		
+		final byte[] digest = ScriptCache.digest(name, code);
+		
+		try {
+			final ByteArrayOutputStream bytes = new ByteArrayOutputStream(8192);
+			final DataOutputStream out = new DataOutputStream(bytes);
+			out.writeInt(ScriptCache.MAGIC);
+			out.writeInt(ScriptCache.FORMAT);
+			out.writeInt(SleepUtils.SLEEP_RELEASE);
+			out.write(digest);
+			out.writeInt(0);
+			
+			final ObjectOutputStream o = new EntryOutputStream(bytes);
+			o.writeObject(block);
+			o.close();
+			
+			final byte[] entry = bytes.toByteArray();
+			ByteBuffer.wrap(entry).putInt(ScriptCache.HEADER_LENGTH - 4, entry.length - ScriptCache.HEADER_LENGTH);
+			
+			directory.mkdirs();
+			final File temp = File.createTempFile("entry", ".tmp", directory);
+			try {
+				Files.write(temp.toPath(), entry);
+				Files.move(temp.toPath(), file(digest).toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} finally {
+				temp.delete();
+			}
+		} catch (final IOException ex) {
+			/* the cache is only an optimization, the script was compiled all the same */
+		}
+	}
+	
+	private File file(final byte[] digest) {
+	
+		final StringBuilder name = new StringBuilder(ScriptCache.DIGEST_LENGTH * 2 + 4);
+		for (final byte b : digest) {
+			name.append(Character.forDigit(b >> 4 & 0xF, 16));
+			name.append(Character.forDigit(b & 0xF, 16));
+		}
+		name.append(".slc");
+		
+		return new File(directory, name.toString());
+	}
+	
+	private static Block read(final byte[] entry, final byte[] digest) throws IOException, ClassNotFoundException {
+	
+		final ByteBuffer buffer = ByteBuffer.wrap(entry);
+		if (buffer.remaining() < ScriptCache.HEADER_LENGTH || buffer.getInt() != ScriptCache.MAGIC || buffer.getInt() != ScriptCache.FORMAT || buffer.getInt() != SleepUtils.SLEEP_RELEASE) {
+			throw new IOException("not a compiled script for this release");
+		}
+		
+		final byte[] stored = new byte[ScriptCache.DIGEST_LENGTH];
+		buffer.get(stored);
+		if (!Arrays.equals(stored, digest) || buffer.getInt() != buffer.remaining()) {
+			throw new IOException("damaged entry");
+		}
+		
+		final ObjectInputStream in = new EntryInputStream(new ByteArrayInputStream(entry, buffer.position(), buffer.remaining()));
+		return (Block) in.readObject();
+	}
+	
+	/**
+	 * the key of a script, covers everything that decides what the parser
+	 * makes of it
+	 */
+	private static byte[] digest(final String name, final String code) {
+	
+		try {
+			final MessageDigest sha = MessageDigest.getInstance("SHA-1");
+			sha.update((ScriptCache.FORMAT + ":" + SleepUtils.SLEEP_RELEASE + ":" + Optimizer.isEnabled() + ":" + TaintUtils.isTaintMode() + ":").getBytes(StandardCharsets.UTF_8));
+			sha.update(ScriptCache.BUILD);
+			sha.update(name.getBytes(StandardCharsets.UTF_8));
+			sha.update((byte) 0);
+			sha.update(code.getBytes(StandardCharsets.UTF_8));
+			return sha.digest();
+		} catch (final NoSuchAlgorithmException ex) {
+			throw new IllegalStateException(ex);
+		}
+	}
+	
+	/**
+	 * digests the name, size and time of each of Sleep's class files, or the
+	 * name, size and checksum of each if they're in a jar
+	 */
+	private static byte[] fingerprint() {
+	
+		try {
+			final MessageDigest sha = MessageDigest.getInstance("SHA-1");
+			final File from = new File(Block.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+			
+			if (from.isDirectory()) {
+				ScriptCache.fingerprint(sha, new File(from, "sleep"));
+			} else {
+				final JarFile jar = new JarFile(from);
+				try {
+					final Enumeration<JarEntry> entries = jar.entries();
+					while(entries.hasMoreElements()) {
+						final JarEntry entry = entries.nextElement();
+						if (entry.getName().startsWith("sleep/")) {
+							sha.update((entry.getName() + ":" + entry.getSize() + ":" + entry.getCrc() + "\n").getBytes(StandardCharsets.UTF_8));
+						}
+					}
+				} finally {
+					jar.close();
+				}
+			}
+			
+			return sha.digest();
+		} catch (final Exception ex) {
+			/* no code source, or one we can't read: there's no telling one build from the next */
+			return null;
+		}
+	}
+	
+	private static void fingerprint(final MessageDigest sha, final File directory) {
+	
+		final File[] files = directory.listFiles();
+		if (files == null) {
+			return;
+		}
+		
+		Arrays.sort(files);
+		for (final File file : files) {
+			if (file.isDirectory()) {
+				ScriptCache.fingerprint(sha, file);
+			} else {
+				sha.update((file.getPath() + ":" + file.length() + ":" + file.lastModified() + "\n").getBytes(StandardCharsets.UTF_8));
+			}
+		}
+	}
+	
+	/** looks up a class kept by name, without initializing it */
+	private static Class<?> forName(final String name) throws ClassNotFoundException {
+	
+		return Class.forName(name, false, ScriptCache.class.getClassLoader());
+	}
+	
+	/** a class literal, kept by name */
+	private static final class ClassName implements Serializable {
+		
+		private static final long serialVersionUID = 1L;
+		
+		private final String name;
+		
+		ClassName(final Class<?> type) {
+		
+			name = type.getName();
+		}
+	}
+	
+	/** a step that refers to a class, kept with the class by name */
+	private static final class StepName implements Serializable {
+		
+		private static final long serialVersionUID = 1L;
+		
+		private static final int NEW = 0;
+		
+		private static final int ACCESS = 1;
+		
+		private static final int TAINT_ACCESS = 2;
+		
+		private final int kind;
+		
+		private final String name;
+		
+		private final String type;
+		
+		private final int line;
+		
+		private final Step wrapped;
+		
+		private final Step next;
+		
+		StepName(final int _kind, final String _name, final Class<?> _type, final Step _wrapped, final Step _next, final int _line) {
+		
+			kind = _kind;
+			name = _name;
+			type = _type == null ? null : _type.getName();
+			wrapped = _wrapped;
+			next = _next;
+			line = _line;
+		}
+		
+		Step resolve() throws ClassNotFoundException {
+		
+			final Class<?> ref = type == null ? null : ScriptCache.forName(type);
+			final Step step;
+			
+			switch(kind) {
+				case NEW:
+					step = new ObjectNew(ref);
+					step.setInfo(line);
+					break;
+				case ACCESS:
+					step = new ObjectAccess(name, ref);
+					step.setInfo(line);
+					break;
+				default:
+					/* the line is the wrapped step's */
+					step = new TaintObjectAccess(wrapped, name, ref);
+			}
+			
+			step.next = next;
+			return step;
+		}
+	}
+	
+	/** writes the classes a block refers to by name */
+	private static final class EntryOutputStream extends ObjectOutputStream {
+		
+		EntryOutputStream(final OutputStream out) throws IOException {
+		
+			super(out);
+			enableReplaceObject(true);
+		}
+		
+		@Override
+		protected Object replaceObject(final Object value) {
+		
+			if (value instanceof ObjectValue && ((ObjectValue) value).objectValue() instanceof Class) {
+				return new ClassName((Class<?>) ((ObjectValue) value).objectValue());
+			} else if (value != null && value.getClass() == ObjectNew.class) {
+				final ObjectNew step = (ObjectNew) value;
+				return new StepName(StepName.NEW, null, step.getClassRef(), null, step.next, step.getLineNumber());
+			} else if (value != null && value.getClass() == ObjectAccess.class) {
+				final ObjectAccess step = (ObjectAccess) value;
+				return new StepName(StepName.ACCESS, step.getName(), step.getClassRef(), null, step.next, step.getLineNumber());
+			} else if (value != null && value.getClass() == TaintObjectAccess.class) {
+				final TaintObjectAccess step = (TaintObjectAccess) value;
+				return new StepName(StepName.TAINT_ACCESS, step.getName(), step.getClassRef(), step.getWrapped(), step.next, step.getLineNumber());
+			}
+			
+			return value;
+		}
+	}
+	
+	/** reads what EntryOutputStream wrote, through FILTER */
+	private static final class EntryInputStream extends ObjectInputStream {
+		
+		EntryInputStream(final InputStream in) throws IOException {
+		
+			super(in);
+			enableResolveObject(true);
+			setObjectInputFilter(ScriptCache.FILTER);
+		}
+		
+		@Override
+		protected Object resolveObject(final Object value) throws IOException {
+		
+			try {
+				if (value instanceof ClassName) {
+					return new ObjectValue(ScriptCache.forName(((ClassName) value).name));
+				} else if (value instanceof StepName) {
+					return ((StepName) value).resolve();
+				}
+			} catch (final ClassNotFoundException ex) {
+				throw new IOException(ex);
+			}
+			
+			return value;
+		}
+	}
+}
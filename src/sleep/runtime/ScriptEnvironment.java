@@ -18,7 +18,7 @@
 package sleep.runtime;
 
 import java.io.Serializable;
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Hashtable;
 import java.util.Iterator;
@@ -627,7 +627,7 @@ public class ScriptEnvironment implements Serializable {
 	//
 	// stuff related to frame management
 	//
-	protected ArrayList frames = new ArrayList(10);
+	protected Stack[] frames = new Stack[10];
 	
 	protected int findex = -1;
 	
@@ -651,9 +651,14 @@ public class ScriptEnvironment implements Serializable {
 		}
 	}
 	
+	/**
+	 * returns the frame on top of the data stack. Frames made by CreateFrame()
+	 * are {@link Frame}s, frames handed to CreateFrame(Stack) are whatever
+	 * they were.
+	 */
 	public Stack getCurrentFrame() {
 	
-		return (Stack) frames.get(findex);
+		return frames[findex];
 	}
 	
 	/**
@@ -664,7 +669,7 @@ public class ScriptEnvironment implements Serializable {
 	
 		KillFrame();
 		if (findex >= 0) {
-			getCurrentFrame().push(value);
+			frames[findex].push(value);
 		}
 	}
 	
@@ -675,32 +680,35 @@ public class ScriptEnvironment implements Serializable {
 	
 	public void KillFrame() {
 	
-		getCurrentFrame().clear();
+		frames[findex].clear();
 		findex--;
 	}
 	
 	public void CreateFrame(Stack frame) {
 	
 		if (frame == null) {
-			frame = new Stack();
+			frame = new Frame();
 		}
 		
-		if (findex + 1 >= frames.size()) {
-			frames.add(frame);
-		} else {
-			frames.set(findex + 1, frame);
+		if (findex + 1 >= frames.length) {
+			frames = Arrays.copyOf(frames, frames.length * 2);
 		}
 		
-		findex++;
+		frames[++findex] = frame;
 	}
 	
 	public void CreateFrame() {
 	
-		if (findex + 1 >= frames.size()) {
-			frames.add(new Stack());
+		if (findex + 1 >= frames.length) {
+			frames = Arrays.copyOf(frames, frames.length * 2);
 		}
 		
 		findex++;
+		
+		/* a frame someone handed us is theirs, don't reuse it */
+		if (!(frames[findex] instanceof Frame)) {
+			frames[findex] = new Frame();
+		}
 	}
 	
 	/**
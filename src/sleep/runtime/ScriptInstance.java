@@ -192,7 +192,7 @@ public class ScriptInstance implements Serializable, Runnable {
 	public ScriptInstance(final Variable varContainerToUse, Hashtable<String, List<SleepStackElement>> environmentToShare) {
 	
 		if (environmentToShare == null) {
-			environmentToShare = new Hashtable<String, List<SleepStackElement>>();
+			environmentToShare = new EnvironmentTable();
 		}
 		
 		if (varContainerToUse == null) {
@@ -493,7 +493,7 @@ public class ScriptInstance implements Serializable, Runnable {
 	public void makeSafe() {
 	
 		final Hashtable oldEnv = environment.getEnvironment();
-		final Hashtable newEnv = new Hashtable(oldEnv.size() * 2 - 1);
+		final Hashtable newEnv = new EnvironmentTable(oldEnv.size() * 2 - 1);
 		
 		/* reset the environment please */
 		final Iterator i = oldEnv.entrySet().iterator();
@@ -32,7 +32,6 @@ import java.nio.ByteBuffer;
 import java.nio.CharBuffer;
 import java.nio.charset.CharsetDecoder;
 import java.nio.charset.CoderResult;
-import java.util.Collections;
 import java.util.HashMap;
 import java.util.Hashtable;
 import java.util.Iterator;
@@ -154,6 +153,12 @@ import sleep.taint.TaintUtils;
  * </p>
  * 
  * <p>
+ * Compiled scripts can also be kept on disk across runs, see
+ * <code>loader.setCacheDirectory(dir)</code> or the sleep.cache property.
+ * Entries there are keyed by the script's source, so they need no touching.
+ * </p>
+ * 
+ * <p>
  * Hopefully this helped to clarify things. :)
  * </p>
  */
@@ -164,20 +169,30 @@ public class ScriptLoader {
 	 */
 	protected static Map<String, Object[]> BLOCK_CACHE = null;
 	
-	private Block retrieveCacheEntry(final String name) {
+	/**
+	 * compiled scripts kept on disk between runs, set with the sleep.cache
+	 * property or setCacheDirectory. null when there is no such cache.
+	 */
+	protected static ScriptCache DISK_CACHE = System.getProperty("sleep.cache") == null ? null : new ScriptCache(new File(System.getProperty("sleep.cache")));
 	
-		if (ScriptLoader.BLOCK_CACHE != null && ScriptLoader.BLOCK_CACHE.containsKey(name)) {
-			final Object[] temp = ScriptLoader.BLOCK_CACHE.get(name);
-			
-			return (Block) temp[0];
+	/**
+	 * returns the cached block for a script, null if there is none. When code
+	 * is given the entry must have been compiled from the same code.
+	 */
+	private static Block retrieveCacheEntry(final String name, final String code) {
+	
+		final Map<String, Object[]> cache = ScriptLoader.BLOCK_CACHE;
+		if (cache instanceof BlockCache) {
+			final Object[] temp = ((BlockCache) cache).get(name, code);
+			return temp == null ? null : (Block) temp[0];
 		}
 		
-		return null;
-	}
-	
-	private static boolean isCacheHit(final String name) {
-	
-		return ScriptLoader.BLOCK_CACHE != null && ScriptLoader.BLOCK_CACHE.containsKey(name);
+		final Object[] temp = cache == null ? null : cache.get(name);
+		if (temp == null || code != null && temp.length > 2 && !code.equals(temp[2])) {
+			return null;
+		}
+		
+		return (Block) temp[0];
 	}
 	
 	/**
@@ -187,13 +202,11 @@ public class ScriptLoader {
 	 */
 	public void touch(final String name, final long lastModifiedTime) {
 	
-		if (ScriptLoader.BLOCK_CACHE != null && ScriptLoader.BLOCK_CACHE.containsKey(name)) {
-			final Object[] temp = ScriptLoader.BLOCK_CACHE.get(name);
-			final long loaded = ((Long) temp[1]).longValue();
-			
-			if (lastModifiedTime > loaded) {
-				ScriptLoader.BLOCK_CACHE.remove(name);
-			}
+		final Map<String, Object[]> cache = ScriptLoader.BLOCK_CACHE;
+		final Object[] temp = cache instanceof BlockCache ? ((BlockCache) cache).peek(name) : cache == null ? null : cache.get(name);
+		
+		if (temp != null && lastModifiedTime > ((Long) temp[1]).longValue()) {
+			cache.remove(name, temp);
 		}
 	}
 	
@@ -243,7 +256,7 @@ public class ScriptLoader {
 	public Map setGlobalCache(final boolean setting) {
 	
 		if (setting && ScriptLoader.BLOCK_CACHE == null) {
-			ScriptLoader.BLOCK_CACHE = Collections.synchronizedMap(new HashMap());
+			ScriptLoader.BLOCK_CACHE = new BlockCache();
 		}
 		
 		if (!setting) {
@@ -253,6 +266,27 @@ public class ScriptLoader {
 		return ScriptLoader.BLOCK_CACHE;
 	}
 	
+	/**
+	 * returns the global block cache, with its hit, miss and eviction counts,
+	 * null if it is off or has been replaced with some other map
+	 */
+	public BlockCache getGlobalCache() {
+	
+		return ScriptLoader.BLOCK_CACHE instanceof BlockCache ? (BlockCache) ScriptLoader.BLOCK_CACHE : null;
+	}
+	
+	/**
+	 * Keeps compiled scripts in the specified directory so later runs can skip
+	 * parsing scripts that haven't changed. Pass null to stop using it. The
+	 * setting is global, like the block cache.
+	 * 
+	 * @see ScriptCache
+	 */
+	public void setCacheDirectory(final File directory) {
+	
+		ScriptLoader.DISK_CACHE = directory == null ? null : new ScriptCache(directory);
+	}
+	
 	/**
 	 * method call to initialize the default bridges, if you want to change the
 	 * default bridges subclass this class and override this method
@@ -453,9 +487,10 @@ public class ScriptLoader {
 	/** compiles a script using the specified stream as a source */
 	public Block compileScript(final String name, final InputStream stream) throws YourCodeSucksException, IOException {
 	
-		if (ScriptLoader.isCacheHit(name)) {
+		final Block cached = ScriptLoader.retrieveCacheEntry(name, null);
+		if (cached != null) {
 			stream.close();
-			return retrieveCacheEntry(name);
+			return cached;
 		}
 		
 		final StringBuffer code = new StringBuffer(8192);
@@ -471,7 +506,7 @@ public class ScriptLoader {
 		in.close();
 		stream.close();
 		
-		return compileScript(name, code.toString());
+		return compile(name, code.toString());
 	}
 	
 	/**
@@ -494,9 +529,21 @@ public class ScriptLoader {
 	/** compiles the specified script into a runnable block */
 	public Block compileScript(final String name, final String code) throws YourCodeSucksException {
 	
-		if (ScriptLoader.isCacheHit(name)) {
-			return retrieveCacheEntry(name);
-		} else {
+		final Block cached = ScriptLoader.retrieveCacheEntry(name, code);
+		if (cached != null) {
+			return cached;
+		}
+		
+		return compile(name, code);
+	}
+	
+	/** compiles a script the block cache doesn't have and caches it */
+	private Block compile(final String name, final String code) throws YourCodeSucksException {
+	
+		final ScriptCache disk = ScriptLoader.DISK_CACHE;
+		Block block = disk == null ? null : disk.get(name, code);
+		
+		if (block == null) {
 			final Parser temp = new Parser(name, code);
 			
 			if (TaintUtils.isTaintMode()) {
@@ -504,13 +551,19 @@ public class ScriptLoader {
 			}
 			
 			temp.parse();
+			block = temp.getRunnableBlock();
 			
-			if (ScriptLoader.BLOCK_CACHE != null) {
-				ScriptLoader.BLOCK_CACHE.put(name, new Object[] { temp.getRunnableBlock(), new Long(System.currentTimeMillis()) });
+			if (disk != null) {
+				disk.put(name, code, block);
 			}
-			
-			return temp.getRunnableBlock();
 		}
+		
+		final Map<String, Object[]> cache = ScriptLoader.BLOCK_CACHE;
+		if (cache != null) {
+			cache.put(name, new Object[] { block, new Long(System.currentTimeMillis()), code });
+		}
+		
+		return block;
 	}
 	
 	/** loads a script from the specified inputstream */
@@ -551,7 +604,7 @@ public class ScriptLoader {
 	 */
 	public ScriptInstance loadScript(final File file, final Hashtable env) throws IOException, YourCodeSucksException {
 	
-		final ScriptInstance script = loadScript(file.getAbsolutePath(), new FileInputStream(file), env);
+		final ScriptInstance script = loadScript(file.getAbsolutePath(), compileScript(file), env);
 		script.associateFile(file);
 		return script;
 	}
@@ -577,9 +630,20 @@ public class ScriptLoader {
 	 */
 	public void unloadScript(final ScriptInstance script) {
 	
+		unloadScript(script, true);
+	}
+	
+	/**
+	 * unload a script, keeping its compiled block in the global cache when
+	 * uncache is false. Entries are checked against the source they were
+	 * compiled from, so a script that changes is still compiled again.
+	 */
+	public void unloadScript(final ScriptInstance script, final boolean uncache) {
+	
 		// clear the block cache of this script...
-		if (ScriptLoader.BLOCK_CACHE != null) {
-			ScriptLoader.BLOCK_CACHE.remove(script.getName());
+		final Map<String, Object[]> cache = ScriptLoader.BLOCK_CACHE;
+		if (uncache && cache != null) {
+			cache.remove(script.getName());
 		}
 		
 		//
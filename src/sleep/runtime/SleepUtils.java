@@ -679,7 +679,7 @@ public class SleepUtils {
 	public static Scalar getScalar(final int x) {
 	
 		final Scalar temp = new Scalar();
-		temp.setValue(new IntValue(x));
+		temp.setValue(IntValue.valueOf(x));
 		
 		return temp;
 	}
@@ -688,7 +688,7 @@ public class SleepUtils {
 	public static Scalar getScalar(final short x) {
 	
 		final Scalar temp = new Scalar();
-		temp.setValue(new IntValue(x));
+		temp.setValue(IntValue.valueOf(x));
 		
 		return temp;
 	}
@@ -731,7 +731,7 @@ public class SleepUtils {
 	public static Scalar getScalar(final long x) {
 	
 		final Scalar temp = new Scalar();
-		temp.setValue(new LongValue(x));
+		temp.setValue(LongValue.valueOf(x));
 		
 		return temp;
 	}
@@ -758,7 +758,7 @@ public class SleepUtils {
 			buff.append(append);
 		}
 		
-		temp.setValue(new StringValue(buff.toString()));
+		temp.setValue(StringValue.valueOf(buff.toString()));
 		
 		return temp;
 	}
@@ -771,7 +771,7 @@ public class SleepUtils {
 		}
 		
 		final Scalar temp = new Scalar();
-		temp.setValue(new StringValue(x));
+		temp.setValue(StringValue.valueOf(x));
 		
 		return temp;
 	}
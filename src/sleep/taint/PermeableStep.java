@@ -37,6 +37,12 @@ public class PermeableStep extends Step {
 		wrapped = step;
 	}
 	
+	/** returns the step this one taints the result of */
+	public Step getWrapped() {
+	
+		return wrapped;
+	}
+	
 	@Override
 	public void setInfo(final int _line) {
 	
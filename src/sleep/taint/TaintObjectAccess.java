@@ -41,6 +41,18 @@ public class TaintObjectAccess extends PermeableStep {
 		classRef = _classRef;
 	}
 	
+	/** returns the name of the method or field this step accesses */
+	public String getName() {
+	
+		return name;
+	}
+	
+	/** returns the class of a static access, null otherwise */
+	public Class getClassRef() {
+	
+		return classRef;
+	}
+	
 	@Override
 	public Scalar evaluate(final ScriptEnvironment e) {
 	
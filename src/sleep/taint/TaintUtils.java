@@ -24,6 +24,7 @@ import java.util.Set;
 import java.util.Stack;
 
 import sleep.bridges.KeyValuePair;
+import sleep.bridges.io.MappedLines;
 import sleep.engine.types.ObjectValue;
 import sleep.runtime.CollectionWrapper;
 import sleep.runtime.MapWrapper;
@@ -161,7 +162,7 @@ public class TaintUtils {
 	 */
 	public static Scalar taintAll(final Scalar value) {
 	
-		if (value.getArray() != null && value.getArray().getClass() == CollectionWrapper.class) {
+		if (value.getArray() != null && (value.getArray().getClass() == CollectionWrapper.class || value.getArray() instanceof MappedLines)) {
 			value.setValue(new TaintArray(value.getArray()));
 		} else if (value.getArray() != null) {
 			final Iterator i = value.getArray().scalarIterator();